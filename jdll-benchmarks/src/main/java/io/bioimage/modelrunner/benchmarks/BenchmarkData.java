@@ -0,0 +1,215 @@
+/*-
+ * #%L
+ * Use deep learning frameworks from Java in an agnostic and isolated way.
+ * %%
+ * Copyright (C) 2022 - 2023 Institut Pasteur and BioImage.IO developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.bioimage.modelrunner.benchmarks;
+
+import java.util.Random;
+
+import io.bioimage.modelrunner.tensor.Tensor;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.ByteType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.LongType;
+import net.imglib2.type.numeric.integer.ShortType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedIntType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+/**
+ * Creation of the random images and tensors used by the benchmarks. The values are
+ * generated with a fixed seed, so every run of a benchmark processes the same data
+ *
+ * @author Carlos Garcia Lopez de Haro
+ */
+public final class BenchmarkData
+{
+	/**
+	 * Seed of the random values
+	 */
+	public static final long SEED = 42;
+
+	private BenchmarkData()
+	{
+	}
+
+	/**
+	 * Create a tensor filled with random values of the wanted data type
+	 *
+	 * @param name
+	 *            name of the tensor
+	 * @param axes
+	 *            axes order of the tensor
+	 * @param shape
+	 *            shape of the tensor
+	 * @param dtype
+	 *            data type with the name used by the rdf.yaml, for example "uint8" or "float32"
+	 * @return the tensor
+	 */
+	public static Tensor< ? > createTensor( final String name, final String axes, final long[] shape, final String dtype )
+	{
+		switch ( dtype.toLowerCase() )
+		{
+		case "int8":
+			return createTensor( name, axes, shape, new ByteType() );
+		case "uint8":
+			return createTensor( name, axes, shape, new UnsignedByteType() );
+		case "int16":
+			return createTensor( name, axes, shape, new ShortType() );
+		case "uint16":
+			return createTensor( name, axes, shape, new UnsignedShortType() );
+		case "int32":
+			return createTensor( name, axes, shape, new IntType() );
+		case "uint32":
+			return createTensor( name, axes, shape, new UnsignedIntType() );
+		case "int64":
+			return createTensor( name, axes, shape, new LongType() );
+		case "float32":
+			return createTensor( name, axes, shape, new FloatType() );
+		case "float64":
+			return createTensor( name, axes, shape, new DoubleType() );
+		default:
+			throw new IllegalArgumentException( "Unsupported data type: " + dtype );
+		}
+	}
+
+	/**
+	 * Create a tensor filled with random values, see {@link #createImage(long[], RealType)}
+	 *
+	 * @param <T>
+	 *            the ImgLib2 data type of the tensor
+	 * @param name
+	 *            name of the tensor
+	 * @param axes
+	 *            axes order of the tensor
+	 * @param shape
+	 *            shape of the tensor
+	 * @param type
+	 *            data type of the tensor
+	 * @return the tensor
+	 */
+	public static < T extends RealType< T > & NativeType< T > > Tensor< T > createTensor( final String name,
+			final String axes, final long[] shape, final T type )
+	{
+		return Tensor.build( name, axes, createImage( shape, type ) );
+	}
+
+	/**
+	 * Create an image filled with random values. Integer types are filled uniformly in the
+	 * range of the type, up to 16 bits, and floating point types with a normal distribution
+	 * of mean 0 and standard deviation 100
+	 *
+	 * @param <T>
+	 *            the ImgLib2 data type of the image
+	 * @param shape
+	 *            shape of the image
+	 * @param type
+	 *            data type of the image
+	 * @return the image
+	 */
+	public static < T extends RealType< T > & NativeType< T > > Img< T > createImage( final long[] shape, final T type )
+	{
+		final Img< T > img = new ArrayImgFactory<>( type ).create( shape );
+		final Random random = new Random( SEED );
+		final boolean isFloat = type instanceof FloatType || type instanceof DoubleType;
+		final double min = Math.max( type.getMinValue(), Short.MIN_VALUE );
+		final double range = Math.min( type.getMaxValue(), 0xffff ) - min;
+		final Cursor< T > cursor = img.cursor();
+		while ( cursor.hasNext() )
+		{
+			final T px = cursor.next();
+			if ( isFloat )
+				px.setReal( 100 * random.nextGaussian() );
+			else
+				px.setReal( Math.floor( min + random.nextDouble() * ( range + 1 ) ) );
+		}
+		return img;
+	}
+
+	/**
+	 * Create a float copy of an image
+	 *
+	 * @param <T>
+	 *            the ImgLib2 data type of the image
+	 * @param image
+	 *            the image
+	 * @return an image of floats with the same values
+	 */
+	public static < T extends RealType< T > > Img< FloatType > toFloat( final RandomAccessibleInterval< T > image )
+	{
+		final Img< FloatType > copy = new ArrayImgFactory<>( new FloatType() ).create( image );
+		copy( image, copy );
+		return copy;
+	}
+
+	/**
+	 * Copy the values of an image into another of the same size
+	 *
+	 * @param <T>
+	 *            the ImgLib2 data type of the source
+	 * @param source
+	 *            the image copied
+	 * @param target
+	 *            the image overwritten
+	 */
+	public static < T extends RealType< T > > void copy( final RandomAccessibleInterval< T > source, final Img< FloatType > target )
+	{
+		final Cursor< T > src = Views.flatIterable( source ).cursor();
+		final Cursor< FloatType > tgt = target.cursor();
+		while ( tgt.hasNext() )
+			tgt.next().setReal( src.next().getRealDouble() );
+	}
+
+	/**
+	 * Parse the shape of an image written as its sizes separated by 'x', for example "3x512x512"
+	 *
+	 * @param shape
+	 *            the shape as a String
+	 * @return the shape
+	 */
+	public static long[] parseShape( final String shape )
+	{
+		final String[] sizes = shape.split( "x" );
+		final long[] dims = new long[ sizes.length ];
+		for ( int i = 0; i < sizes.length; i ++ )
+			dims[ i ] = Long.parseLong( sizes[ i ].trim() );
+		return dims;
+	}
+
+	/**
+	 * Create an array of random bytes
+	 *
+	 * @param length
+	 *            number of bytes
+	 * @return the array
+	 */
+	public static byte[] createBytes( final int length )
+	{
+		final byte[] bytes = new byte[ length ];
+		new Random( SEED ).nextBytes( bytes );
+		return bytes;
+	}
+}
@@ -0,0 +1,60 @@
+/*-
+ * #%L
+ * Use deep learning frameworks from Java in an agnostic and isolated way.
+ * %%
+ * Copyright (C) 2022 - 2023 Institut Pasteur and BioImage.IO developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.bioimage.modelrunner.benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Counter of the megabytes processed by a benchmark. JMH reports it as a rate next to the
+ * score, so a throughput benchmark measured in seconds reports the MB/s it reaches.
+ * The benchmark adds the bytes it processes on every invocation with {@link #add(long)}.
+ *
+ * @author Carlos Garcia Lopez de Haro
+ */
+@State( Scope.Thread )
+@AuxCounters( AuxCounters.Type.OPERATIONS )
+public class ByteCounter
+{
+	/**
+	 * Megabytes processed during the iteration
+	 */
+	public double megabytes;
+
+	@Setup( Level.Iteration )
+	public void reset()
+	{
+		megabytes = 0;
+	}
+
+	/**
+	 * Count the bytes processed by one invocation
+	 *
+	 * @param bytes
+	 *            number of bytes
+	 */
+	public void add( final long bytes )
+	{
+		megabytes += bytes / 1e6;
+	}
+}
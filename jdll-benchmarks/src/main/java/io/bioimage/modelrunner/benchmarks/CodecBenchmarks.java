@@ -0,0 +1,65 @@
+/*-
+ * #%L
+ * Use deep learning frameworks from Java in an agnostic and isolated way.
+ * %%
+ * Copyright (C) 2022 - 2023 Institut Pasteur and BioImage.IO developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.bioimage.modelrunner.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Run the benchmarks of the codecs, the decoding of Numpy arrays and the serialization
+ * of tensors for the BioEngine, with the GC profiler, so the results show the MB/s of
+ * every codec and the allocation rate, gc.alloc.rate.norm being the bytes allocated
+ * per operation.
+ *
+ * The arguments are the usual JMH options, for example to save the results as JSON for CI:
+ * <pre>
+ * java -cp target/benchmarks.jar io.bioimage.modelrunner.benchmarks.CodecBenchmarks -rf json -rff codecs.json
+ * </pre>
+ *
+ * @author Carlos Garcia Lopez de Haro
+ */
+public class CodecBenchmarks
+{
+	/**
+	 * Regular expression selecting the codec benchmarks
+	 */
+	public static final String INCLUDE = "io\\.bioimage\\.modelrunner\\.(numpy|bioimageio\\.bioengine)\\..*Benchmark";
+
+	/**
+	 * Run the codec benchmarks
+	 *
+	 * @param args
+	 *            JMH command line options
+	 * @throws RunnerException if any benchmark fails
+	 * @throws CommandLineOptionException if the options are not valid
+	 */
+	public static void main( final String[] args ) throws RunnerException, CommandLineOptionException
+	{
+		new Runner( new OptionsBuilder()
+				.parent( new CommandLineOptions( args ) )
+				.include( INCLUDE )
+				.addProfiler( GCProfiler.class )
+				.build() ).run();
+	}
+}
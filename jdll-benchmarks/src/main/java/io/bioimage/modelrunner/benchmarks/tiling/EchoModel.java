@@ -0,0 +1,129 @@
+/*-
+ * #%L
+ * Use deep learning frameworks from Java in an agnostic and isolated way.
+ * %%
+ * Copyright (C) 2022 - 2023 Institut Pasteur and BioImage.IO developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.bioimage.modelrunner.benchmarks.tiling;
+
+import io.bioimage.modelrunner.bioimageio.description.ModelDescriptor;
+import io.bioimage.modelrunner.bioimageio.description.TensorSpec;
+import io.bioimage.modelrunner.engine.EchoEngine;
+import io.bioimage.modelrunner.model.Model;
+
+/**
+ * Specs and instances of a model run by the {@link EchoEngine}: one float input and one float
+ * output of the same shape, with a halo, that can be tiled along the spatial axes
+ *
+ * @author Carlos Garcia Lopez de Haro
+ */
+public final class EchoModel
+{
+	/**
+	 * Axes order of the 2D model
+	 */
+	public static final String AXES_2D = "bcyx";
+	/**
+	 * Axes order of the 3D model
+	 */
+	public static final String AXES_3D = "bczyx";
+	/**
+	 * Step of the patch size along every spatial axis
+	 */
+	public static final int STEP = 16;
+
+	private EchoModel()
+	{
+	}
+
+	/**
+	 * Create the specs of the echo model
+	 *
+	 * @param axes
+	 *            axes order of the input and the output, {@link #AXES_2D} or {@link #AXES_3D}
+	 * @param halo
+	 *            halo of the output along the x and y axes
+	 * @param zHalo
+	 *            halo of the output along the z axis, ignored in 2D
+	 * @return the specs
+	 * @throws Exception if the specs cannot be parsed
+	 */
+	public static ModelDescriptor createDescriptor( String axes, int halo, int zHalo ) throws Exception
+	{
+		StringBuilder min = new StringBuilder();
+		StringBuilder step = new StringBuilder();
+		StringBuilder haloList = new StringBuilder();
+		StringBuilder scale = new StringBuilder();
+		StringBuilder offset = new StringBuilder();
+		for ( int i = 0; i < axes.length(); i ++ ) {
+			String sep = i == 0 ? "" : ", ";
+			char ax = axes.charAt( i );
+			boolean spatial = ax == 'x' || ax == 'y' || ax == 'z';
+			min.append( sep ).append( spatial ? STEP : 1 );
+			step.append( sep ).append( spatial ? STEP : 0 );
+			haloList.append( sep ).append( ax == 'z' ? zHalo : ( spatial ? halo : 0 ) );
+			scale.append( sep ).append( 1 );
+			offset.append( sep ).append( 0 );
+		}
+		String yaml = "name: jdll-echo-benchmark\n"
+				+ "id: jdll/echo-benchmark\n"
+				+ "inputs:\n"
+				+ "  - name: input0\n"
+				+ "    axes: " + axes + "\n"
+				+ "    data_type: float32\n"
+				+ "    shape:\n"
+				+ "      min: [" + min + "]\n"
+				+ "      step: [" + step + "]\n"
+				+ "outputs:\n"
+				+ "  - name: output0\n"
+				+ "    axes: " + axes + "\n"
+				+ "    data_type: float32\n"
+				+ "    halo: [" + haloList + "]\n"
+				+ "    shape:\n"
+				+ "      reference_tensor: input0\n"
+				+ "      scale: [" + scale + "]\n"
+				+ "      offset: [" + offset + "]\n";
+		return ModelDescriptor.readFromYamlTextString( yaml, false );
+	}
+
+	/**
+	 * Set the patch processed by the model on each tile
+	 *
+	 * @param descriptor
+	 *            specs of the echo model
+	 * @param patch
+	 *            the patch size in the axes order of the input, including the halo
+	 * @throws Exception if the patch does not fulfill the specs
+	 */
+	public static void setPatch( ModelDescriptor descriptor, int[] patch ) throws Exception
+	{
+		TensorSpec input = descriptor.getInputTensors().get( 0 );
+		input.validate( patch );
+	}
+
+	/**
+	 * Create and load an instance of the echo model
+	 *
+	 * @return the loaded model
+	 * @throws Exception if the model cannot be loaded
+	 */
+	public static Model createModel() throws Exception
+	{
+		Model model = Model.createModelWithEngine( System.getProperty( "java.io.tmpdir" ), null, new EchoEngine() );
+		model.loadModel();
+		return model;
+	}
+}
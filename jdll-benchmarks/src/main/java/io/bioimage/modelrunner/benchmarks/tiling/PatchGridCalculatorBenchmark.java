@@ -0,0 +1,84 @@
+/*-
+ * #%L
+ * Use deep learning frameworks from Java in an agnostic and isolated way.
+ * %%
+ * Copyright (C) 2022 - 2023 Institut Pasteur and BioImage.IO developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.bioimage.modelrunner.benchmarks.tiling;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.bioimage.modelrunner.benchmarks.BenchmarkData;
+import io.bioimage.modelrunner.bioimageio.description.ModelDescriptor;
+import io.bioimage.modelrunner.tiling.PatchGridCalculator;
+import io.bioimage.modelrunner.tiling.PatchSpec;
+import net.imglib2.type.numeric.real.FloatType;
+
+/**
+ * Benchmark of the calculation of the patch grid, {@link PatchGridCalculator#call()},
+ * for 2D and 3D images and several halos
+ *
+ * @author Carlos Garcia Lopez de Haro
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class PatchGridCalculatorBenchmark
+{
+	@Param( { "2d", "3d" } )
+	public String dims;
+
+	@Param( { "0", "16", "32" } )
+	public int halo;
+
+	private ModelDescriptor descriptor;
+
+	private Map< String, Object > inputs;
+
+	@Setup
+	public void setup() throws Exception
+	{
+		TilingCase tiling = TilingCase.create( dims, halo );
+		descriptor = EchoModel.createDescriptor( tiling.axes, halo, tiling.getZHalo() );
+		EchoModel.setPatch( descriptor, tiling.patch );
+		inputs = new HashMap< String, Object >();
+		inputs.put( "input0", BenchmarkData.createTensor( "input0", tiling.axes, tiling.imageShape, new FloatType() ) );
+	}
+
+	@Benchmark
+	public List< PatchSpec > call()
+	{
+		return PatchGridCalculator.build( descriptor, inputs ).call();
+	}
+}
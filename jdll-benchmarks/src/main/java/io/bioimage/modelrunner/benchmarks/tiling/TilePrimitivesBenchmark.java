@@ -0,0 +1,122 @@
+/*-
+ * #%L
+ * Use deep learning frameworks from Java in an agnostic and isolated way.
+ * %%
+ * Copyright (C) 2022 - 2023 Institut Pasteur and BioImage.IO developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.bioimage.modelrunner.benchmarks.tiling;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.bioimage.modelrunner.benchmarks.BenchmarkData;
+import io.bioimage.modelrunner.tiling.ImgLib2Utils;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.type.numeric.real.FloatType;
+
+/**
+ * Benchmarks of the copies done for every tile by the tiling: the extraction of a patch without
+ * mirroring ({@link ImgLib2Utils#copyRaiData}) and with mirroring ({@link ImgLib2Utils#addMirrorToPatchRai}),
+ * and the stitching of its area of interest into the output ({@link ImgLib2Utils#fillRaiAt}).
+ * Tiles in the middle of the image are compared with tiles at its corner, whose halo is mirrored.
+ *
+ * @author Carlos Garcia Lopez de Haro
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class TilePrimitivesBenchmark
+{
+	@Param( { "2d", "3d" } )
+	public String dims;
+
+	@Param( { "8", "16", "32" } )
+	public int halo;
+
+	@Param( { "interior", "edge" } )
+	public String tile;
+
+	private Img< FloatType > image;
+
+	private Img< FloatType > patch;
+
+	private Img< FloatType > output;
+
+	private int[] patchStart;
+
+	private int[] haloArr;
+
+	private int[][] padding;
+
+	private int[] outputStart;
+
+	private int[] areaOfInterest;
+
+	@Setup
+	public void setup()
+	{
+		TilingCase tiling = TilingCase.create( dims, halo );
+		image = BenchmarkData.createImage( tiling.imageShape, new FloatType() );
+		long[] patchShape = new long[ tiling.patch.length ];
+		for ( int i = 0; i < patchShape.length; i ++ )
+			patchShape[ i ] = tiling.patch[ i ];
+		patch = BenchmarkData.createImage( patchShape, new FloatType() );
+		output = new ArrayImgFactory<>( new FloatType() ).create( tiling.imageShape );
+		patchStart = tiling.getPatchStart( tile.equals( "edge" ) );
+		haloArr = tiling.halo;
+		padding = new int[][] { haloArr, haloArr };
+		areaOfInterest = tiling.getAreaOfInterest();
+		outputStart = new int[ patchStart.length ];
+		for ( int i = 0; i < outputStart.length; i ++ )
+			outputStart[ i ] = patchStart[ i ] + haloArr[ i ];
+	}
+
+	@Benchmark
+	public Img< FloatType > copyRaiData()
+	{
+		ImgLib2Utils.copyRaiData( image, patch, patchStart, haloArr );
+		return patch;
+	}
+
+	@Benchmark
+	public Img< FloatType > addMirrorToPatchRai()
+	{
+		ImgLib2Utils.addMirrorToPatchRai( image, patch, patchStart, padding );
+		return patch;
+	}
+
+	@Benchmark
+	public Img< FloatType > fillRaiAt()
+	{
+		ImgLib2Utils.fillRaiAt( output, patch, outputStart, haloArr, areaOfInterest );
+		return output;
+	}
+}
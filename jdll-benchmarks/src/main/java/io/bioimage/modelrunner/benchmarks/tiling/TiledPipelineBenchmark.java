@@ -0,0 +1,105 @@
+/*-
+ * #%L
+ * Use deep learning frameworks from Java in an agnostic and isolated way.
+ * %%
+ * Copyright (C) 2022 - 2023 Institut Pasteur and BioImage.IO developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.bioimage.modelrunner.benchmarks.tiling;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.bioimage.modelrunner.benchmarks.BenchmarkData;
+import io.bioimage.modelrunner.bioimageio.description.ModelDescriptor;
+import io.bioimage.modelrunner.engine.EchoEngine;
+import io.bioimage.modelrunner.model.Model;
+import io.bioimage.modelrunner.tensor.Tensor;
+import io.bioimage.modelrunner.tiling.TiledModelRunner;
+import net.imglib2.type.numeric.real.FloatType;
+
+/**
+ * Benchmark of the whole tiled inference, {@link TiledModelRunner#run(List)}, with a model run by the
+ * {@link EchoEngine}. As the engine only copies its input, the time measured is the overhead
+ * of JDLL: patch extraction, mirroring, the call to the engine and stitching.
+ *
+ * @author Carlos Garcia Lopez de Haro
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class TiledPipelineBenchmark
+{
+	@Param( { "2d", "3d" } )
+	public String dims;
+
+	@Param( { "16", "32" } )
+	public int halo;
+
+	@Param( { "1", "3" } )
+	public int tilesInFlight;
+
+	@Param( { "true", "false" } )
+	public boolean interiorViews;
+
+	private Model model;
+
+	private TiledModelRunner runner;
+
+	private List< Tensor< ? > > inputs;
+
+	@Setup
+	public void setup() throws Exception
+	{
+		TilingCase tiling = TilingCase.create( dims, halo );
+		ModelDescriptor descriptor = EchoModel.createDescriptor( tiling.axes, halo, tiling.getZHalo() );
+		EchoModel.setPatch( descriptor, tiling.patch );
+		model = EchoModel.createModel();
+		runner = TiledModelRunner.build( model, descriptor );
+		runner.setTilesInFlight( tilesInFlight );
+		runner.setUseInteriorViews( interiorViews );
+		inputs = new ArrayList< Tensor< ? > >();
+		inputs.add( BenchmarkData.createTensor( "input0", tiling.axes, tiling.imageShape, new FloatType() ) );
+	}
+
+	@Benchmark
+	public List< Tensor< ? > > run() throws Exception
+	{
+		return runner.run( inputs );
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		model.closeModel();
+	}
+}
@@ -0,0 +1,123 @@
+/*-
+ * #%L
+ * Use deep learning frameworks from Java in an agnostic and isolated way.
+ * %%
+ * Copyright (C) 2022 - 2023 Institut Pasteur and BioImage.IO developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.bioimage.modelrunner.benchmarks.tiling;
+
+/**
+ * Geometry of the images and tiles used by the tiling benchmarks. 2D images are 2048x2048
+ * pixels tiled in patches of 256x256 and 3D images 64x512x512 pixels tiled in patches of
+ * 32x256x256, both with a single channel and batch. The halo along z is a quarter of the halo
+ * along x and y.
+ *
+ * @author Carlos Garcia Lopez de Haro
+ */
+public final class TilingCase
+{
+	/**
+	 * Axes order of the images and patches
+	 */
+	public final String axes;
+	/**
+	 * Shape of the full size image
+	 */
+	public final long[] imageShape;
+	/**
+	 * Shape of a patch, including the halo
+	 */
+	public final int[] patch;
+	/**
+	 * Halo along every axis
+	 */
+	public final int[] halo;
+
+	private TilingCase( String axes, long[] imageShape, int[] patch, int[] halo )
+	{
+		this.axes = axes;
+		this.imageShape = imageShape;
+		this.patch = patch;
+		this.halo = halo;
+	}
+
+	/**
+	 * Create the geometry of a benchmark
+	 *
+	 * @param dims
+	 *            "2d" or "3d"
+	 * @param halo
+	 *            halo along the x and y axes
+	 * @return the geometry
+	 */
+	public static TilingCase create( String dims, int halo )
+	{
+		if ( dims.equalsIgnoreCase( "2d" ) )
+			return new TilingCase( EchoModel.AXES_2D, new long[] { 1, 1, 2048, 2048 },
+					new int[] { 1, 1, 256, 256 }, new int[] { 0, 0, halo, halo } );
+		else if ( dims.equalsIgnoreCase( "3d" ) )
+			return new TilingCase( EchoModel.AXES_3D, new long[] { 1, 1, 64, 512, 512 },
+					new int[] { 1, 1, 32, 256, 256 }, new int[] { 0, 0, getZHalo( halo ), halo, halo } );
+		throw new IllegalArgumentException( "Unknown number of dimensions: " + dims );
+	}
+
+	/**
+	 *
+	 * @return halo along the z axis, 0 for 2D images
+	 */
+	public int getZHalo()
+	{
+		int zInd = axes.indexOf( 'z' );
+		return zInd == -1 ? 0 : halo[ zInd ];
+	}
+
+	/**
+	 * Get where a patch, including its halo, starts in the image
+	 *
+	 * @param edge
+	 *            whether the tile is at the top left corner of the image, so its halo falls
+	 *            out of the image and has to be mirrored, or in the middle of the image
+	 * @return the position of the first pixel of the patch in the image. It is negative along
+	 *         the axes where the patch falls out of the image
+	 */
+	public int[] getPatchStart( boolean edge )
+	{
+		int[] start = new int[ patch.length ];
+		for ( int i = 0; i < start.length; i ++ ) {
+			if ( halo[ i ] == 0 && patch[ i ] == imageShape[ i ] )
+				continue;
+			start[ i ] = edge ? -halo[ i ] : ( int ) ( imageShape[ i ] / 2 - patch[ i ] / 2 );
+		}
+		return start;
+	}
+
+	/**
+	 *
+	 * @return size of the area of interest of a patch, the patch without its halo
+	 */
+	public int[] getAreaOfInterest()
+	{
+		int[] aoi = new int[ patch.length ];
+		for ( int i = 0; i < aoi.length; i ++ )
+			aoi[ i ] = patch[ i ] - 2 * halo[ i ];
+		return aoi;
+	}
+
+	private static int getZHalo( int halo )
+	{
+		return halo / 4;
+	}
+}
@@ -0,0 +1,39 @@
+/*-
+ * #%L
+ * Use deep learning frameworks from Java in an agnostic and isolated way.
+ * %%
+ * Copyright (C) 2022 - 2023 Institut Pasteur and BioImage.IO developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.bioimage.modelrunner.benchmarks.transformations;
+
+import io.bioimage.modelrunner.transformations.BinarizeTransformation;
+import io.bioimage.modelrunner.transformations.TensorTransformation;
+
+/**
+ * Benchmarks of {@link BinarizeTransformation} with a threshold of 100
+ *
+ * @author Carlos Garcia Lopez de Haro
+ */
+public class BinarizeBenchmark extends TransformationBenchmark
+{
+	@Override
+	protected TensorTransformation createTransformation()
+	{
+		BinarizeTransformation transformation = new BinarizeTransformation();
+		transformation.setThreshold( 100 );
+		return transformation;
+	}
+}
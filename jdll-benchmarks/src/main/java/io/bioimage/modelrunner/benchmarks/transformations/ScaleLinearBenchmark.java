@@ -0,0 +1,55 @@
+/*-
+ * #%L
+ * Use deep learning frameworks from Java in an agnostic and isolated way.
+ * %%
+ * Copyright (C) 2022 - 2023 Institut Pasteur and BioImage.IO developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.bioimage.modelrunner.benchmarks.transformations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.openjdk.jmh.annotations.Param;
+
+import io.bioimage.modelrunner.transformations.ScaleLinearTransformation;
+import io.bioimage.modelrunner.transformations.TensorTransformation;
+
+/**
+ * Benchmarks of {@link ScaleLinearTransformation} with a single gain and offset ("global")
+ * or one per channel ("channel")
+ *
+ * @author Carlos Garcia Lopez de Haro
+ */
+public class ScaleLinearBenchmark extends TransformationBenchmark
+{
+	@Param( { "global", "channel" } )
+	public String axesMode;
+
+	@Override
+	protected TensorTransformation createTransformation()
+	{
+		ScaleLinearTransformation transformation = new ScaleLinearTransformation();
+		if ( axesMode.equals( "channel" ) ) {
+			transformation.setGain( new ArrayList< Double >( Arrays.asList( 0.5, 1.0, 2.0 ) ) );
+			transformation.setOffset( new ArrayList< Double >( Arrays.asList( -1.0, 0.0, 1.0 ) ) );
+			transformation.setAxes( "xy" );
+		} else {
+			transformation.setGain( 2.0 );
+			transformation.setOffset( 1.0 );
+		}
+		return transformation;
+	}
+}
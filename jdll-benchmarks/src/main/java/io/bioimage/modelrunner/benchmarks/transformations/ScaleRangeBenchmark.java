@@ -0,0 +1,48 @@
+/*-
+ * #%L
+ * Use deep learning frameworks from Java in an agnostic and isolated way.
+ * %%
+ * Copyright (C) 2022 - 2023 Institut Pasteur and BioImage.IO developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.bioimage.modelrunner.benchmarks.transformations;
+
+import org.openjdk.jmh.annotations.Param;
+
+import io.bioimage.modelrunner.transformations.ScaleRangeTransformation;
+import io.bioimage.modelrunner.transformations.TensorTransformation;
+
+/**
+ * Benchmarks of {@link ScaleRangeTransformation} between the percentiles 1 and 99, computed
+ * over the whole image ("global") or over each channel ("channel")
+ *
+ * @author Carlos Garcia Lopez de Haro
+ */
+public class ScaleRangeBenchmark extends TransformationBenchmark
+{
+	@Param( { "global", "channel" } )
+	public String axesMode;
+
+	@Override
+	protected TensorTransformation createTransformation()
+	{
+		ScaleRangeTransformation transformation = new ScaleRangeTransformation();
+		transformation.setMinPercentile( 1 );
+		transformation.setMaxPercentile( 99 );
+		if ( axesMode.equals( "channel" ) )
+			transformation.setAxes( "xy" );
+		return transformation;
+	}
+}
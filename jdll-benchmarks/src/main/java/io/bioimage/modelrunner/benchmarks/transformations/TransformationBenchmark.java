@@ -0,0 +1,133 @@
+/*-
+ * #%L
+ * Use deep learning frameworks from Java in an agnostic and isolated way.
+ * %%
+ * Copyright (C) 2022 - 2023 Institut Pasteur and BioImage.IO developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.bioimage.modelrunner.benchmarks.transformations;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.bioimage.modelrunner.benchmarks.BenchmarkData;
+import io.bioimage.modelrunner.tensor.Tensor;
+import io.bioimage.modelrunner.transformations.TensorTransformation;
+import net.imglib2.img.Img;
+import net.imglib2.parallel.Parallelization;
+import net.imglib2.type.numeric.real.FloatType;
+
+/**
+ * Base of the benchmarks of the transformations. Every transformation is measured with
+ * {@link TensorTransformation#apply(Tensor)} and {@link TensorTransformation#applyInPlace(Tensor)}
+ * on "bcyx" images with 3 channels, for every data type, image size and number of threads.
+ *
+ * The in-place benchmark restores the float input before every invocation, so every
+ * invocation transforms the same values. The restore is not measured.
+ *
+ * @author Carlos Garcia Lopez de Haro
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public abstract class TransformationBenchmark
+{
+	/**
+	 * Axes order of the images
+	 */
+	protected static final String AXES = "bcyx";
+	/**
+	 * Number of channels of the images
+	 */
+	protected static final int CHANNELS = 3;
+
+	@Param( { "uint8", "uint16", "float32" } )
+	public String dtype;
+
+	@Param( { "256", "1024", "2048" } )
+	public int size;
+
+	@Param( { "1", "4" } )
+	public int threads;
+
+	private TensorTransformation transformation;
+
+	private Tensor< ? > input;
+
+	private Img< FloatType > floatInput;
+
+	private Img< FloatType > work;
+
+	private Tensor< FloatType > workTensor;
+
+	/**
+	 * Create the transformation benchmarked, with its parameters set
+	 *
+	 * @return the transformation
+	 */
+	protected abstract TensorTransformation createTransformation();
+
+	@Setup( Level.Trial )
+	public void setup()
+	{
+		final long[] shape = new long[] { 1, CHANNELS, size, size };
+		transformation = createTransformation();
+		input = BenchmarkData.createTensor( "input", AXES, shape, dtype );
+		floatInput = BenchmarkData.toFloat( input.getData() );
+		work = floatInput.copy();
+		workTensor = Tensor.build( "input", AXES, work );
+	}
+
+	@Setup( Level.Invocation )
+	public void restoreWork()
+	{
+		BenchmarkData.copy( floatInput, work );
+	}
+
+	@Benchmark
+	public Tensor< FloatType > apply() throws Exception
+	{
+		return Parallelization.runWithNumThreads( threads, ( Callable< Tensor< FloatType > > ) () -> applyTo( input ) );
+	}
+
+	@Benchmark
+	public Tensor< FloatType > applyInPlace()
+	{
+		Parallelization.runWithNumThreads( threads, () -> transformation.applyInPlace( workTensor ) );
+		return workTensor;
+	}
+
+	@SuppressWarnings( { "rawtypes", "unchecked" } )
+	private Tensor< FloatType > applyTo( final Tensor< ? > tensor )
+	{
+		return transformation.apply( ( Tensor ) tensor );
+	}
+}
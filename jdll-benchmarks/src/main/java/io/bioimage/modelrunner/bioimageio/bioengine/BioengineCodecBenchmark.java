@@ -0,0 +1,175 @@
+/*-
+ * #%L
+ * Use deep learning frameworks from Java in an agnostic and isolated way.
+ * %%
+ * Copyright (C) 2022 - 2023 Institut Pasteur and BioImage.IO developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.bioimage.modelrunner.bioimageio.bioengine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.bioimage.modelrunner.benchmarks.BenchmarkData;
+import io.bioimage.modelrunner.benchmarks.ByteCounter;
+import io.bioimage.modelrunner.bioimageio.bioengine.tensor.BioengineTensor;
+import io.bioimage.modelrunner.metrics.InferenceMetrics;
+import io.bioimage.modelrunner.tensor.Tensor;
+
+/**
+ * Benchmark of the encoding of the inputs sent to the BioEngine, the same steps done by
+ * {@link BioengineInterface#run(List, List)} before the request:
+ * the conversion of the tensor into a map with {@link BioengineTensor#build(Tensor)},
+ * its MessagePack serialization and its GZIP compression. The serialization and compression are
+ * private to {@link BioengineInterface}, so they are done here with the same public Jackson and
+ * {@link GZIPOutputStream} calls.
+ * The MB/s reported by {@link ByteCounter} are computed over the size of the pixels of the tensor.
+ *
+ * @author Carlos Garcia Lopez de Haro
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class BioengineCodecBenchmark
+{
+	/**
+	 * Axes order of the tensors
+	 */
+	private static final String AXES = "bcyx";
+
+	@Param( { "uint8", "uint16", "float32" } )
+	public String dtype;
+
+	@Param( { "256", "1024" } )
+	public int size;
+
+	private Tensor< ? > tensor;
+
+	private long tensorBytes;
+
+	private Map< String, Object > kwargs;
+
+	private byte[] serialized;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		tensor = BenchmarkData.createTensor( "input0", AXES, new long[] { 1, 1, size, size }, dtype );
+		tensorBytes = InferenceMetrics.getSizeInBytes( tensor.getData() );
+		kwargs = createKwargs( buildMap( tensor ) );
+		serialized = serializeKwargs( kwargs );
+	}
+
+	@Benchmark
+	public Map< String, Object > build( final ByteCounter counter )
+	{
+		counter.add( tensorBytes );
+		return buildMap( tensor );
+	}
+
+	@Benchmark
+	public byte[] serialize( final ByteCounter counter ) throws IOException
+	{
+		counter.add( tensorBytes );
+		return serializeKwargs( kwargs );
+	}
+
+	@Benchmark
+	public byte[] compress( final ByteCounter counter ) throws IOException
+	{
+		counter.add( tensorBytes );
+		return compressBytes( serialized );
+	}
+
+	@Benchmark
+	public byte[] encode( final ByteCounter counter ) throws IOException
+	{
+		counter.add( tensorBytes );
+		return compressBytes( serializeKwargs( createKwargs( buildMap( tensor ) ) ) );
+	}
+
+	/**
+	 * Serialize the arguments of a request with MessagePack, as {@link BioengineInterface} does
+	 */
+	private static byte[] serializeKwargs( final Map< String, Object > kwargs ) throws IOException
+	{
+		return new ObjectMapper( new MessagePackFactory() ).writeValueAsBytes( kwargs );
+	}
+
+	/**
+	 * Compress the serialized request with GZIP, as {@link BioengineInterface} does
+	 */
+	private static byte[] compressBytes( final byte[] arr ) throws IOException
+	{
+		final ByteArrayOutputStream bos = new ByteArrayOutputStream( arr.length );
+		try ( GZIPOutputStream gzipOS = new GZIPOutputStream( bos ) )
+		{
+			gzipOS.write( arr );
+		}
+		return bos.toByteArray();
+	}
+
+	@SuppressWarnings( { "rawtypes", "unchecked" } )
+	private static Map< String, Object > buildMap( final Tensor< ? > tensor )
+	{
+		return BioengineTensor.build( ( Tensor ) tensor ).getAsMap();
+	}
+
+	/**
+	 * Create the arguments of a request to the BioEngine with the same structure that
+	 * {@link BioengineInterface} uses for the models of the Bioimage.io
+	 */
+	private static Map< String, Object > createKwargs( final Map< String, Object > input )
+	{
+		final List< Object > inputs = new ArrayList< Object >();
+		inputs.add( input );
+		final Map< String, Object > bioimageioKwargs = new HashMap< String, Object >();
+		bioimageioKwargs.put( "model_id", "jdll/echo-benchmark" );
+		bioimageioKwargs.put( "inputs", inputs );
+		bioimageioKwargs.put( "return_rdf", false );
+		final List< Object > auxList = new ArrayList< Object >();
+		auxList.add( bioimageioKwargs );
+		final Map< String, Object > kwargs = new HashMap< String, Object >();
+		kwargs.put( "model_name", BioengineInterface.DEFAULT_BMZ_MODEL_NAME );
+		kwargs.put( "serialization", "imjoy" );
+		kwargs.put( "inputs", auxList );
+		return kwargs;
+	}
+}
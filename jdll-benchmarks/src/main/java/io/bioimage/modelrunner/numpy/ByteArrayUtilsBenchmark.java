@@ -0,0 +1,135 @@
+/*-
+ * #%L
+ * Use deep learning frameworks from Java in an agnostic and isolated way.
+ * %%
+ * Copyright (C) 2022 - 2023 Institut Pasteur and BioImage.IO developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.bioimage.modelrunner.numpy;
+
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.bioimage.modelrunner.benchmarks.BenchmarkData;
+import io.bioimage.modelrunner.benchmarks.ByteCounter;
+
+/**
+ * Benchmark of the conversions of {@link ByteArrayUtils} from the bytes of an array to
+ * the primitive arrays of every data type, with little and big endian byte order.
+ * Every conversion reads the same array of bytes, so the MB/s reported by {@link ByteCounter}
+ * can be compared between data types.
+ *
+ * @author Carlos Garcia Lopez de Haro
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class ByteArrayUtilsBenchmark
+{
+	@Param( { "1", "16" } )
+	public int sizeMb;
+
+	@Param( { "little", "big" } )
+	public String order;
+
+	private byte[] bytes;
+
+	private ByteOrder byteOrder;
+
+	@Setup
+	public void setup()
+	{
+		bytes = BenchmarkData.createBytes( sizeMb * 1024 * 1024 );
+		byteOrder = order.equals( "big" ) ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+	}
+
+	@Benchmark
+	public short[] toInt16( final ByteCounter counter )
+	{
+		counter.add( bytes.length );
+		return ByteArrayUtils.toInt16( bytes, byteOrder );
+	}
+
+	@Benchmark
+	public int[] toUInt8( final ByteCounter counter )
+	{
+		counter.add( bytes.length );
+		return ByteArrayUtils.toUInt8( bytes, byteOrder );
+	}
+
+	@Benchmark
+	public int[] toInt32( final ByteCounter counter )
+	{
+		counter.add( bytes.length );
+		return ByteArrayUtils.toInt32( bytes, byteOrder );
+	}
+
+	@Benchmark
+	public long[] toUInt32( final ByteCounter counter )
+	{
+		counter.add( bytes.length );
+		return ByteArrayUtils.toUInt32( bytes, byteOrder );
+	}
+
+	@Benchmark
+	public int[] toUInt16( final ByteCounter counter )
+	{
+		counter.add( bytes.length );
+		return ByteArrayUtils.toUInt16( bytes, byteOrder );
+	}
+
+	@Benchmark
+	public float[] toFloat32( final ByteCounter counter )
+	{
+		counter.add( bytes.length );
+		return ByteArrayUtils.toFloat32( bytes, byteOrder );
+	}
+
+	@Benchmark
+	public double[] toFloat64( final ByteCounter counter )
+	{
+		counter.add( bytes.length );
+		return ByteArrayUtils.toFloat64( bytes, byteOrder );
+	}
+
+	@Benchmark
+	public long[] toInt64( final ByteCounter counter )
+	{
+		counter.add( bytes.length );
+		return ByteArrayUtils.toInt64( bytes, byteOrder );
+	}
+
+	@Benchmark
+	public boolean[] toBoolean( final ByteCounter counter )
+	{
+		counter.add( bytes.length );
+		return ByteArrayUtils.toBoolean( bytes, byteOrder );
+	}
+}
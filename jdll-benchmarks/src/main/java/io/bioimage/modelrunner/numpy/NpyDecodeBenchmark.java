@@ -0,0 +1,166 @@
+/*-
+ * #%L
+ * Use deep learning frameworks from Java in an agnostic and isolated way.
+ * %%
+ * Copyright (C) 2022 - 2023 Institut Pasteur and BioImage.IO developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.bioimage.modelrunner.numpy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.bioimage.modelrunner.benchmarks.BenchmarkData;
+import io.bioimage.modelrunner.benchmarks.ByteCounter;
+import net.imglib2.RandomAccessibleInterval;
+
+/**
+ * Benchmark of the decoding of Numpy npy files into ImgLib2 images, {@link DecodeNumpy#retrieveImgLib2FromNpy(String)},
+ * for every data type supported by {@link DecodeNumpy#getDataType(String)} that can be decoded. float16 is not
+ * measured because {@link DecodeNumpy#build(ByteBuffer, ByteOrder, String, long[])} does not support it.
+ *
+ * The npy files are written once to temporary files before measuring, so they are read from the
+ * page cache of the system and the benchmark measures the decoding and not the disk.
+ * The MB/s are reported by {@link ByteCounter}, over the size of the npy file.
+ *
+ * @author Carlos Garcia Lopez de Haro
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class NpyDecodeBenchmark
+{
+	/**
+	 * Length of the npy header, magic string and version included
+	 */
+	private static final int HEADER_ALIGNMENT = 64;
+
+	@Param( { "int8", "uint8", "int16", "uint16", "int32", "uint32", "int64", "float32", "float64", "boolean" } )
+	public String dtype;
+
+	@Param( { "256", "1024" } )
+	public int size;
+
+	private Path npy;
+
+	private long npyBytes;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		final long[] shape = new long[] { 1, 1, size, size };
+		final String descr = getDescr( dtype );
+		final int nBytes = size * size * Integer.parseInt( descr.substring( 1 ) );
+		final byte[] bytes = encode( BenchmarkData.createBytes( nBytes ), "<" + descr, shape );
+		npy = Files.createTempFile( "jdll-benchmark-", ".npy" );
+		Files.write( npy, bytes );
+		npyBytes = bytes.length;
+	}
+
+	@TearDown
+	public void tearDown() throws IOException
+	{
+		Files.deleteIfExists( npy );
+	}
+
+	@Benchmark
+	public RandomAccessibleInterval< ? > decode( final ByteCounter counter ) throws IOException
+	{
+		final RandomAccessibleInterval< ? > img = DecodeNumpy.retrieveImgLib2FromNpy( npy.toString() );
+		counter.add( npyBytes );
+		return img;
+	}
+
+	/**
+	 * Write the data of an array with the npy format, version 1.0
+	 *
+	 * @param data
+	 *            the data of the array, in C order
+	 * @param descr
+	 *            Numpy data type of the array, for example "&lt;f4"
+	 * @param shape
+	 *            shape of the array
+	 * @return the npy file
+	 */
+	static byte[] encode( final byte[] data, final String descr, final long[] shape )
+	{
+		final StringBuilder shapeStr = new StringBuilder();
+		for ( final long dim : shape )
+			shapeStr.append( dim ).append( ", " );
+		final StringBuilder header = new StringBuilder( "{'descr': '" + descr + "', 'fortran_order': False, 'shape': ("
+				+ shapeStr.substring( 0, shapeStr.length() - 2 ) + "), }" );
+		final int prefix = 6 + 2 + 2;
+		while ( ( prefix + header.length() + 1 ) % HEADER_ALIGNMENT != 0 )
+			header.append( ' ' );
+		header.append( '\n' );
+		final byte[] headerBytes = header.toString().getBytes( StandardCharsets.US_ASCII );
+		final ByteBuffer buf = ByteBuffer.allocate( prefix + headerBytes.length + data.length ).order( ByteOrder.LITTLE_ENDIAN );
+		buf.put( ( byte ) 0x93 ).put( "NUMPY".getBytes( StandardCharsets.US_ASCII ) );
+		buf.put( ( byte ) 1 ).put( ( byte ) 0 );
+		buf.putShort( ( short ) headerBytes.length );
+		buf.put( headerBytes ).put( data );
+		return buf.array();
+	}
+
+	private static String getDescr( final String dtype )
+	{
+		switch ( dtype )
+		{
+		case "int8":
+			return "i1";
+		case "uint8":
+			return "u1";
+		case "int16":
+			return "i2";
+		case "uint16":
+			return "u2";
+		case "int32":
+			return "i4";
+		case "uint32":
+			return "u4";
+		case "int64":
+			return "i8";
+		case "float32":
+			return "f4";
+		case "float64":
+			return "f8";
+		case "boolean":
+			return "b1";
+		default:
+			throw new IllegalArgumentException( "Unsupported data type: " + dtype );
+		}
+	}
+}
@@ -19,9 +19,11 @@
  */
 package io.bioimage.modelrunner.engine;
 
+import java.util.Collections;
 import java.util.List;
 
 import io.bioimage.modelrunner.tensor.Tensor;
+import net.imglib2.type.numeric.RealType;
 
 import io.bioimage.modelrunner.exceptions.LoadModelException;
 import io.bioimage.modelrunner.exceptions.RunModelException;
@@ -70,4 +72,17 @@ public interface DeepLearningEngineInterface
 	 * Closes the model loaded on the class on a particular ClassLoader
 	 */
 	public void closeModel();
+
+	/**
+	 * Data types of the input tensors that the engine can consume directly. Before calling
+	 * {@link #run(List, List)}, inputs of any other data type are converted into
+	 * {@link net.imglib2.type.numeric.real.FloatType}. By default every data type is accepted,
+	 * so the inputs are never converted
+	 * 
+	 * @return the classes of the ImgLib2 types accepted or an empty list if every type is accepted
+	 */
+	public default List< Class< ? extends RealType< ? > > > getSupportedInputDataTypes()
+	{
+		return Collections.emptyList();
+	}
 }
@@ -30,11 +30,15 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.Objects;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 import io.bioimage.modelrunner.bioimageio.bioengine.BioengineInterface;
 import io.bioimage.modelrunner.exceptions.LoadEngineException;
+import io.bioimage.modelrunner.metrics.InferenceEvent;
+import io.bioimage.modelrunner.metrics.InferenceMetrics;
+import io.bioimage.modelrunner.metrics.Stage;
 import io.bioimage.modelrunner.versionmanagement.DeepLearningVersion;
 
 /**
@@ -133,10 +137,33 @@ public class EngineLoader extends ClassLoader
 		}
 		this.enginePath = engineInfo.getDeepLearningVersionJarsDirectory();
 		this.versionedEngine = this.engine + engineInfo.getMajorVersion();
+		InferenceEvent event = InferenceMetrics.beginEvent( InferenceEvent.Kind.ENGINE_CLASSLOADING )
+				.setEngine( this.engine + " " + engineInfo.getVersion() );
 		loadClasses();
 		setEngineClassLoader();
 		setEngineInstance();
 		setBaseClassLoader();
+		event.commit();
+	}
+
+	/**
+	 * Wrap an engine instance whose classes are already available in the ClassLoader provided,
+	 * so no engine JARs are loaded
+	 * 
+	 * @param classloader
+	 *            ClassLoader where the engine classes are available, it is used as both
+	 *            the engine and the base ClassLoader
+	 * @param engineInstance
+	 *            the engine instance
+	 */
+	private EngineLoader( ClassLoader classloader, DeepLearningEngineInterface engineInstance )
+	{
+		super();
+		this.baseClassloader = classloader;
+		this.engineClassloader = classloader;
+		this.engineInstance = engineInstance;
+		this.engine = engineInstance.getClass().getSimpleName();
+		this.bioengine = false;
 	}
 
 	/**
@@ -157,7 +184,28 @@ public class EngineLoader extends ClassLoader
 	public static EngineLoader createEngine( ClassLoader classloader, EngineInfo engineInfo )
 			throws LoadEngineException, Exception
 	{
-		return new EngineLoader( classloader, engineInfo );
+		long start = InferenceMetrics.start();
+		EngineLoader loader = new EngineLoader( classloader, engineInfo );
+		InferenceMetrics.stop( Stage.ENGINE_LOAD, start );
+		return loader;
+	}
+
+	/**
+	 * Create an EngineLoader for an engine instance that is already available in the
+	 * ClassLoader provided, for example a custom engine on the classpath or a mock engine
+	 * used for testing and benchmarking. No JAR files are loaded
+	 * 
+	 * @param classloader
+	 *            ClassLoader where the classes of the engine are available
+	 * @param engineInstance
+	 *            the engine instance
+	 * @return the EngineLoader wrapping the engine instance
+	 */
+	public static EngineLoader createEngine( ClassLoader classloader, DeepLearningEngineInterface engineInstance )
+	{
+		Objects.requireNonNull( classloader );
+		Objects.requireNonNull( engineInstance );
+		return new EngineLoader( classloader, engineInstance );
 	}
 
 	/**
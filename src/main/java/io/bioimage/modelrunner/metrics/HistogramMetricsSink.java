@@ -0,0 +1,160 @@
+/*-
+ * #%L
+ * Use deep learning frameworks from Java in an agnostic and isolated way.
+ * %%
+ * Copyright (C) 2022 - 2023 Institut Pasteur and BioImage.IO developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.bioimage.modelrunner.metrics;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link MetricsSink} that keeps the measurements in memory: a {@link LatencyHistogram} and the
+ * total bytes moved per {@link Stage}, and the value of every counter.
+ * {@link #toString()} gives a summary with the p50, p95 and p99 of every stage measured.
+ *
+ * <pre>
+ * HistogramMetricsSink metrics = new HistogramMetricsSink();
+ * InferenceMetrics.setSink( metrics );
+ * model.runModel( inputs, outputs );
+ * System.out.println( metrics );
+ * </pre>
+ *
+ * @author Carlos Garcia Lopez de Haro
+ */
+public class HistogramMetricsSink implements MetricsSink
+{
+	private final Map< Stage, LatencyHistogram > latencies = new EnumMap<>( Stage.class );
+
+	private final Map< Stage, AtomicLong > bytes = new EnumMap<>( Stage.class );
+
+	private final Map< String, AtomicLong > counters = new ConcurrentHashMap<>();
+
+	/**
+	 * Create an empty sink
+	 */
+	public HistogramMetricsSink()
+	{
+		for ( final Stage stage : Stage.values() )
+		{
+			latencies.put( stage, new LatencyHistogram() );
+			bytes.put( stage, new AtomicLong() );
+		}
+	}
+
+	@Override
+	public void recordLatency( final Stage stage, final long nanos )
+	{
+		latencies.get( stage ).record( nanos );
+	}
+
+	@Override
+	public void recordBytes( final Stage stage, final long nBytes )
+	{
+		bytes.get( stage ).addAndGet( nBytes );
+	}
+
+	@Override
+	public void incrementCounter( final String name, final long delta )
+	{
+		counters.computeIfAbsent( name, k -> new AtomicLong() ).addAndGet( delta );
+	}
+
+	/**
+	 *
+	 * @param stage
+	 *            the stage
+	 * @return the histogram of the durations of the stage
+	 */
+	public LatencyHistogram getHistogram( final Stage stage )
+	{
+		return latencies.get( stage );
+	}
+
+	/**
+	 *
+	 * @param stage
+	 *            the stage
+	 * @return total number of bytes moved by the stage
+	 */
+	public long getBytes( final Stage stage )
+	{
+		return bytes.get( stage ).get();
+	}
+
+	/**
+	 *
+	 * @param name
+	 *            name of the counter
+	 * @return value of the counter, 0 if it has never been incremented
+	 */
+	public long getCounter( final String name )
+	{
+		final AtomicLong counter = counters.get( name );
+		return counter == null ? 0 : counter.get();
+	}
+
+	/**
+	 *
+	 * @return the value of every counter, sorted by name
+	 */
+	public Map< String, Long > getCounters()
+	{
+		final Map< String, Long > values = new TreeMap<>();
+		counters.forEach( ( name, value ) -> values.put( name, value.get() ) );
+		return values;
+	}
+
+	/**
+	 * Remove every measurement
+	 */
+	public void reset()
+	{
+		for ( final Stage stage : Stage.values() )
+		{
+			latencies.get( stage ).reset();
+			bytes.get( stage ).set( 0 );
+		}
+		counters.clear();
+	}
+
+	@Override
+	public String toString()
+	{
+		final StringBuilder sb = new StringBuilder();
+		for ( final Stage stage : Stage.values() )
+		{
+			final LatencyHistogram hist = latencies.get( stage );
+			if ( hist.getCount() == 0 && getBytes( stage ) == 0 )
+				continue;
+			sb.append( String.format( "%-16s n=%d p50=%.3fms p95=%.3fms p99=%.3fms max=%.3fms bytes=%d%n",
+					stage, hist.getCount(), toMillis( hist.getPercentile( 50 ) ), toMillis( hist.getPercentile( 95 ) ),
+					toMillis( hist.getPercentile( 99 ) ), toMillis( hist.getMax() ), getBytes( stage ) ) );
+		}
+		getCounters().forEach( ( name, value ) -> sb.append( name ).append( '=' ).append( value ).append( System.lineSeparator() ) );
+		return sb.toString();
+	}
+
+	private static double toMillis( final long nanos )
+	{
+		return nanos / ( double ) TimeUnit.MILLISECONDS.toNanos( 1 );
+	}
+}
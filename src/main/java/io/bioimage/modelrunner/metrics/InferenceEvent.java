@@ -0,0 +1,244 @@
+/*-
+ * #%L
+ * Use deep learning frameworks from Java in an agnostic and isolated way.
+ * %%
+ * Copyright (C) 2022 - 2023 Institut Pasteur and BioImage.IO developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.bioimage.modelrunner.metrics;
+
+import java.util.Arrays;
+import java.util.List;
+
+import io.bioimage.modelrunner.tensor.Tensor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.util.Util;
+
+/**
+ * A single occurrence of an operation of JDLL, such as loading or running a model, with the
+ * shapes, data types and size in bytes of the data involved, the engine used and how long it took.
+ * It works like a Flight Recorder event: it is started with {@link InferenceMetrics#beginEvent(Kind)},
+ * filled while the operation runs and committed with {@link #commit()}, that sends it to the
+ * {@link InferenceEventListener} installed.
+ *
+ * When no listener is installed {@link InferenceMetrics#beginEvent(Kind)} returns a shared disabled
+ * event whose methods do nothing, so events cost almost nothing when they are not recorded.
+ *
+ * @author Carlos Garcia Lopez de Haro
+ */
+public final class InferenceEvent
+{
+	/**
+	 * Operations that produce events
+	 */
+	public enum Kind {
+		/**
+		 * {@link io.bioimage.modelrunner.model.Model#loadModel()}
+		 */
+		MODEL_LOAD,
+		/**
+		 * A run of a {@link io.bioimage.modelrunner.model.Model}, from the calling or the asynchronous thread
+		 */
+		MODEL_RUN,
+		/**
+		 * Creation of the ClassLoader of an engine and loading of its classes
+		 */
+		ENGINE_CLASSLOADING,
+		/**
+		 * Copy of data into a {@link Tensor} with {@link Tensor#setData(RandomAccessibleInterval)}
+		 */
+		TENSOR_COPY,
+		/**
+		 * Decoding of a Numpy npy file
+		 */
+		NUMPY_DECODE
+	}
+
+	/**
+	 * Event returned while no listener is installed
+	 */
+	static final InferenceEvent DISABLED = new InferenceEvent( null, null );
+
+	private final Kind kind;
+
+	private final InferenceEventListener listener;
+
+	private final long start;
+
+	private final String thread;
+
+	private long duration;
+
+	private String engine;
+
+	private final StringBuilder shapes = new StringBuilder();
+
+	private final StringBuilder dataTypes = new StringBuilder();
+
+	private long bytes;
+
+	InferenceEvent( final Kind kind, final InferenceEventListener listener )
+	{
+		this.kind = kind;
+		this.listener = listener;
+		this.start = listener == null ? 0 : System.nanoTime();
+		this.thread = listener == null ? null : Thread.currentThread().getName();
+	}
+
+	/**
+	 * Set the engine involved in the operation
+	 *
+	 * @param engine
+	 *            name of the engine, for example "pytorch 1.13.1"
+	 * @return this event
+	 */
+	public InferenceEvent setEngine( final String engine )
+	{
+		if ( listener != null )
+			this.engine = engine;
+		return this;
+	}
+
+	/**
+	 * Add the shape, data type and size of every non empty tensor of a list to the event
+	 *
+	 * @param tensors
+	 *            the tensors
+	 * @return this event
+	 */
+	public InferenceEvent addTensors( final List< Tensor< ? > > tensors )
+	{
+		if ( listener == null || tensors == null )
+			return this;
+		for ( final Tensor< ? > tt : tensors )
+		{
+			if ( !tt.isClosed() && !tt.isEmpty() )
+				addData( tt.getData() );
+		}
+		return this;
+	}
+
+	/**
+	 * Add the shape, data type and size of an image to the event
+	 *
+	 * @param data
+	 *            the image
+	 * @return this event
+	 */
+	public InferenceEvent addData( final RandomAccessibleInterval< ? > data )
+	{
+		if ( listener == null || data == null )
+			return this;
+		if ( shapes.length() > 0 )
+		{
+			shapes.append( ';' );
+			dataTypes.append( ';' );
+		}
+		shapes.append( Arrays.toString( data.dimensionsAsLongArray() ) );
+		dataTypes.append( Util.getTypeFromInterval( data ).getClass().getSimpleName() );
+		bytes += InferenceMetrics.getSizeInBytes( data );
+		return this;
+	}
+
+	/**
+	 * Finish the event and send it to the listener
+	 */
+	public void commit()
+	{
+		if ( listener == null )
+			return;
+		duration = System.nanoTime() - start;
+		listener.onEvent( this );
+	}
+
+	/**
+	 *
+	 * @return the operation
+	 */
+	public Kind getKind()
+	{
+		return kind;
+	}
+
+	/**
+	 *
+	 * @return the engine involved, null if it was not set
+	 */
+	public String getEngine()
+	{
+		return engine;
+	}
+
+	/**
+	 *
+	 * @return the shapes of the data involved, separated by ';'
+	 */
+	public String getShapes()
+	{
+		return shapes.toString();
+	}
+
+	/**
+	 *
+	 * @return the ImgLib2 data types of the data involved, separated by ';'
+	 */
+	public String getDataTypes()
+	{
+		return dataTypes.toString();
+	}
+
+	/**
+	 *
+	 * @return the total size in bytes of the data involved
+	 */
+	public long getBytes()
+	{
+		return bytes;
+	}
+
+	/**
+	 *
+	 * @return the value of {@link System#nanoTime()} when the event started
+	 */
+	public long getStartNanos()
+	{
+		return start;
+	}
+
+	/**
+	 *
+	 * @return the duration of the operation in nanoseconds
+	 */
+	public long getDuration()
+	{
+		return duration;
+	}
+
+	/**
+	 *
+	 * @return name of the thread where the operation ran
+	 */
+	public String getThread()
+	{
+		return thread;
+	}
+
+	@Override
+	public String toString()
+	{
+		return kind + " engine=" + engine + " shapes=" + getShapes() + " dtypes=" + getDataTypes()
+				+ " bytes=" + bytes + " duration=" + duration + "ns thread=" + thread;
+	}
+}
@@ -0,0 +1,60 @@
+/*-
+ * #%L
+ * Use deep learning frameworks from Java in an agnostic and isolated way.
+ * %%
+ * Copyright (C) 2022 - 2023 Institut Pasteur and BioImage.IO developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.bioimage.modelrunner.metrics;
+
+/**
+ * Receiver of the {@link InferenceEvent}s committed by JDLL, installed with
+ * {@link InferenceMetrics#setEventListener(InferenceEventListener)}.
+ *
+ * JDLL is compiled for Java 8, where the JDK Flight Recorder API is not available, so the events
+ * are not Flight Recorder events themselves. An application running on Java 11 or newer can
+ * forward them to a Flight Recorder recording with a listener that copies every
+ * {@link InferenceEvent} into its own {@code jdk.jfr.Event} subclass:
+ *
+ * <pre>
+ * InferenceMetrics.setEventListener( ev -&gt; {
+ * 	JdllEvent jfr = new JdllEvent();
+ * 	if ( !jfr.shouldCommit() )
+ * 		return;
+ * 	jfr.kind = ev.getKind().name();
+ * 	jfr.engine = ev.getEngine();
+ * 	jfr.shapes = ev.getShapes();
+ * 	jfr.dataTypes = ev.getDataTypes();
+ * 	jfr.bytes = ev.getBytes();
+ * 	jfr.duration = ev.getDuration();
+ * 	jfr.commit();
+ * } );
+ * </pre>
+ *
+ * The listener is called from the thread where the event happened, so it has to be thread safe and fast.
+ *
+ * @author Carlos Garcia Lopez de Haro
+ */
+@FunctionalInterface
+public interface InferenceEventListener
+{
+	/**
+	 * Called every time an event finishes
+	 *
+	 * @param event
+	 *            the event
+	 */
+	void onEvent( InferenceEvent event );
+}
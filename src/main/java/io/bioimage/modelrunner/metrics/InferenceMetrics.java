@@ -0,0 +1,236 @@
+/*-
+ * #%L
+ * Use deep learning frameworks from Java in an agnostic and isolated way.
+ * %%
+ * Copyright (C) 2022 - 2023 Institut Pasteur and BioImage.IO developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.bioimage.modelrunner.metrics;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
+
+/**
+ * Entry point of the instrumentation of the inference path. The classes of JDLL report here
+ * how long every {@link Stage} takes, how many bytes it moves and how many times some events
+ * happen, and the measurements are forwarded to the {@link MetricsSink} installed.
+ * By default there is no sink and the measurements are not taken, so the cost of the
+ * instrumentation is a volatile read per call.
+ * Individual operations can also be traced as {@link InferenceEvent}s, received by the
+ * {@link InferenceEventListener} installed.
+ *
+ * A stage is measured with:
+ * <pre>
+ * long start = InferenceMetrics.start();
+ * ...
+ * InferenceMetrics.stop( Stage.ENGINE_RUN, start );
+ * </pre>
+ *
+ * @author Carlos Garcia Lopez de Haro
+ */
+public final class InferenceMetrics
+{
+	/**
+	 * Counter of the inferences run by the engines
+	 */
+	public static final String RUNS_COUNTER = "engine.runs";
+	/**
+	 * Counter of the input tensors converted because the engine does not support their data type
+	 */
+	public static final String CONVERSIONS_COUNTER = "inputs.converted";
+	/**
+	 * Counter of the tiles processed by the tiling
+	 */
+	public static final String TILES_COUNTER = "tiles.processed";
+	/**
+	 * Counter of the models loaded
+	 */
+	public static final String MODELS_LOADED_COUNTER = "models.loaded";
+
+	/**
+	 * Sink that receives the measurements, null if they are not taken
+	 */
+	private static volatile MetricsSink sink;
+
+	/**
+	 * Listener that receives the events, null if they are not recorded
+	 */
+	private static volatile InferenceEventListener eventListener;
+
+	private InferenceMetrics()
+	{
+	}
+
+	/**
+	 * Install the sink that receives every measurement from now on
+	 *
+	 * @param metricsSink
+	 *            the sink, or null to stop taking measurements
+	 */
+	public static void setSink( final MetricsSink metricsSink )
+	{
+		sink = metricsSink;
+	}
+
+	/**
+	 *
+	 * @return the sink installed, or null if there is none
+	 */
+	public static MetricsSink getSink()
+	{
+		return sink;
+	}
+
+	/**
+	 *
+	 * @return whether the measurements are being taken
+	 */
+	public static boolean isEnabled()
+	{
+		return sink != null;
+	}
+
+	/**
+	 * Install the listener that receives every {@link InferenceEvent} from now on
+	 *
+	 * @param listener
+	 *            the listener, or null to stop recording events
+	 */
+	public static void setEventListener( final InferenceEventListener listener )
+	{
+		eventListener = listener;
+	}
+
+	/**
+	 *
+	 * @return the event listener installed, or null if there is none
+	 */
+	public static InferenceEventListener getEventListener()
+	{
+		return eventListener;
+	}
+
+	/**
+	 * Start an event. The event has to be committed with {@link InferenceEvent#commit()}
+	 * once the operation finishes
+	 *
+	 * @param kind
+	 *            the operation
+	 * @return the event, or a disabled event that records nothing if no listener is installed
+	 */
+	public static InferenceEvent beginEvent( final InferenceEvent.Kind kind )
+	{
+		final InferenceEventListener listener = eventListener;
+		return listener == null ? InferenceEvent.DISABLED : new InferenceEvent( kind, listener );
+	}
+
+	/**
+	 * Start measuring a stage
+	 *
+	 * @return the start time to pass to {@link #stop(Stage, long)}, 0 if no measurements are taken
+	 */
+	public static long start()
+	{
+		return sink == null ? 0 : System.nanoTime();
+	}
+
+	/**
+	 * Finish measuring a stage and record its duration
+	 *
+	 * @param stage
+	 *            the stage measured
+	 * @param start
+	 *            the value returned by {@link #start()} when the stage started
+	 */
+	public static void stop( final Stage stage, final long start )
+	{
+		final MetricsSink current = sink;
+		if ( current == null || start == 0 )
+			return;
+		current.recordLatency( stage, System.nanoTime() - start );
+	}
+
+	/**
+	 * Record the number of bytes moved by a stage
+	 *
+	 * @param stage
+	 *            the stage that moved the data
+	 * @param bytes
+	 *            the number of bytes
+	 */
+	public static void recordBytes( final Stage stage, final long bytes )
+	{
+		final MetricsSink current = sink;
+		if ( current != null )
+			current.recordBytes( stage, bytes );
+	}
+
+	/**
+	 * Record as bytes moved by a stage the size of an image
+	 *
+	 * @param stage
+	 *            the stage that moved the data
+	 * @param data
+	 *            the image written or read by the stage
+	 */
+	public static void recordBytes( final Stage stage, final RandomAccessibleInterval< ? > data )
+	{
+		final MetricsSink current = sink;
+		if ( current != null && data != null )
+			current.recordBytes( stage, getSizeInBytes( data ) );
+	}
+
+	/**
+	 * Increment a named counter by one
+	 *
+	 * @param name
+	 *            name of the counter
+	 */
+	public static void increment( final String name )
+	{
+		increment( name, 1 );
+	}
+
+	/**
+	 * Increment a named counter
+	 *
+	 * @param name
+	 *            name of the counter
+	 * @param delta
+	 *            amount added to the counter
+	 */
+	public static void increment( final String name, final long delta )
+	{
+		final MetricsSink current = sink;
+		if ( current != null )
+			current.incrementCounter( name, delta );
+	}
+
+	/**
+	 * Get the size in memory of the pixels of an image
+	 *
+	 * @param data
+	 *            the image
+	 * @return the number of bytes, rounded up, needed to store its pixels
+	 */
+	public static long getSizeInBytes( final RandomAccessibleInterval< ? > data )
+	{
+		final Object type = Util.getTypeFromInterval( data );
+		final long bits = type instanceof RealType ? ( ( RealType< ? > ) type ).getBitsPerPixel() : 0;
+		return ( Intervals.numElements( data ) * bits + 7 ) / 8;
+	}
+}
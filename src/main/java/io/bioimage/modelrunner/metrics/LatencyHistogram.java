@@ -0,0 +1,161 @@
+/*-
+ * #%L
+ * Use deep learning frameworks from Java in an agnostic and isolated way.
+ * %%
+ * Copyright (C) 2022 - 2023 Institut Pasteur and BioImage.IO developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.bioimage.modelrunner.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations in nanoseconds with logarithmic buckets. Every power of two is
+ * split into {@link #SUB_BUCKETS} buckets, so the percentiles have a relative error below
+ * 1 / {@link #SUB_BUCKETS} whatever the range of the durations, using a fixed amount of memory.
+ * Recording is lock free and can be done from several threads.
+ *
+ * @author Carlos Garcia Lopez de Haro
+ */
+public class LatencyHistogram
+{
+	/**
+	 * Number of bits used to split every power of two
+	 */
+	private static final int SUB_BITS = 3;
+	/**
+	 * Number of buckets per power of two
+	 */
+	public static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+	private final AtomicLongArray buckets = new AtomicLongArray( 64 * SUB_BUCKETS );
+
+	private final AtomicLong count = new AtomicLong();
+
+	private final AtomicLong total = new AtomicLong();
+
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Add a duration to the histogram
+	 *
+	 * @param nanos
+	 *            the duration in nanoseconds. Negative values are recorded as 0
+	 */
+	public void record( long nanos )
+	{
+		nanos = Math.max( 0, nanos );
+		buckets.incrementAndGet( getBucket( nanos ) );
+		count.incrementAndGet();
+		total.addAndGet( nanos );
+		long prev = max.get();
+		while ( nanos > prev && !max.compareAndSet( prev, nanos ) )
+			prev = max.get();
+	}
+
+	/**
+	 * Get the value below which the wanted fraction of the durations fall
+	 *
+	 * @param percentile
+	 *            the percentile, between 0 and 100. For example 95 for the p95
+	 * @return the duration in nanoseconds, approximated to the middle of its bucket,
+	 *         or 0 if nothing has been recorded
+	 */
+	public long getPercentile( final double percentile )
+	{
+		if ( percentile < 0 || percentile > 100 )
+			throw new IllegalArgumentException( "The percentile should be between 0 and 100: " + percentile );
+		final long n = count.get();
+		if ( n == 0 )
+			return 0;
+		final long rank = Math.max( 1, ( long ) Math.ceil( percentile / 100 * n ) );
+		long seen = 0;
+		for ( int i = 0; i < buckets.length(); i ++ )
+		{
+			seen += buckets.get( i );
+			if ( seen >= rank )
+				return Math.min( max.get(), getBucketMiddle( i ) );
+		}
+		return max.get();
+	}
+
+	/**
+	 *
+	 * @return number of durations recorded
+	 */
+	public long getCount()
+	{
+		return count.get();
+	}
+
+	/**
+	 *
+	 * @return sum of every duration recorded, in nanoseconds
+	 */
+	public long getTotal()
+	{
+		return total.get();
+	}
+
+	/**
+	 *
+	 * @return mean of the durations recorded in nanoseconds, 0 if there are none
+	 */
+	public double getMean()
+	{
+		final long n = count.get();
+		return n == 0 ? 0 : total.get() / ( double ) n;
+	}
+
+	/**
+	 *
+	 * @return longest duration recorded in nanoseconds
+	 */
+	public long getMax()
+	{
+		return max.get();
+	}
+
+	/**
+	 * Remove every duration recorded
+	 */
+	public void reset()
+	{
+		for ( int i = 0; i < buckets.length(); i ++ )
+			buckets.set( i, 0 );
+		count.set( 0 );
+		total.set( 0 );
+		max.set( 0 );
+	}
+
+	private static int getBucket( final long value )
+	{
+		if ( value < SUB_BUCKETS )
+			return ( int ) value;
+		final int exp = 63 - Long.numberOfLeadingZeros( value );
+		final int sub = ( int ) ( ( value >>> ( exp - SUB_BITS ) ) & ( SUB_BUCKETS - 1 ) );
+		return ( exp - SUB_BITS + 1 ) * SUB_BUCKETS + sub;
+	}
+
+	private static long getBucketMiddle( final int bucket )
+	{
+		if ( bucket < SUB_BUCKETS )
+			return bucket;
+		final int shift = bucket / SUB_BUCKETS - 1;
+		final long lower = ( long ) ( SUB_BUCKETS + bucket % SUB_BUCKETS ) << shift;
+		return lower + ( ( 1L << shift ) >> 1 );
+	}
+}
@@ -0,0 +1,63 @@
+/*-
+ * #%L
+ * Use deep learning frameworks from Java in an agnostic and isolated way.
+ * %%
+ * Copyright (C) 2022 - 2023 Institut Pasteur and BioImage.IO developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.bioimage.modelrunner.metrics;
+
+/**
+ * Receiver of the measurements taken along the inference path. Implement it to export the
+ * measurements to any monitoring system and install it with {@link InferenceMetrics#setSink(MetricsSink)}.
+ * {@link HistogramMetricsSink} keeps them in memory.
+ *
+ * The methods are called from the threads doing the work, so implementations have to be
+ * thread safe and fast.
+ *
+ * @author Carlos Garcia Lopez de Haro
+ */
+public interface MetricsSink
+{
+	/**
+	 * Record how long one execution of a stage took
+	 *
+	 * @param stage
+	 *            the stage measured
+	 * @param nanos
+	 *            the duration in nanoseconds
+	 */
+	void recordLatency( Stage stage, long nanos );
+
+	/**
+	 * Record the number of bytes copied or converted by one execution of a stage
+	 *
+	 * @param stage
+	 *            the stage that moved the data
+	 * @param bytes
+	 *            the number of bytes
+	 */
+	void recordBytes( Stage stage, long bytes );
+
+	/**
+	 * Increment a named counter
+	 *
+	 * @param name
+	 *            name of the counter, see the constants of {@link InferenceMetrics}
+	 * @param delta
+	 *            amount added to the counter
+	 */
+	void incrementCounter( String name, long delta );
+}
@@ -0,0 +1,63 @@
+/*-
+ * #%L
+ * Use deep learning frameworks from Java in an agnostic and isolated way.
+ * %%
+ * Copyright (C) 2022 - 2023 Institut Pasteur and BioImage.IO developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.bioimage.modelrunner.metrics;
+
+/**
+ * Phases of the inference path whose latency and data movement are measured
+ * by {@link InferenceMetrics}
+ *
+ * @author Carlos Garcia Lopez de Haro
+ */
+public enum Stage
+{
+	/**
+	 * Creation of the {@link io.bioimage.modelrunner.engine.EngineLoader}, including
+	 * the ClassLoader of the engine and the instance of its interface
+	 */
+	ENGINE_LOAD,
+	/**
+	 * Loading the model into the engine, {@link io.bioimage.modelrunner.model.Model#loadModel()}
+	 */
+	MODEL_LOAD,
+	/**
+	 * Conversion of the inputs whose data type is not supported by the engine
+	 */
+	DTYPE_CONVERSION,
+	/**
+	 * Preprocessing transformations applied to the inputs
+	 */
+	PREPROCESSING,
+	/**
+	 * Inference inside the engine, {@link io.bioimage.modelrunner.engine.DeepLearningEngineInterface#run}
+	 */
+	ENGINE_RUN,
+	/**
+	 * Postprocessing transformations applied to the outputs
+	 */
+	POSTPROCESSING,
+	/**
+	 * Copy of the input tiles into the patch tensors when tiling
+	 */
+	TILE_EXTRACT,
+	/**
+	 * Copy of the output patches into the full size outputs when tiling
+	 */
+	TILE_STITCH
+}
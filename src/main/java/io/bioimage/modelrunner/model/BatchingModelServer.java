@@ -0,0 +1,437 @@
+/*-
+ * #%L
+ * Use deep learning frameworks from Java in an agnostic and isolated way.
+ * %%
+ * Copyright (C) 2022 - 2023 Institut Pasteur and BioImage.IO developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.bioimage.modelrunner.model;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import io.bioimage.modelrunner.bioimageio.description.ModelDescriptor;
+import io.bioimage.modelrunner.bioimageio.description.TensorSpec;
+import io.bioimage.modelrunner.tensor.Tensor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.loops.LoopBuilder;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+/**
+ * Front-end that serves many small concurrent requests with a single loaded {@link Model}.
+ * The requests submitted are collected until the maximum batch size is reached or the maximum
+ * delay since the first request of the batch has passed. Then their inputs are concatenated
+ * along the batch axis, the model is run once on the whole batch and the outputs are split
+ * back and returned to each of the callers.
+ * Only requests whose inputs have the same shape (apart from the batch axis) are put in the
+ * same batch. Every input and output of the model needs a batch axis.
+ *
+ * @author Carlos Garcia Lopez de Haro
+ */
+public class BatchingModelServer implements AutoCloseable
+{
+	/**
+	 * Model used to process the batches. It should be already loaded
+	 */
+	private final Model model;
+	/**
+	 * Specs of the model
+	 */
+	private final ModelDescriptor descriptor;
+	/**
+	 * Maximum number of samples, summed along the batch axis, processed on each run
+	 */
+	private final int maxBatchSize;
+	/**
+	 * Maximum time in milliseconds that the first request of a batch waits for more requests
+	 */
+	private final long maxDelayMillis;
+	/**
+	 * Requests submitted and not collected yet
+	 */
+	private final BlockingQueue< Request > queue = new LinkedBlockingQueue< Request >();
+	/**
+	 * Thread that collects the requests and runs the model
+	 */
+	private final Thread worker;
+	/**
+	 * Whether the server accepts requests
+	 */
+	private volatile boolean running = true;
+	/**
+	 * Lock that makes closing the server atomic with respect to submitting requests and to
+	 * the worker starting to wait for requests
+	 */
+	private final Object lock = new Object();
+	/**
+	 * Whether the worker is waiting for a new request, the only moment it can be interrupted.
+	 * Guarded by {@link #lock}
+	 */
+	private boolean idle = false;
+
+	private BatchingModelServer( Model model, ModelDescriptor descriptor, int maxBatchSize, long maxDelayMillis )
+	{
+		this.model = model;
+		this.descriptor = descriptor;
+		this.maxBatchSize = maxBatchSize;
+		this.maxDelayMillis = maxDelayMillis;
+		this.worker = new Thread( this::serve, "jdll-batching-" + descriptor.getName() );
+		this.worker.setDaemon( true );
+		this.worker.start();
+	}
+
+	/**
+	 * Create a server that batches the requests for the model provided
+	 *
+	 * @param model
+	 *            the model used to process the requests. It should be already loaded
+	 * @param descriptor
+	 *            the specs of the model, read from its rdf.yaml file
+	 * @param maxBatchSize
+	 *            maximum number of samples, summed along the batch axis, processed on each run of the model
+	 * @param maxDelayMillis
+	 *            maximum time in milliseconds that a request waits for other requests to fill the batch
+	 * @return the server, already accepting requests
+	 * @throws IllegalArgumentException if any of the tensors of the model does not have a batch axis
+	 *             or if the model does not accept batches of the wanted size
+	 */
+	public static BatchingModelServer build( Model model, ModelDescriptor descriptor, int maxBatchSize, long maxDelayMillis )
+	{
+		Objects.requireNonNull( model );
+		Objects.requireNonNull( descriptor );
+		if ( maxBatchSize < 1 )
+			throw new IllegalArgumentException( "The maximum batch size should be at least 1." );
+		if ( maxDelayMillis < 0 )
+			throw new IllegalArgumentException( "The maximum delay cannot be negative." );
+		for ( TensorSpec spec : descriptor.getInputTensors() ) {
+			int bInd = spec.getAxesOrder().toLowerCase().indexOf( "b" );
+			if ( bInd == -1 )
+				throw new IllegalArgumentException( "Input tensor '" + spec.getName() + "' does not have a batch axis." );
+			if ( maxBatchSize > 1 && spec.getShape().getPatchPositionStep()[bInd] == 0 )
+				throw new IllegalArgumentException( "Input tensor '" + spec.getName() + "' has a fixed batch size of "
+						+ spec.getShape().getPatchMinimumSize()[bInd] + "." );
+		}
+		for ( TensorSpec spec : descriptor.getOutputTensors() ) {
+			if ( spec.getAxesOrder().toLowerCase().indexOf( "b" ) == -1 )
+				throw new IllegalArgumentException( "Output tensor '" + spec.getName() + "' does not have a batch axis." );
+		}
+		return new BatchingModelServer( model, descriptor, maxBatchSize, maxDelayMillis );
+	}
+
+	/**
+	 * Submit a request to be processed in the next batch
+	 *
+	 * @param inputs
+	 *            the input tensors of the request, with the names and axes defined in the rdf.yaml.
+	 *            They should not be modified until the returned future completes
+	 * @return a future that completes with the output tensors of the request, in the order
+	 *  defined by the rdf.yaml, or exceptionally if the model fails on the batch
+	 */
+	public CompletableFuture< List< Tensor < ? > > > submit( List< Tensor < ? > > inputs )
+	{
+		Request request = new Request( inputs );
+		synchronized ( lock ) {
+			if ( running ) {
+				queue.add( request );
+				return request.future;
+			}
+		}
+		request.future.completeExceptionally( new IllegalStateException( "The server has been closed." ) );
+		return request.future;
+	}
+
+	/**
+	 * Stop the server. No more requests are accepted, the ones already submitted are processed
+	 * and then the worker stops. The worker is only interrupted while it waits for new requests,
+	 * never while the model is running
+	 */
+	@Override
+	public void close()
+	{
+		synchronized ( lock ) {
+			running = false;
+			if ( idle )
+				worker.interrupt();
+		}
+		if ( Thread.currentThread() == worker )
+			return;
+		try {
+			worker.join();
+		} catch ( InterruptedException ex ) {
+			Thread.currentThread().interrupt();
+		}
+		Request request;
+		while ( ( request = queue.poll() ) != null )
+			request.future.completeExceptionally( new IllegalStateException( "The server has been closed." ) );
+	}
+
+	/**
+	 * Loop of the worker thread: collect a batch of compatible requests and process it
+	 */
+	private void serve()
+	{
+		Deque< Request > deferred = new ArrayDeque< Request >();
+		try {
+			while ( running || !queue.isEmpty() || !deferred.isEmpty() ) {
+				Request first = deferred.isEmpty() ? waitForRequest() : deferred.poll();
+				if ( first == null )
+					continue;
+				List< Request > batch = new ArrayList< Request >();
+				batch.add( first );
+				int size = first.batchSize;
+				long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( maxDelayMillis );
+				Deque< Request > incompatible = new ArrayDeque< Request >();
+				while ( size < maxBatchSize && !deferred.isEmpty() ) {
+					Request next = deferred.poll();
+					size = addToBatch( batch, next, size, incompatible );
+				}
+				while ( size < maxBatchSize ) {
+					long wait = running ? deadline - System.nanoTime() : 0;
+					Request next = wait > 0 ? queue.poll( wait, TimeUnit.NANOSECONDS ) : queue.poll();
+					if ( next == null )
+						break;
+					size = addToBatch( batch, next, size, incompatible );
+				}
+				incompatible.addAll( deferred );
+				deferred = incompatible;
+				processBatch( batch );
+			}
+		} catch ( InterruptedException ex ) {
+			// The server is being closed
+		} finally {
+			for ( Request request : deferred )
+				request.future.completeExceptionally( new IllegalStateException( "The server has been closed." ) );
+		}
+	}
+
+	/**
+	 * Wait for the next request. This is the only moment the worker can be interrupted by {@link #close()},
+	 * an interruption that arrives once the wait is over is cleared, so it never reaches the model
+	 *
+	 * @return the request, or null if none arrived in time or the server is being closed
+	 */
+	private Request waitForRequest()
+	{
+		synchronized ( lock ) {
+			if ( !running )
+				return queue.poll();
+			idle = true;
+		}
+		try {
+			return queue.poll( 100, TimeUnit.MILLISECONDS );
+		} catch ( InterruptedException ex ) {
+			// The server is being closed, the loop drains the requests left
+			return null;
+		} finally {
+			synchronized ( lock ) {
+				idle = false;
+				Thread.interrupted();
+			}
+		}
+	}
+
+	/**
+	 * Add a request to the batch if it has the same input shapes and fits in it,
+	 * otherwise keep it for a later batch
+	 *
+	 * @return the size of the batch
+	 */
+	private int addToBatch( List< Request > batch, Request request, int size, Deque< Request > incompatible )
+	{
+		if ( !request.shapeKey.equals( batch.get( 0 ).shapeKey ) || size + request.batchSize > maxBatchSize ) {
+			incompatible.add( request );
+			return size;
+		}
+		batch.add( request );
+		return size + request.batchSize;
+	}
+
+	/**
+	 * Run the model on the concatenated inputs of a batch and complete each request with
+	 * its part of the outputs
+	 *
+	 * @param batch
+	 *            requests with compatible inputs
+	 */
+	private void processBatch( List< Request > batch )
+	{
+		if ( batch.size() == 1 ) {
+			processSingle( batch.get( 0 ) );
+			return;
+		}
+		List< Tensor < ? > > inputs = new ArrayList< Tensor < ? > >();
+		List< Tensor < ? > > outputs = createEmptyOutputs();
+		try {
+			for ( Tensor< ? > tt : batch.get( 0 ).inputs )
+				inputs.add( concatenate( tt.getName(), batch ) );
+			model.runModel( inputs, outputs );
+			long offset = 0;
+			for ( Request request : batch ) {
+				List< Tensor < ? > > result = new ArrayList< Tensor < ? > >();
+				for ( Tensor< ? > out : outputs )
+					result.add( copyBatchRange( out, offset, request.batchSize ) );
+				request.future.complete( result );
+				offset += request.batchSize;
+			}
+		} catch ( Throwable ex ) {
+			for ( Request request : batch )
+				request.future.completeExceptionally( ex );
+		} finally {
+			inputs.forEach( Tensor::close );
+			outputs.forEach( Tensor::close );
+		}
+	}
+
+	/**
+	 * Run the model on a request that could not be batched with any other. The inputs are
+	 * passed without copying them
+	 *
+	 * @param request
+	 *            the request
+	 */
+	private void processSingle( Request request )
+	{
+		List< Tensor < ? > > outputs = createEmptyOutputs();
+		try {
+			model.runModel( request.inputs, outputs );
+			request.future.complete( outputs );
+		} catch ( Throwable ex ) {
+			request.future.completeExceptionally( ex );
+		}
+	}
+
+	private List< Tensor < ? > > createEmptyOutputs()
+	{
+		List< Tensor < ? > > outputs = new ArrayList< Tensor < ? > >();
+		for ( TensorSpec spec : descriptor.getOutputTensors() )
+			outputs.add( Tensor.buildEmptyTensor( spec.getName(), spec.getAxesOrder() ) );
+		return outputs;
+	}
+
+	/**
+	 * Concatenate the input with the wanted name of every request along the batch axis
+	 *
+	 * @param name
+	 *            name of the input
+	 * @param batch
+	 *            the requests
+	 * @return a new tensor containing the inputs of every request
+	 */
+	private static Tensor< ? > concatenate( String name, List< Request > batch )
+	{
+		Tensor< ? > first = Tensor.getTensorByNameFromList( batch.get( 0 ).inputs, name );
+		int bInd = first.getAxesOrderString().toLowerCase().indexOf( "b" );
+		long[] shape = first.getData().dimensionsAsLongArray();
+		shape[ bInd ] = 0;
+		for ( Request request : batch )
+			shape[ bInd ] += request.batchSize;
+		Tensor< ? > batchTensor = createBlankLike( first, shape );
+		long offset = 0;
+		for ( Request request : batch ) {
+			Tensor< ? > tt = Tensor.getTensorByNameFromList( request.inputs, name );
+			copyIntoBatchRange( tt.getData(), batchTensor.getData(), bInd, offset );
+			offset += request.batchSize;
+		}
+		return batchTensor;
+	}
+
+	private static < T extends RealType< T > & NativeType< T > > Tensor< T > createBlankLike( Tensor< T > tensor, long[] shape )
+	{
+		return Tensor.buildBlankTensor( tensor.getName(), tensor.getAxesOrderString(), shape,
+				Util.getTypeFromInterval( tensor.getData() ).createVariable() );
+	}
+
+	/**
+	 * Copy the data of a request into its range of the batch axis of the batch tensor
+	 */
+	@SuppressWarnings( "unchecked" )
+	private static < T extends RealType< T > & NativeType< T > > void copyIntoBatchRange( RandomAccessibleInterval< T > source,
+			RandomAccessibleInterval< ? > target, int bInd, long offset )
+	{
+		long[] min = new long[ source.numDimensions() ];
+		min[ bInd ] = offset;
+		LoopBuilder.setImages( source, Views.offsetInterval( ( RandomAccessibleInterval< T > ) target, min, source.dimensionsAsLongArray() ) )
+				.multiThreaded().forEachPixel( ( i, o ) -> o.set( i ) );
+	}
+
+	/**
+	 * Copy a range of the batch axis of an output into a new tensor
+	 */
+	private static < T extends RealType< T > & NativeType< T > > Tensor< T > copyBatchRange( Tensor< T > output, long offset, int size )
+	{
+		int bInd = output.getAxesOrderString().toLowerCase().indexOf( "b" );
+		long[] min = new long[ output.getData().numDimensions() ];
+		long[] dims = output.getData().dimensionsAsLongArray();
+		min[ bInd ] = offset;
+		dims[ bInd ] = size;
+		Tensor< T > result = createBlankLike( output, dims );
+		LoopBuilder.setImages( Views.offsetInterval( output.getData(), min, dims ), result.getData() )
+				.multiThreaded().forEachPixel( ( i, o ) -> o.set( i ) );
+		return result;
+	}
+
+	/**
+	 * A request waiting to be processed
+	 */
+	private static final class Request
+	{
+		private final List< Tensor < ? > > inputs;
+
+		private final CompletableFuture< List< Tensor < ? > > > future = new CompletableFuture< List< Tensor < ? > > >();
+
+		/**
+		 * Number of samples of the request along the batch axis
+		 */
+		private final int batchSize;
+
+		/**
+		 * Description of the input shapes without the batch axis, requests can only be
+		 * batched together if they have the same key
+		 */
+		private final String shapeKey;
+
+		private Request( List< Tensor < ? > > inputs )
+		{
+			this.inputs = inputs;
+			StringBuilder key = new StringBuilder();
+			int size = 1;
+			for ( int i = 0; i < inputs.size(); i ++ ) {
+				Tensor< ? > tt = inputs.get( i );
+				int[] shape = tt.getShape().clone();
+				int bInd = tt.getAxesOrderString().toLowerCase().indexOf( "b" );
+				if ( bInd != -1 ) {
+					if ( i == 0 )
+						size = shape[ bInd ];
+					shape[ bInd ] = 0;
+				}
+				key.append( tt.getName() ).append( Arrays.toString( shape ) )
+					.append( Util.getTypeFromInterval( tt.getData() ).getClass().getName() );
+			}
+			this.batchSize = size;
+			this.shapeKey = key.toString();
+		}
+	}
+}
@@ -24,12 +24,18 @@ package io.bioimage.modelrunner.model;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import io.bioimage.modelrunner.bioimageio.bioengine.BioEngineAvailableModels;
 import io.bioimage.modelrunner.bioimageio.bioengine.BioengineInterface;
 import io.bioimage.modelrunner.bioimageio.description.ModelDescriptor;
+import io.bioimage.modelrunner.bioimageio.description.TensorSpec;
 import io.bioimage.modelrunner.bioimageio.description.weights.WeightFormat;
 import io.bioimage.modelrunner.engine.DeepLearningEngineInterface;
 import io.bioimage.modelrunner.engine.EngineInfo;
@@ -37,10 +43,17 @@ import io.bioimage.modelrunner.engine.EngineLoader;
 import io.bioimage.modelrunner.exceptions.LoadEngineException;
 import io.bioimage.modelrunner.exceptions.LoadModelException;
 import io.bioimage.modelrunner.exceptions.RunModelException;
+import io.bioimage.modelrunner.metrics.InferenceEvent;
+import io.bioimage.modelrunner.metrics.InferenceMetrics;
+import io.bioimage.modelrunner.metrics.Stage;
 import io.bioimage.modelrunner.tensor.Tensor;
+import io.bioimage.modelrunner.tensor.TensorPool;
 import io.bioimage.modelrunner.utils.Constants;
 import io.bioimage.modelrunner.versionmanagement.InstalledEngines;
+import net.imglib2.converter.RealTypeConverters;
+import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Util;
 
 /**
  * Class that manages a Deep Learning model to load it and run it.
@@ -79,6 +92,37 @@ public class Model
 	 * Whether the model is created for the bioengine or not
 	 */
 	private boolean bioengine = false;
+	/**
+	 * Pool of the buffers used to convert the inputs into a data type accepted by the engine
+	 */
+	private final TensorPool conversionPool = TensorPool.build( 1 );
+	/**
+	 * Lock that guarantees that the engine instance is never used by two threads at the same time
+	 */
+	private final Object runLock = new Object();
+	/**
+	 * Message of the exception thrown when a model that is not loaded or has been closed is run
+	 */
+	private static final String CLOSED_MODEL_ERR = "The model is not loaded or has been closed.";
+	/**
+	 * Executor where the asynchronous runs are processed, one after the other, on a thread
+	 * that keeps the engine ClassLoader as its context ClassLoader. Created on the first
+	 * asynchronous run
+	 */
+	private ExecutorService asyncExecutor;
+	/**
+	 * Specs of the model read from the rdf.yaml file, used to create the output tensors
+	 * of the asynchronous runs
+	 */
+	private ModelDescriptor descriptor;
+	/**
+	 * Number of inferences run with dummy inputs right after loading the model
+	 */
+	private int warmupRuns = 0;
+	/**
+	 * Time in milliseconds taken by each of the warm up inferences of the last load
+	 */
+	private long[] warmupTimes = new long[0];
 
 	/**
 	 * Construct the object model with all the needed information to load a
@@ -111,6 +155,24 @@ public class Model
 		setEngineClassLoader( classLoader );
 	}
 
+	/**
+	 * Construct a model run by an engine instance already available in the
+	 * current ClassLoader
+	 * 
+	 * @param modelFolder
+	 *            directory where of the model folder
+	 * @param modelSource
+	 *            name of the actual model file, can be null
+	 * @param engineInstance
+	 *            the engine instance
+	 */
+	private Model( String modelFolder, String modelSource, DeepLearningEngineInterface engineInstance )
+	{
+		this.modelFolder = modelFolder;
+		this.modelSource = modelSource;
+		this.engineClassLoader = EngineLoader.createEngine( Thread.currentThread().getContextClassLoader(), engineInstance );
+	}
+
 	/**
 	 * Creates a DeepLearning model {@link Model} from the wanted Deep Learning
 	 * framework (engine)
@@ -143,6 +205,30 @@ public class Model
 		return new Model( engineInfo, modelFolder, modelSource, null );
 	}
 	
+	/**
+	 * Creates a model {@link Model} run by an engine instance whose classes are already
+	 * available in the current ClassLoader, instead of an engine installed in the engines folder.
+	 * This allows using custom engines, or mock engines to test and benchmark JDLL without
+	 * any Deep Learning framework installed
+	 * 
+	 * @param modelFolder
+	 *            String path to the folder where all the components of the
+	 *            model are stored
+	 * @param modelSource
+	 *            String path to the actual model file, passed to the engine when the model is loaded.
+	 *            Can be null if the engine does not need it
+	 * @param engineInstance
+	 *            the engine instance that loads and runs the model
+	 * @return the Model that is going to be used to make inference
+	 */
+	public static Model createModelWithEngine( String modelFolder, String modelSource,
+			DeepLearningEngineInterface engineInstance )
+	{
+		Objects.requireNonNull(modelFolder);
+		Objects.requireNonNull(engineInstance);
+		return new Model( modelFolder, modelSource, engineInstance );
+	}
+	
 	/**
 	 * Load a model from the bioimage.io directly. Just providing the path to the
 	 * folder where the rdf.yaml is, no extra info is needed as it is read from the
@@ -413,33 +499,120 @@ public class Model
 	 */
 	public void loadModel() throws LoadModelException
 	{
+		InferenceEvent event = InferenceMetrics.beginEvent( InferenceEvent.Kind.MODEL_LOAD ).setEngine( getEngineName() );
+		long start = InferenceMetrics.start();
 		DeepLearningEngineInterface engineInstance = engineClassLoader.getEngineInstance();
 		engineClassLoader.setEngineClassLoader();
 		engineInstance.loadModel( modelFolder, modelSource );
 		if (engineClassLoader.isBioengine()) 
 			((BioengineInterface) engineInstance).addServer(engineInfo.getServer());
 		engineClassLoader.setBaseClassLoader();
+		InferenceMetrics.stop( Stage.MODEL_LOAD, start );
+		event.commit();
+		InferenceMetrics.increment( InferenceMetrics.MODELS_LOADED_COUNTER );
+		if ( warmupRuns > 0 )
+			warmUp();
+	}
+
+	/**
+	 * Set the number of inferences run with dummy inputs at the end of {@link #loadModel()}.
+	 * The first inferences of many engines are much slower than the rest because of graph
+	 * optimizations, lazy compilation and native memory allocation. Warming up the model moves
+	 * that cost to the load, so the first real inference is as fast as the following ones.
+	 * The test inputs of the rdf.yaml are used if they are available, otherwise blank
+	 * tensors of the smallest shape allowed. The default is 0, no warm up
+	 * 
+	 * @param warmupRuns
+	 *            number of warm up inferences
+	 */
+	public void setWarmupRuns( int warmupRuns )
+	{
+		if ( warmupRuns < 0 )
+			throw new IllegalArgumentException( "The number of warm up runs cannot be negative." );
+		this.warmupRuns = warmupRuns;
+	}
+
+	/**
+	 * 
+	 * @return the number of inferences run with dummy inputs when the model is loaded
+	 */
+	public int getWarmupRuns()
+	{
+		return warmupRuns;
+	}
+
+	/**
+	 * 
+	 * @return the time in milliseconds taken by each of the warm up inferences of the last
+	 *  time the model was loaded. Empty if there was no warm up
+	 */
+	public long[] getWarmupTimes()
+	{
+		return warmupTimes.clone();
+	}
+
+	/**
+	 * Run the model {@link #warmupRuns} times on dummy inputs and record how long each run takes
+	 * 
+	 * @throws LoadModelException if the rdf.yaml cannot be read or the model fails on the dummy inputs
+	 */
+	private void warmUp() throws LoadModelException
+	{
+		List< Tensor < ? > > inputs;
+		try {
+			inputs = ModelWarmup.createInputs( getDescriptor(), modelFolder );
+		} catch ( Exception ex ) {
+			throw new LoadModelException( "Unable to create the inputs to warm up the model.", ex.toString() );
+		}
+		long[] times = new long[ warmupRuns ];
+		try {
+			for ( int i = 0; i < warmupRuns; i ++ ) {
+				List< Tensor < ? > > outputs = ModelWarmup.createOutputs( getDescriptor() );
+				try {
+					long start = System.nanoTime();
+					runModel( inputs, outputs );
+					times[ i ] = TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start );
+				} finally {
+					outputs.forEach( Tensor::close );
+				}
+			}
+		} catch ( Exception ex ) {
+			throw new LoadModelException( "Error warming up the model.", ex.toString() );
+		} finally {
+			inputs.forEach( Tensor::close );
+		}
+		warmupTimes = times;
 	}
 
 	/**
 	 * Close the Deep LEarning model in the ClassLoader where the Deep Learning
-	 * framework has been called and instantiated
+	 * framework has been called and instantiated. If the model is running, it waits
+	 * until the run finishes
 	 */
 	public void closeModel()
 	{
-		DeepLearningEngineInterface engineInstance = getEngineClassLoader().getEngineInstance();
-		engineClassLoader.setEngineClassLoader();
-		engineInstance.closeModel();
-		getEngineClassLoader().close();
-		engineInstance = null;
-		engineClassLoader.setBaseClassLoader();
-		engineClassLoader = null;
+		shutdownAsyncExecutor();
+		synchronized ( runLock ) {
+			if ( engineClassLoader == null )
+				return;
+			DeepLearningEngineInterface engineInstance = getEngineClassLoader().getEngineInstance();
+			engineClassLoader.setEngineClassLoader();
+			engineInstance.closeModel();
+			getEngineClassLoader().close();
+			engineInstance = null;
+			engineClassLoader.setBaseClassLoader();
+			engineClassLoader = null;
+		}
 	}
 
 	/**
 	 * Method that calls the ClassLoader with the corresponding JARs of the Deep
 	 * Learning framework (engine) loaded to run inference on the tensors. The
-	 * method returns the corresponding output tensors
+	 * method returns the corresponding output tensors.
+	 * The input tensors are passed as they are to the engine, unless their data type
+	 * is not one of {@link DeepLearningEngineInterface#getSupportedInputDataTypes()}. In that
+	 * case they are converted into float in a buffer that is reused between calls.
+	 * The input tensors are never modified
 	 * 
 	 * @param inTensors
 	 *            input tensors containing all the tensor data
@@ -452,11 +625,205 @@ public class Model
 	 */
 	public void runModel( List< Tensor < ? > > inTensors, List< Tensor < ? > > outTensors ) throws RunModelException, Exception
 	{
-		DeepLearningEngineInterface engineInstance = engineClassLoader.getEngineInstance();
-		engineClassLoader.setEngineClassLoader();
-		inTensors.stream().forEach( tt -> tt = Tensor.createCopyOfTensorInWantedDataType( tt, new FloatType() ) );
-		engineInstance.run( inTensors, outTensors );
-		engineClassLoader.setBaseClassLoader();
+		EngineLoader loader = engineClassLoader;
+		if ( loader == null )
+			throw new RunModelException( CLOSED_MODEL_ERR );
+		loader.setEngineClassLoader();
+		try {
+			runOnEngine( inTensors, outTensors );
+		} finally {
+			loader.setBaseClassLoader();
+		}
+	}
+
+	/**
+	 * Run the model asynchronously. The run is queued on a thread dedicated to this model, that
+	 * keeps the engine ClassLoader as its context ClassLoader, so the calling thread can continue
+	 * and several runs can be submitted. The runs are processed one after the other, in the
+	 * order they were submitted, and never at the same time as a call to
+	 * {@link #runModel(List, List)}
+	 * 
+	 * @param inTensors
+	 *            input tensors containing all the tensor data. They should not be modified until the
+	 *            returned future completes
+	 * @param outTensors
+	 *            expected output tensors. Their backend data will be rewritten with the result of the inference
+	 * @return a future that completes with the output tensors once the model has run, or exceptionally
+	 *  if there is any problem running the model
+	 */
+	public CompletableFuture< List< Tensor < ? > > > runModelAsync( List< Tensor < ? > > inTensors, 
+			List< Tensor < ? > > outTensors )
+	{
+		CompletableFuture< List< Tensor < ? > > > future = new CompletableFuture< List< Tensor < ? > > >();
+		getAsyncExecutor().execute( () -> {
+			try {
+				engineClassLoader.setEngineClassLoader();
+				runOnEngine( inTensors, outTensors );
+				future.complete( outTensors );
+			} catch ( Throwable ex ) {
+				future.completeExceptionally( ex );
+			}
+		} );
+		return future;
+	}
+
+	/**
+	 * Run the model asynchronously, creating the output tensors from the specs of the rdf.yaml file
+	 * of the model. The output tensors are created empty and filled by the engine.
+	 * See {@link #runModelAsync(List, List)}
+	 * 
+	 * @param inTensors
+	 *            input tensors containing all the tensor data. They should not be modified until the
+	 *            returned future completes
+	 * @return a future that completes with the output tensors, in the order defined by the rdf.yaml, 
+	 *  once the model has run, or exceptionally if there is any problem running the model or reading
+	 *  the rdf.yaml file
+	 */
+	public CompletableFuture< List< Tensor < ? > > > runModelAsync( List< Tensor < ? > > inTensors )
+	{
+		List< Tensor < ? > > outTensors = new ArrayList< Tensor < ? > >();
+		try {
+			for ( TensorSpec spec : getDescriptor().getOutputTensors() )
+				outTensors.add( Tensor.buildEmptyTensor( spec.getName(), spec.getAxesOrder() ) );
+		} catch ( Exception ex ) {
+			CompletableFuture< List< Tensor < ? > > > future = new CompletableFuture< List< Tensor < ? > > >();
+			future.completeExceptionally( ex );
+			return future;
+		}
+		return runModelAsync( inTensors, outTensors );
+	}
+
+	/**
+	 * Run the engine on the tensors, converting first the inputs whose data type is not accepted
+	 * by the engine. The engine ClassLoader has to be already set on the current thread
+	 * 
+	 * @param inTensors
+	 *            input tensors
+	 * @param outTensors
+	 *            output tensors
+	 * @throws RunModelException
+	 *             if the is any problem running the model
+	 */
+	private void runOnEngine( List< Tensor < ? > > inTensors, List< Tensor < ? > > outTensors ) throws RunModelException
+	{
+		synchronized ( runLock ) {
+			if ( engineClassLoader == null )
+				throw new RunModelException( CLOSED_MODEL_ERR );
+			InferenceEvent event = InferenceMetrics.beginEvent( InferenceEvent.Kind.MODEL_RUN )
+					.setEngine( getEngineName() ).addTensors( inTensors );
+			DeepLearningEngineInterface engineInstance = engineClassLoader.getEngineInstance();
+			List< Tensor < ? > > converted = new ArrayList< Tensor < ? > >();
+			try {
+				List< Tensor < ? > > engineInputs = convertUnsupportedInputs( inTensors, 
+						engineInstance.getSupportedInputDataTypes(), converted );
+				long start = InferenceMetrics.start();
+				engineInstance.run( engineInputs, outTensors );
+				InferenceMetrics.stop( Stage.ENGINE_RUN, start );
+				InferenceMetrics.increment( InferenceMetrics.RUNS_COUNTER );
+			} finally {
+				for ( Tensor< ? > tt : converted )
+					conversionPool.release( tt );
+				event.addTensors( outTensors ).commit();
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * @return the framework and version of the engine, used to describe the events of the model
+	 */
+	private String getEngineName()
+	{
+		if ( engineInfo == null )
+			return engineClassLoader.getEngineInstance().getClass().getSimpleName();
+		return engineInfo.getFramework() + " " + engineInfo.getVersion();
+	}
+
+	/**
+	 * Get the executor of the asynchronous runs, creating it if needed. It has a single daemon
+	 * thread, so runs are never processed at the same time
+	 * 
+	 * @return the executor
+	 */
+	private synchronized ExecutorService getAsyncExecutor()
+	{
+		if ( asyncExecutor == null ) {
+			String threadName = "jdll-model-" + new File( modelFolder ).getName();
+			asyncExecutor = Executors.newSingleThreadExecutor( r -> {
+				Thread thread = new Thread( r, threadName );
+				thread.setDaemon( true );
+				return thread;
+			} );
+		}
+		return asyncExecutor;
+	}
+
+	/**
+	 * Stop accepting asynchronous runs and wait for the ones already submitted to finish
+	 */
+	private synchronized void shutdownAsyncExecutor()
+	{
+		if ( asyncExecutor == null )
+			return;
+		asyncExecutor.shutdown();
+		try {
+			asyncExecutor.awaitTermination( Long.MAX_VALUE, TimeUnit.MILLISECONDS );
+		} catch ( InterruptedException ex ) {
+			Thread.currentThread().interrupt();
+		}
+		asyncExecutor = null;
+	}
+
+	/**
+	 * Get the specs of the model, reading them from the rdf.yaml file in the model folder
+	 * the first time
+	 * 
+	 * @return the specs of the model
+	 * @throws Exception if the rdf.yaml file cannot be read
+	 */
+	private synchronized ModelDescriptor getDescriptor() throws Exception
+	{
+		if ( descriptor == null )
+			descriptor = ModelDescriptor.readFromLocalFile( modelFolder + File.separator + Constants.RDF_FNAME, false );
+		return descriptor;
+	}
+
+	/**
+	 * Convert into float the input tensors whose data type is not accepted by the engine.
+	 * The conversion buffers are borrowed from {@link #conversionPool}
+	 * 
+	 * @param inTensors
+	 *            input tensors
+	 * @param supported
+	 *            data types accepted by the engine, empty if every type is accepted
+	 * @param converted
+	 *            list where the tensors created for the conversion are added, so they can be released
+	 * @return the list of tensors passed to the engine. If no input needs conversion, the 
+	 *  input list itself
+	 */
+	private List< Tensor < ? > > convertUnsupportedInputs( List< Tensor < ? > > inTensors, 
+			List< Class< ? extends RealType< ? > > > supported, List< Tensor < ? > > converted )
+	{
+		if ( supported.isEmpty() )
+			return inTensors;
+		List< Tensor < ? > > engineInputs = inTensors;
+		for ( int i = 0; i < inTensors.size(); i ++ ) {
+			Tensor< ? > tt = inTensors.get( i );
+			if ( tt.isEmpty() || supported.contains( Util.getTypeFromInterval( tt.getData() ).getClass() ) )
+				continue;
+			if ( engineInputs == inTensors )
+				engineInputs = new ArrayList< Tensor < ? > >( inTensors );
+			long start = InferenceMetrics.start();
+			Tensor< FloatType > floatTensor = conversionPool.borrow( tt.getName(), tt.getAxesOrderString(),
+					tt.getData().dimensionsAsLongArray(), new FloatType() );
+			converted.add( floatTensor );
+			RealTypeConverters.copyFromTo( tt.getData(), floatTensor.getData() );
+			engineInputs.set( i, floatTensor );
+			InferenceMetrics.stop( Stage.DTYPE_CONVERSION, start );
+			InferenceMetrics.recordBytes( Stage.DTYPE_CONVERSION, floatTensor.getData() );
+			InferenceMetrics.increment( InferenceMetrics.CONVERSIONS_COUNTER );
+		}
+		return engineInputs;
 	}
 
 	/**
@@ -0,0 +1,267 @@
+/*-
+ * #%L
+ * Use deep learning frameworks from Java in an agnostic and isolated way.
+ * %%
+ * Copyright (C) 2022 - 2023 Institut Pasteur and BioImage.IO developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.bioimage.modelrunner.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import io.bioimage.modelrunner.engine.DeepLearningEngineInterface;
+import io.bioimage.modelrunner.engine.EngineInfo;
+import io.bioimage.modelrunner.engine.EngineLoader;
+import io.bioimage.modelrunner.exceptions.LoadModelException;
+import io.bioimage.modelrunner.exceptions.RunModelException;
+import io.bioimage.modelrunner.tensor.Tensor;
+
+/**
+ * Pool of independent instances of the same model, so several threads can run inference
+ * at the same time. A single {@link Model} wraps a single engine instance and cannot be run
+ * concurrently, with a pool the throughput scales with the number of instances.
+ * Every instance has its own engine instance, but all of them share the ClassLoader of the
+ * engine, that {@link EngineLoader} creates only once per engine.
+ *
+ * Instances are leased with {@link #lease()} and given back with {@link #release(Model)}, or
+ * used through {@link #runModel(List, List)}, that does both.
+ *
+ * Tensorflow 2 is always loaded in a new ClassLoader, so pools of Tensorflow 2 models
+ * do not share it.
+ *
+ * @author Carlos Garcia Lopez de Haro
+ */
+public class ModelPool implements AutoCloseable
+{
+	/**
+	 * Milliseconds a thread waiting for an instance waits before checking again whether the pool
+	 * has been closed
+	 */
+	private static final long CLOSED_POLL_MILLIS = 100;
+	/**
+	 * Every instance of the model
+	 */
+	private final List< Model > models;
+	/**
+	 * Instances not leased at the moment
+	 */
+	private final BlockingQueue< Model > available;
+	/**
+	 * Whether the pool has been closed
+	 */
+	private volatile boolean closed = false;
+	/**
+	 * Lock that keeps instances from being given back to the pool while it is closed
+	 */
+	private final Object lock = new Object();
+
+	private ModelPool( List< Model > models )
+	{
+		this.models = models;
+		this.available = new ArrayBlockingQueue< Model >( models.size(), false, models );
+	}
+
+	/**
+	 * Create a pool of instances of a model from the wanted Deep Learning framework (engine).
+	 * The instances are created but not loaded, call {@link #loadModels()} to load them
+	 *
+	 * @param modelFolder
+	 *            String path to the folder where all the components of the
+	 *            model are stored
+	 * @param modelSource
+	 *            String path to the actual model file. In Pytorch is the path
+	 *            to a .pt file and for Tf it is the same as the modelFolder
+	 * @param engineInfo
+	 *            all the information needed to load the classes of a Deep
+	 *            Learning framework (engine)
+	 * @param size
+	 *            number of instances of the model
+	 * @return the pool
+	 * @throws Exception if there is any error creating any of the instances
+	 */
+	public static ModelPool createDeepLearningModelPool( String modelFolder, String modelSource,
+			EngineInfo engineInfo, int size ) throws Exception
+	{
+		if ( size < 1 )
+			throw new IllegalArgumentException( "A model pool needs at least one instance." );
+		List< Model > models = new ArrayList< Model >();
+		for ( int i = 0; i < size; i ++ )
+			models.add( Model.createDeepLearningModel( modelFolder, modelSource, engineInfo ) );
+		return new ModelPool( models );
+	}
+
+	/**
+	 * Create a pool of instances of a model run by engine instances whose classes are already
+	 * available in the current ClassLoader. See {@link Model#createModelWithEngine(String, String, DeepLearningEngineInterface)}
+	 *
+	 * @param modelFolder
+	 *            String path to the folder where all the components of the
+	 *            model are stored
+	 * @param modelSource
+	 *            String path to the actual model file, passed to the engines when the model is loaded.
+	 *            Can be null if the engines do not need it
+	 * @param engineInstances
+	 *            one engine instance per instance of the model
+	 * @return the pool
+	 */
+	public static ModelPool createModelPoolWithEngines( String modelFolder, String modelSource,
+			List< DeepLearningEngineInterface > engineInstances )
+	{
+		if ( engineInstances.size() < 1 )
+			throw new IllegalArgumentException( "A model pool needs at least one instance." );
+		List< Model > models = new ArrayList< Model >();
+		for ( DeepLearningEngineInterface engineInstance : engineInstances )
+			models.add( Model.createModelWithEngine( modelFolder, modelSource, engineInstance ) );
+		return new ModelPool( models );
+	}
+
+	/**
+	 * Create a pool of instances of a Bioimage.io model, reading everything needed from its rdf.yaml
+	 * file. The instances are created but not loaded, call {@link #loadModels()} to load them.
+	 * See {@link Model#createBioimageioModel(String)}
+	 *
+	 * @param bmzModelFolder
+	 * 	folder where the bioimage.io model is located (parent folder of the rdf.yaml file)
+	 * @param size
+	 *            number of instances of the model
+	 * @return the pool
+	 * @throws Exception if there is any error creating any of the instances
+	 */
+	public static ModelPool createBioimageioModelPool( String bmzModelFolder, int size ) throws Exception
+	{
+		Objects.requireNonNull( bmzModelFolder );
+		if ( size < 1 )
+			throw new IllegalArgumentException( "A model pool needs at least one instance." );
+		Model first = Model.createBioimageioModel( bmzModelFolder );
+		List< Model > models = new ArrayList< Model >();
+		models.add( first );
+		for ( int i = 1; i < size; i ++ )
+			models.add( Model.createDeepLearningModel( first.getModelFolder(), first.getModelSource(), first.getEngineInfo() ) );
+		return new ModelPool( models );
+	}
+
+	/**
+	 * Load every instance of the model
+	 *
+	 * @throws LoadModelException if any of the instances cannot be loaded
+	 */
+	public void loadModels() throws LoadModelException
+	{
+		for ( Model model : models )
+			model.loadModel();
+	}
+
+	/**
+	 * Take an instance of the model, waiting until one is available. The instance has to be
+	 * given back with {@link #release(Model)} once it is not needed, also if the pool is closed
+	 * meanwhile, so it can be closed. If the pool is closed while waiting, the wait ends with an exception
+	 *
+	 * @return an instance of the model only used by the caller until it is released
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 * @throws IllegalStateException if the pool is closed or gets closed while waiting
+	 */
+	public Model lease() throws InterruptedException, IllegalStateException
+	{
+		while ( !closed )
+		{
+			Model model = available.poll( CLOSED_POLL_MILLIS, TimeUnit.MILLISECONDS );
+			if ( model != null && !closed )
+				return model;
+			else if ( model != null )
+				closeInstance( model );
+		}
+		throw new IllegalStateException( "The model pool has been closed." );
+	}
+
+	/**
+	 * Give back an instance of the model leased with {@link #lease()}. Instances given back
+	 * after the pool has been closed are closed instead
+	 *
+	 * @param model
+	 * 	the instance
+	 */
+	public void release( Model model )
+	{
+		if ( !models.contains( model ) )
+			throw new IllegalArgumentException( "The model does not belong to this pool." );
+		synchronized ( lock ) {
+			if ( !closed ) {
+				available.offer( model );
+				return;
+			}
+		}
+		closeInstance( model );
+	}
+
+	/**
+	 * Run the model on the tensors with the first instance available.
+	 * See {@link Model#runModel(List, List)}
+	 *
+	 * @param inTensors
+	 *            input tensors containing all the tensor data
+	 * @param outTensors
+	 *            expected output tensors. Their backend data will be rewritten with the result of the inference
+	 * @throws RunModelException if there is any problem running the model
+	 * @throws Exception if there is any other problem, or the thread is interrupted while waiting for
+	 * 	an instance
+	 */
+	public void runModel( List< Tensor < ? > > inTensors, List< Tensor < ? > > outTensors )
+			throws RunModelException, Exception
+	{
+		Model model = lease();
+		try {
+			model.runModel( inTensors, outTensors );
+		} finally {
+			release( model );
+		}
+	}
+
+	/**
+	 *
+	 * @return the number of instances of the model in the pool
+	 */
+	public int getSize()
+	{
+		return models.size();
+	}
+
+	/**
+	 * Close every instance of the model that is not leased, and stop the threads waiting
+	 * in {@link #lease()}. Instances leased at the moment are closed once they are released,
+	 * so a run is never interrupted
+	 */
+	@Override
+	public void close()
+	{
+		List< Model > idle = new ArrayList< Model >();
+		synchronized ( lock ) {
+			closed = true;
+			available.drainTo( idle );
+		}
+		for ( Model model : idle )
+			closeInstance( model );
+	}
+
+	private static void closeInstance( Model model )
+	{
+		if ( model.getEngineClassLoader() != null )
+			model.closeModel();
+	}
+}
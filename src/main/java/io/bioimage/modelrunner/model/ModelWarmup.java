@@ -0,0 +1,170 @@
+/*-
+ * #%L
+ * Use deep learning frameworks from Java in an agnostic and isolated way.
+ * %%
+ * Copyright (C) 2022 - 2023 Institut Pasteur and BioImage.IO developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.bioimage.modelrunner.model;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.bioimage.modelrunner.bioimageio.description.ModelDescriptor;
+import io.bioimage.modelrunner.bioimageio.description.TensorSpec;
+import io.bioimage.modelrunner.bioimageio.description.TestArtifact;
+import io.bioimage.modelrunner.numpy.DecodeNumpy;
+import io.bioimage.modelrunner.tensor.Tensor;
+import net.imglib2.RandomAccessibleInterval;
+
+/**
+ * Creates the tensors used to warm up a model before its first real inference.
+ * The test inputs of the rdf.yaml are used when they are available locally, otherwise
+ * blank tensors of the smallest valid shape and the data type of each input are created.
+ *
+ * @author Carlos Garcia Lopez de Haro
+ */
+final class ModelWarmup
+{
+
+	private ModelWarmup()
+	{
+	}
+
+	/**
+	 * Create the input tensors for the warm up
+	 * @param descriptor
+	 * 	specs of the model
+	 * @param modelFolder
+	 * 	folder of the model, where the test inputs are looked for
+	 * @return the input tensors, in the order defined by the rdf.yaml
+	 */
+	static List< Tensor < ? > > createInputs( ModelDescriptor descriptor, String modelFolder )
+	{
+		List< Tensor < ? > > inputs = readTestInputs( descriptor, modelFolder );
+		if ( inputs != null )
+			return inputs;
+		inputs = new ArrayList< Tensor < ? > >();
+		for ( TensorSpec spec : descriptor.getInputTensors() )
+			inputs.add( createBlankTensor( spec ) );
+		return inputs;
+	}
+
+	/**
+	 * Create empty output tensors that the engine fills
+	 * @param descriptor
+	 * 	specs of the model
+	 * @return the output tensors, in the order defined by the rdf.yaml
+	 */
+	static List< Tensor < ? > > createOutputs( ModelDescriptor descriptor )
+	{
+		List< Tensor < ? > > outputs = new ArrayList< Tensor < ? > >();
+		for ( TensorSpec spec : descriptor.getOutputTensors() )
+			outputs.add( Tensor.buildEmptyTensor( spec.getName(), spec.getAxesOrder() ) );
+		return outputs;
+	}
+
+	/**
+	 * Read the test inputs of the rdf.yaml
+	 * @return the test inputs or null if any of them is not available locally or cannot be read
+	 */
+	private static List< Tensor < ? > > readTestInputs( ModelDescriptor descriptor, String modelFolder )
+	{
+		List< TestArtifact > artifacts = descriptor.getTestInputs();
+		List< TensorSpec > specs = descriptor.getInputTensors();
+		if ( artifacts.size() != specs.size() )
+			return null;
+		List< Tensor < ? > > inputs = new ArrayList< Tensor < ? > >();
+		try {
+			for ( int i = 0; i < specs.size(); i ++ ) {
+				Path path = getLocalPath( artifacts.get( i ), modelFolder );
+				if ( path == null ) {
+					inputs.forEach( Tensor::close );
+					return null;
+				}
+				inputs.add( readNpy( specs.get( i ), path ) );
+			}
+		} catch ( Exception ex ) {
+			inputs.forEach( Tensor::close );
+			return null;
+		}
+		return inputs;
+	}
+
+	/**
+	 * Find a test input in the model folder, where the rdf.yaml refers to it, without
+	 * modifying the {@link TestArtifact} of the descriptor
+	 * @param artifact
+	 * 	the test input of the rdf.yaml
+	 * @param modelFolder
+	 * 	folder of the model
+	 * @return the path to the test input or null if it is not available locally
+	 */
+	private static Path getLocalPath( TestArtifact artifact, String modelFolder )
+	{
+		if ( artifact.getString() != null ) {
+			Path path = Paths.get( modelFolder ).resolve( new File( artifact.getString() ).getName() );
+			if ( path.toFile().exists() )
+				return path;
+		}
+		return artifact.getLocalPath();
+	}
+
+	@SuppressWarnings( { "rawtypes", "unchecked" } )
+	private static Tensor< ? > readNpy( TensorSpec spec, Path path ) throws Exception
+	{
+		RandomAccessibleInterval data = DecodeNumpy.retrieveImgLib2FromNpy( path.toString() );
+		return Tensor.build( spec.getName(), spec.getAxesOrder(), data );
+	}
+
+	/**
+	 * Get the smallest shape allowed for an input that is bigger than twice its halo
+	 * @param spec
+	 * 	specs of the input
+	 * @return the shape in the tensor axes order
+	 */
+	private static long[] getSmallestShape( TensorSpec spec )
+	{
+		int[] min = spec.getShape().getPatchMinimumSize();
+		int[] step = spec.getShape().getPatchPositionStep();
+		float[] halo = spec.getHalo();
+		long[] shape = new long[ min.length ];
+		for ( int i = 0; i < min.length; i ++ ) {
+			long size = Math.max( 1, min[ i ] );
+			while ( step[ i ] > 0 && halo != null && size <= 2 * halo[ i ] )
+				size += step[ i ];
+			shape[ i ] = size;
+		}
+		return shape;
+	}
+
+	/**
+	 * Create a blank tensor of the smallest valid shape with the ImgLib2 type corresponding to
+	 * the data type of the rdf.yaml. Float is used if the data type is unknown
+	 * @param spec
+	 * 	specs of the input
+	 * @return the blank tensor
+	 */
+	private static Tensor< ? > createBlankTensor( TensorSpec spec )
+	{
+		String name = spec.getName();
+		String axes = spec.getAxesOrder();
+		long[] shape = getSmallestShape( spec );
+		return Tensor.buildBlankTensor( name, axes, shape, spec.getDataType(), null );
+	}
+}
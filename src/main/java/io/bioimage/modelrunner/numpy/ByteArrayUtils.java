@@ -48,10 +48,10 @@ public class ByteArrayUtils {
 	 */
 	public static short[] toInt16(byte[] arr, ByteOrder byteOrder) {
 		short[] int16 = new short[arr.length / 2];
-		for ( int i = 0; i < arr.length / 4; i ++) {
+		for ( int i = 0; i < arr.length / 2; i ++) {
 			byte[] intArr = new byte[2];
 			intArr[0] = arr[i * 2];
-			intArr[1] = arr[i * 4 + 1];
+			intArr[1] = arr[i * 2 + 1];
 			int16[i] = ByteBuffer.wrap(intArr).order(byteOrder).getShort();
 		}
 		return int16;
@@ -192,10 +192,10 @@ public class ByteArrayUtils {
 	 */
 	public static int[] toUInt16(byte[] arr, ByteOrder byteOrder) {
 		int[] int16 = new int[arr.length / 2];
-		for ( int i = 0; i < arr.length / 4; i ++) {
+		for ( int i = 0; i < arr.length / 2; i ++) {
 			byte[] intArr = new byte[2];
 			intArr[0] = arr[i * 2];
-			intArr[1] = arr[i * 4 + 1];
+			intArr[1] = arr[i * 2 + 1];
 			short number = ByteBuffer.wrap(intArr).order(byteOrder).getShort();
 			if (number < 0)
 				int16[i] = (int) (Math.pow(2, 16) + number);
@@ -34,6 +34,8 @@ import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import io.bioimage.modelrunner.metrics.InferenceEvent;
+import io.bioimage.modelrunner.metrics.InferenceMetrics;
 import io.bioimage.modelrunner.utils.IndexingUtils;
 import net.imglib2.Cursor;
 import net.imglib2.RandomAccessibleInterval;
@@ -87,7 +89,7 @@ public class DecodeNumpy {
         DATA_TYPES_MAP.put("int8", 1);
         DATA_TYPES_MAP.put("uint8", 1);
         DATA_TYPES_MAP.put("int16", 2);
-        DATA_TYPES_MAP.put("uint16", 1);
+        DATA_TYPES_MAP.put("uint16", 2);
         DATA_TYPES_MAP.put("int32", 4);
         DATA_TYPES_MAP.put("uint32", 4);
         DATA_TYPES_MAP.put("int64", 8);
@@ -148,6 +150,7 @@ public class DecodeNumpy {
      */
     private static < T extends RealType< T > & NativeType< T > > 
     				RandomAccessibleInterval<T> decodeNumpy(InputStream is) throws IOException {
+        InferenceEvent event = InferenceMetrics.beginEvent(InferenceEvent.Kind.NUMPY_DECODE);
         DataInputStream dis;
         if (is instanceof DataInputStream) {
             dis = (DataInputStream) is;
@@ -215,7 +218,9 @@ public class DecodeNumpy {
         data.order(byteOrder);
         readData(dis, data, len);
 
-        return build(data, byteOrder, dtype, shape);
+        Img<T> img = build(data, byteOrder, dtype, shape);
+        event.addData(img).commit();
+        return img;
     }
     
     /**
@@ -325,7 +330,7 @@ public class DecodeNumpy {
     		return (Img<T>) buildFloat32(buf, byteOrder, shape);
     	} else if (dtype.equals("float64")) {
     		return (Img<T>) buildFloat64(buf, byteOrder, shape);
-    	} else if (dtype.equals("bool")) {
+    	} else if (dtype.equals("boolean")) {
     		return (Img<T>) buildBoolean(buf, byteOrder, shape);
     	} else {
             throw new IllegalArgumentException("Unsupported data type of numpy array: " + dtype);
@@ -23,6 +23,8 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 
+import io.bioimage.modelrunner.metrics.InferenceEvent;
+import io.bioimage.modelrunner.metrics.InferenceMetrics;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.converter.RealTypeConverters;
 import net.imglib2.img.Img;
@@ -32,6 +34,15 @@ import net.imglib2.loops.LoopBuilder;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.Type;
 import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.ByteType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.LongType;
+import net.imglib2.type.numeric.integer.ShortType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedIntType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.util.Util;
 
 /**
@@ -191,6 +202,79 @@ public final class Tensor< T extends RealType< T > & NativeType< T > >
 		return new Tensor<T>( tensorName, axes, backendData );
 	}
 
+	/**
+	 * Creates a tensor whose memory is borrowed from a {@link TensorPool}. If the pool has a
+	 * free buffer of the same shape, data type and axes order it is reused, so its data
+	 * is not cleared. The tensor should be given back with {@link TensorPool#release(Tensor)}
+	 *
+	 * @param <T>
+	 * 			  the possible ImgLib2 datatypes that the input backend ImgLib2 img can have
+	 * @param tensorName
+	 *            name of the tensor as defined by the model
+	 * @param axes
+	 *            String containing the axes order of the tensor. For example:
+	 *            "bcyx"
+	 * @param shape
+	 * 			  Shape of the tensor
+	 * @param dtype
+	 * 			  data type of the tensor
+	 * @param pool
+	 * 			  pool the memory is borrowed from. If it is null, new memory is allocated
+	 * @return the tensor
+	 */
+	public static  < T extends RealType< T > & NativeType< T > > 
+								Tensor< T > buildBlankTensor( final String tensorName, 
+										final String axes, final long[] shape,
+										final T dtype, final TensorPool pool)
+	{
+		if ( pool == null )
+			return buildBlankTensor( tensorName, axes, shape, dtype );
+		return pool.borrow( tensorName, axes, shape, dtype );
+	}
+
+	/**
+	 * Creates a tensor without data whose ImgLib2 type corresponds to a data type of the rdf.yaml,
+	 * such as "uint8" or "float32". The data types ImgLib2 cannot represent exactly, such as
+	 * "float16", "uint64" or "bool", and unknown data types are created as floats
+	 *
+	 * @param tensorName
+	 *            name of the tensor as defined by the model
+	 * @param axes
+	 *            String containing the axes order of the tensor. For example:
+	 *            "bcyx"
+	 * @param shape
+	 * 			  Shape of the tensor
+	 * @param dataType
+	 * 			  data type of the tensor as defined in the rdf.yaml, it can be null
+	 * @param pool
+	 * 			  pool the memory is borrowed from. If it is null, new memory is allocated
+	 * @return the tensor
+	 */
+	public static Tensor< ? > buildBlankTensor( final String tensorName, final String axes, final long[] shape,
+			final String dataType, final TensorPool pool )
+	{
+		switch ( dataType == null ? "" : dataType.toLowerCase() ) {
+		case "int8":
+			return buildBlankTensor( tensorName, axes, shape, new ByteType(), pool );
+		case "uint8":
+			return buildBlankTensor( tensorName, axes, shape, new UnsignedByteType(), pool );
+		case "int16":
+			return buildBlankTensor( tensorName, axes, shape, new ShortType(), pool );
+		case "uint16":
+			return buildBlankTensor( tensorName, axes, shape, new UnsignedShortType(), pool );
+		case "int32":
+			return buildBlankTensor( tensorName, axes, shape, new IntType(), pool );
+		case "uint32":
+			return buildBlankTensor( tensorName, axes, shape, new UnsignedIntType(), pool );
+		case "int64":
+			return buildBlankTensor( tensorName, axes, shape, new LongType(), pool );
+		case "float64":
+			return buildBlankTensor( tensorName, axes, shape, new DoubleType(), pool );
+		default:
+			return buildBlankTensor( tensorName, axes, shape, new FloatType(), pool );
+		}
+	}
+
 	/**
 	 * Set the data structure of the tensor that contains the numbers. In order
 	 * to change the data of the tensor, first do 'tensor.setData(null)'. Once
@@ -226,8 +310,10 @@ public final class Tensor< T extends RealType< T > & NativeType< T > >
 		if (this.data == null) {
 			this.data = data;
 		} else {
+			InferenceEvent event = InferenceMetrics.beginEvent( InferenceEvent.Kind.TENSOR_COPY ).addData( data );
 			LoopBuilder.setImages( this.data, data )
 				.multiThreaded().forEachPixel( ( i, o ) -> i.set( o ) );
+			event.commit();
 				
 		}
 		
@@ -0,0 +1,195 @@
+/*-
+ * #%L
+ * Use deep learning frameworks from Java in an agnostic and isolated way.
+ * %%
+ * Copyright (C) 2022 - 2023 Institut Pasteur and BioImage.IO developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.bioimage.modelrunner.tensor;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import net.imglib2.FinalDimensions;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Util;
+
+/**
+ * Pool of the data buffers of {@link Tensor}s, so tensors of the same shape, data type and
+ * axes order can be created repeatedly without allocating new memory every time.
+ * Tensors are borrowed from the pool with {@link #borrow(String, String, long[], RealType)} and
+ * given back with {@link #release(Tensor)} once they are not needed anymore. In steady state,
+ * for example when running a model on the frames of a video, no new buffers are allocated.
+ *
+ * The data of a borrowed tensor is not cleared, it might contain the values of a previous use.
+ * The pool is thread safe.
+ *
+ * @author Carlos Garcia Lopez de Haro
+ */
+public class TensorPool
+{
+	/**
+	 * Default maximum number of free buffers kept per shape, data type and axes order
+	 */
+	public static final int DEFAULT_MAX_PER_KEY = 4;
+
+	/**
+	 * Maximum number of free buffers kept per key
+	 */
+	private final int maxPerKey;
+
+	/**
+	 * Free buffers for each key
+	 */
+	private final Map< String, Deque< Img< ? > > > free = new HashMap<>();
+
+	/**
+	 * Buffers currently lent by the pool
+	 */
+	private final Set< Object > borrowed = Collections.newSetFromMap( new IdentityHashMap<>() );
+
+	private TensorPool( final int maxPerKey )
+	{
+		this.maxPerKey = maxPerKey;
+	}
+
+	/**
+	 * Create a pool that keeps up to {@link #DEFAULT_MAX_PER_KEY} free buffers
+	 * per shape, data type and axes order
+	 *
+	 * @return the pool
+	 */
+	public static TensorPool build()
+	{
+		return new TensorPool( DEFAULT_MAX_PER_KEY );
+	}
+
+	/**
+	 * Create a pool that keeps up to the wanted number of free buffers
+	 * per shape, data type and axes order
+	 *
+	 * @param maxPerKey
+	 *            maximum number of free buffers kept per key. Buffers released
+	 *            when the maximum is reached are left to the garbage collector
+	 * @return the pool
+	 */
+	public static TensorPool build( final int maxPerKey )
+	{
+		if ( maxPerKey < 1 )
+			throw new IllegalArgumentException( "The pool should keep at least one buffer per key." );
+		return new TensorPool( maxPerKey );
+	}
+
+	/**
+	 * Get a tensor with the wanted shape, data type and axes order. If the pool has a free
+	 * buffer for them, it is reused, otherwise a new one is allocated.
+	 * The data of the tensor is not cleared.
+	 *
+	 * @param <T>
+	 *            the possible ImgLib2 datatypes that the backend ImgLib2 img can have
+	 * @param tensorName
+	 *            name of the tensor as defined by the model
+	 * @param axes
+	 *            String containing the axes order of the tensor. For example: "bcyx"
+	 * @param shape
+	 *            shape of the tensor
+	 * @param dtype
+	 *            data type of the tensor
+	 * @return the tensor
+	 */
+	@SuppressWarnings( "unchecked" )
+	public < T extends RealType< T > & NativeType< T > > Tensor< T > borrow( final String tensorName,
+			final String axes, final long[] shape, final T dtype )
+	{
+		final String key = getKey( axes, shape, dtype );
+		Img< T > data = null;
+		synchronized ( this )
+		{
+			final Deque< Img< ? > > queue = free.get( key );
+			if ( queue != null && !queue.isEmpty() )
+				data = ( Img< T > ) queue.pop();
+		}
+		if ( data == null )
+			data = Util.getArrayOrCellImgFactory( new FinalDimensions( shape ), dtype ).create( shape );
+		synchronized ( this )
+		{
+			borrowed.add( data );
+		}
+		return Tensor.build( tensorName, axes, data );
+	}
+
+	/**
+	 * Give back to the pool the buffer of a tensor borrowed from it and close the tensor.
+	 * Tensors that were not borrowed from this pool are only closed
+	 *
+	 * @param tensor
+	 *            the tensor that is not needed anymore
+	 */
+	public void release( final Tensor< ? > tensor )
+	{
+		if ( tensor == null || tensor.isClosed() )
+			return;
+		final RandomAccessibleInterval< ? > data = tensor.isEmpty() ? null : tensor.getData();
+		if ( data != null )
+		{
+			final String key = getKey( tensor.getAxesOrderString(), data.dimensionsAsLongArray(),
+					Util.getTypeFromInterval( data ) );
+			synchronized ( this )
+			{
+				if ( borrowed.remove( data ) )
+				{
+					final Deque< Img< ? > > queue = free.computeIfAbsent( key, k -> new ArrayDeque<>() );
+					if ( queue.size() < maxPerKey )
+						queue.push( ( Img< ? > ) data );
+				}
+			}
+		}
+		tensor.close();
+	}
+
+	/**
+	 * Remove every free buffer from the pool. Tensors currently borrowed can still be released
+	 */
+	public synchronized void clear()
+	{
+		free.clear();
+	}
+
+	/**
+	 *
+	 * @return the number of free buffers kept by the pool
+	 */
+	public synchronized int getFreeCount()
+	{
+		int count = 0;
+		for ( final Deque< Img< ? > > queue : free.values() )
+			count += queue.size();
+		return count;
+	}
+
+	private static String getKey( final String axes, final long[] shape, final Object dtype )
+	{
+		return axes.toLowerCase() + Arrays.toString( shape ) + dtype.getClass().getName();
+	}
+}
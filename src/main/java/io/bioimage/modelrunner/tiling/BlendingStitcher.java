@@ -0,0 +1,232 @@
+/*-
+ * #%L
+ * Use deep learning frameworks from Java in an agnostic and isolated way.
+ * %%
+ * Copyright (C) 2022 - 2023 Institut Pasteur and BioImage.IO developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.bioimage.modelrunner.tiling;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.bioimage.modelrunner.tensor.Tensor;
+import net.imglib2.Cursor;
+import net.imglib2.FinalDimensions;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.loops.LoopBuilder;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Util;
+import net.imglib2.view.IntervalView;
+import net.imglib2.view.Views;
+
+/**
+ * Stitches output patches into the full size outputs blending the regions where neighbouring
+ * tiles overlap, instead of cutting the halo of every patch.
+ * Every patch is multiplied by a window that decreases towards its borders and accumulated
+ * in the output, while the window values are accumulated in a weight image of the same size.
+ * Once every tile has been accumulated, {@link #normalize()} divides the outputs by the weights.
+ * As the seams between tiles disappear, the halo needed is smaller than with hard-cut stitching.
+ * The weight images use as much memory as the outputs.
+ *
+ * @author Carlos Garcia Lopez de Haro
+ */
+public class BlendingStitcher
+{
+	/**
+	 * Shape of the window used to weight each patch along every spatial axis
+	 */
+	public enum Window {
+		/**
+		 * The weight decreases linearly from the center of the patch to its borders
+		 */
+		LINEAR,
+		/**
+		 * The weight follows a raised cosine (Hann window), smoother near the borders
+		 */
+		COSINE
+	}
+
+	/**
+	 * Minimum weight of any pixel, so the pixels at the border of the image,
+	 * covered by a single patch, can still be normalized
+	 */
+	private static final float MIN_WEIGHT = 1e-3f;
+	/**
+	 * Window used
+	 */
+	private final Window window;
+	/**
+	 * Full size outputs where the weighted patches are accumulated
+	 */
+	private final List<RandomAccessibleInterval<FloatType>> outputs;
+	/**
+	 * Axes order of each of the outputs
+	 */
+	private final List<String> axes;
+	/**
+	 * Accumulated weight of every pixel of each of the outputs
+	 */
+	private final List<RandomAccessibleInterval<FloatType>> weights;
+	/**
+	 * Window values already calculated for each patch length
+	 */
+	private final Map<Long, float[]> windowCache = new HashMap<Long, float[]>();
+
+	private BlendingStitcher(Window window, List<Tensor<FloatType>> outputTensors,
+			List<RandomAccessibleInterval<FloatType>> weights)
+	{
+		this.window = window;
+		this.outputs = new ArrayList<RandomAccessibleInterval<FloatType>>();
+		this.axes = new ArrayList<String>();
+		this.weights = weights;
+		for (Tensor<FloatType> tt : outputTensors) {
+			outputs.add(tt.getData());
+			axes.add(tt.getAxesOrderString().toLowerCase());
+		}
+	}
+
+	/**
+	 * Create a stitcher that accumulates patches into the output tensors provided.
+	 * The output tensors should be filled with zeros
+	 * @param window
+	 * 	window used to weight the patches
+	 * @param outputTensors
+	 * 	full size output tensors
+	 * @return the stitcher
+	 */
+	public static BlendingStitcher build(Window window, List<Tensor<FloatType>> outputTensors) {
+		List<RandomAccessibleInterval<FloatType>> weights = new ArrayList<RandomAccessibleInterval<FloatType>>();
+		for (Tensor<FloatType> tt : outputTensors) {
+			long[] dims = tt.getData().dimensionsAsLongArray();
+			weights.add(Util.getArrayOrCellImgFactory(new FinalDimensions(dims), new FloatType()).create(dims));
+		}
+		return build(window, outputTensors, weights);
+	}
+
+	/**
+	 * Create a stitcher that accumulates patches into the output tensors provided, storing
+	 * the weights in the images provided. This allows keeping the weights in the same kind of
+	 * storage as the outputs, for example a disk cached image.
+	 * The output tensors and the weight images should be filled with zeros
+	 * @param window
+	 * 	window used to weight the patches
+	 * @param outputTensors
+	 * 	full size output tensors
+	 * @param weights
+	 * 	one image of the same size as each of the outputs
+	 * @return the stitcher
+	 */
+	public static BlendingStitcher build(Window window, List<Tensor<FloatType>> outputTensors,
+			List<RandomAccessibleInterval<FloatType>> weights) {
+		if (window == null)
+			throw new IllegalArgumentException("A blending window is needed.");
+		if (weights.size() != outputTensors.size())
+			throw new IllegalArgumentException("There should be one weight image per output.");
+		return new BlendingStitcher(window, outputTensors, weights);
+	}
+
+	/**
+	 * Add a patch, weighted by the window, to one of the outputs. The parts of the
+	 * patch that fall out of the output are ignored. The window is applied along every
+	 * axis but the channel and batch axes
+	 * @param <T>
+	 * 	the ImgLib2 data type of the patch, the outputs are always floats
+	 * @param outputIndex
+	 * 	index of the output in the list used to build the stitcher
+	 * @param patch
+	 * 	the output patch produced by the model
+	 * @param patchStart
+	 * 	position of the first pixel of the patch in the output, in the output axes order.
+	 * 	It can be negative
+	 */
+	public < T extends RealType< T > > void accumulate(int outputIndex, RandomAccessibleInterval<T> patch, long[] patchStart) {
+		RandomAccessibleInterval<FloatType> output = outputs.get(outputIndex);
+		String outAxes = axes.get(outputIndex);
+		int nDims = output.numDimensions();
+		long[] min = new long[nDims];
+		long[] max = new long[nDims];
+		float[][] axisWeights = new float[nDims][];
+		for (int d = 0; d < nDims; d ++) {
+			min[d] = Math.max(0, patchStart[d]);
+			max[d] = Math.min(output.dimension(d), patchStart[d] + patch.dimension(d)) - 1;
+			if (max[d] < min[d])
+				return;
+			char ax = outAxes.charAt(d);
+			axisWeights[d] = (ax == 'c' || ax == 'b') ? null : getWindow(patch.dimension(d));
+		}
+		IntervalView<T> source = Views.interval(Views.translate(patch, patchStart), min, max);
+		Cursor<T> cursor = source.localizingCursor();
+		RandomAccess<FloatType> outRa = output.randomAccess();
+		RandomAccess<FloatType> weightRa = weights.get(outputIndex).randomAccess();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			float ww = 1;
+			for (int d = 0; d < nDims; d ++) {
+				if (axisWeights[d] != null)
+					ww *= axisWeights[d][(int) (cursor.getLongPosition(d) - patchStart[d])];
+			}
+			outRa.setPosition(cursor);
+			weightRa.setPosition(cursor);
+			FloatType out = outRa.get();
+			out.set(out.get() + ww * cursor.get().getRealFloat());
+			FloatType weight = weightRa.get();
+			weight.set(weight.get() + ww);
+		}
+	}
+
+	/**
+	 * Divide every output by the weights accumulated. Has to be called once all the
+	 * patches have been accumulated
+	 */
+	public void normalize() {
+		for (int i = 0; i < outputs.size(); i ++) {
+			LoopBuilder.setImages( outputs.get(i), weights.get(i) )
+					.multiThreaded()
+					.forEachPixel( (o, w) -> {
+						if (w.get() > 0)
+							o.set(o.get() / w.get());
+					});
+		}
+	}
+
+	/**
+	 * Get the values of the window along an axis of the wanted length
+	 * @param length
+	 * 	length of the patch along the axis
+	 * @return the weight of every position along the axis
+	 */
+	private float[] getWindow(long length) {
+		float[] ww = windowCache.get(length);
+		if (ww != null)
+			return ww;
+		ww = new float[(int) length];
+		double half = Math.ceil(length / 2.0);
+		for (int p = 0; p < length; p ++) {
+			double val;
+			if (window == Window.LINEAR)
+				val = Math.min(p + 1, length - p) / half;
+			else
+				val = 0.5 * (1 - Math.cos(2 * Math.PI * (p + 0.5) / length));
+			ww[p] = (float) Math.max(MIN_WEIGHT, val);
+		}
+		windowCache.put(length, ww);
+		return ww;
+	}
+}
@@ -91,7 +91,8 @@ public final class ImgLib2Utils
 
     /**
      * Takes the {@code INDArray} and adds a mirror on the areas out of the patch (specified by patchStart and patchSize). Boundaries are checked with both
-     * the input and the patch sequences. The result is added to the {@code patchSequence}.</br>
+     * the input and the patch sequences. The result is copied into the {@code patchNDArr}, which
+     * ends up containing the whole patch, both the pixels inside the image and the mirrored ones.</br>
      * 
      * @param inputNDArr
      *        The INDArray the patch was taken from.
@@ -116,8 +117,11 @@ public final class ImgLib2Utils
         long[] paddingFront = LongStream.range(0, patchStart.length)
         						.map(i -> patchStart[(int) i] < 0 ? patchStart[(int) i] * -1 : 0).toArray();
         // TODO check well the padding front and expand mirror parameters
-        patchNDArr = Views.offsetInterval( Views.expandMirrorDouble(inputNDArr, paddingFront), 
-        		patchStart, patchNDArr.dimensionsAsLongArray());
+        IntervalView<T> mirroredPatch = Views.offsetInterval( Views.expandMirrorDouble(inputNDArr, paddingFront),
+        		patchStart, patchSize);
+        LoopBuilder.setImages( mirroredPatch, patchNDArr )
+				.multiThreaded()
+				.forEachPixel( (i, j) -> j.set( i ) );
         /*
         Sequence seq = ImgLib2ToSequence.build(patchNDArr, "yxc");
         seq.setName("mirror_input_path");
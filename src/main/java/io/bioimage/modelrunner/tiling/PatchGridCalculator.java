@@ -45,6 +45,7 @@ public class PatchGridCalculator implements Callable<List<PatchSpec>>
 
     private ModelDescriptor descriptor;
     private Map<String, Object> inputValuesMap;
+    private Map<String, int[]> processingPatches;
 
     /**
      * Class to calculate the patch specifications given a series of inputs
@@ -89,6 +90,19 @@ public class PatchGridCalculator implements Callable<List<PatchSpec>>
     	 return new PatchGridCalculator(model, inputValuesMap);
      }
 
+    /**
+     * Set the patch used for each input tensor instead of the processing patch of its {@link TensorSpec},
+     * so the patches can be selected for every set of images without modifying the specs of the model
+     * @param processingPatches
+     * 	map containing the patch, in the tensor axes order, associated to the name of each input tensor.
+     * 	The tensors that are not in the map use the processing patch of their specs
+     * @return this calculator
+     */
+    public PatchGridCalculator setProcessingPatches(Map<String, int[]> processingPatches) {
+    	this.processingPatches = processingPatches;
+    	return this;
+    }
+
     /**
      * Computes the patch size adapted for the input sequence using the model tensor specification.
      * 
@@ -247,7 +261,10 @@ public class PatchGridCalculator implements Callable<List<PatchSpec>>
     private <T extends Type<T>> PatchSpec computePatchSpecs(TensorSpec inputTensorSpec, RandomAccessibleInterval<T> inputSequence)
     {
     	String processingAxesOrder = "xyczb";
-        int[] inputPatchSize = arrayToWantedAxesOrderAddOnes(inputTensorSpec.getProcessingPatch(),
+        int[] patch = processingPatches == null ? null : processingPatches.get(inputTensorSpec.getName());
+        if (patch == null)
+        	patch = inputTensorSpec.getProcessingPatch();
+        int[] inputPatchSize = arrayToWantedAxesOrderAddOnes(patch,
 				        										inputTensorSpec.getAxesOrder(), 
 				        										processingAxesOrder);
         int[][] paddingSize = new int[2][5];
@@ -0,0 +1,394 @@
+/*-
+ * #%L
+ * Use deep learning frameworks from Java in an agnostic and isolated way.
+ * %%
+ * Copyright (C) 2022 - 2023 Institut Pasteur and BioImage.IO developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.bioimage.modelrunner.tiling;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import io.bioimage.modelrunner.bioimageio.description.ModelDescriptor;
+import io.bioimage.modelrunner.bioimageio.description.ShapeSpec;
+import io.bioimage.modelrunner.bioimageio.description.TensorSpec;
+import io.bioimage.modelrunner.tensor.Tensor;
+import net.imglib2.util.Util;
+
+/**
+ * Selects the patch size of every input tensor of a model, and how many tiles can be processed
+ * at the same time, so the patch buffers fit in a given memory budget.
+ * Among the patch sizes allowed by the rdf.yaml (min + n * step), the biggest one that fits is chosen,
+ * because bigger patches waste less computation on the halo. Several tiles in flight divide the budget
+ * among them, so they are only used while the extra halo computation they cause is tolerable.
+ * The memory of every patch is calculated from the data type it is allocated with: the input patches
+ * have the data type of the input images and the output patches the one defined in the rdf.yaml.
+ * Inputs that are not images are passed entirely to the model, so they do not need any patch.
+ *
+ * @author Carlos Garcia Lopez de Haro
+ */
+public class PatchSizePlanner
+{
+	/**
+	 * Specs of the model
+	 */
+	private final ModelDescriptor descriptor;
+	/**
+	 * Maximum number of bytes that the patch buffers of all the tiles in flight can use
+	 */
+	private final long memoryBudget;
+	/**
+	 * Maximum number of tiles in flight considered
+	 */
+	private int maxTilesInFlight = 3;
+	/**
+	 * Maximum relative increase of processed pixels that is accepted in order to
+	 * process more tiles at the same time
+	 */
+	private double haloOverheadTolerance = 0.1;
+	/**
+	 * Patch size selected for each input tensor, in the tensor axes order
+	 */
+	private Map<String, int[]> patches;
+	/**
+	 * Number of tiles in flight selected
+	 */
+	private int tilesInFlight;
+	/**
+	 * Bytes needed by the patch buffers of a single tile with the selected patches
+	 */
+	private long bytesPerTile;
+	/**
+	 * Bytes per pixel of each input image of the current plan
+	 */
+	private Map<String, Integer> inputBytesPerPixel;
+
+	private PatchSizePlanner(ModelDescriptor descriptor, long memoryBudget)
+	{
+		this.descriptor = descriptor;
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * Create a planner for the model that selects patches fitting the memory budget
+	 * @param descriptor
+	 * 	specs of the model
+	 * @param memoryBudget
+	 * 	maximum number of bytes that the input and output patches of all the tiles
+	 * 	processed at the same time can use
+	 * @return the planner
+	 */
+	public static PatchSizePlanner build(ModelDescriptor descriptor, long memoryBudget) {
+		Objects.requireNonNull(descriptor);
+		if (memoryBudget <= 0)
+			throw new IllegalArgumentException("The memory budget should be a positive number of bytes.");
+		return new PatchSizePlanner(descriptor, memoryBudget);
+	}
+
+	/**
+	 * Set the maximum number of tiles in flight considered. The default is 3
+	 * @param maxTilesInFlight
+	 * 	maximum number of tiles in flight
+	 */
+	public void setMaxTilesInFlight(int maxTilesInFlight) {
+		if (maxTilesInFlight < 1)
+			throw new IllegalArgumentException("The number of tiles in flight should be at least 1.");
+		this.maxTilesInFlight = maxTilesInFlight;
+	}
+
+	/**
+	 * Set how much more pixels (halo included) can be processed in order to have more tiles
+	 * in flight. For example, 0.1 means that having more tiles in flight is only accepted if
+	 * the smaller patches needed do not increase the processed pixels by more than 10%.
+	 * The default is 0.1
+	 * @param haloOverheadTolerance
+	 * 	relative increase of processed pixels tolerated
+	 */
+	public void setHaloOverheadTolerance(double haloOverheadTolerance) {
+		if (haloOverheadTolerance < 0)
+			throw new IllegalArgumentException("The halo overhead tolerance cannot be negative.");
+		this.haloOverheadTolerance = haloOverheadTolerance;
+	}
+
+	/**
+	 * Select the patch of every input image tensor and the number of tiles in flight for the
+	 * inputs provided. The selected patches are not written into the {@link TensorSpec}s of the model,
+	 * they are obtained with {@link #getPatchSize(String)} and can be passed to
+	 * {@link PatchGridCalculator#setProcessingPatches(Map)}. They are all of the form min + n * step
+	 * allowed by the rdf.yaml
+	 * @param inputTensors
+	 * 	the full size input tensors
+	 * @return the number of tiles in flight selected
+	 * @throws IllegalArgumentException if not even the smallest patch allowed fits in the memory budget
+	 * 	or any input tensor is missing
+	 */
+	public int plan(List<Tensor<?>> inputTensors) throws IllegalArgumentException {
+		Map<String, int[]> sizes = new HashMap<String, int[]>();
+		inputBytesPerPixel = new HashMap<String, Integer>();
+		for (TensorSpec spec : descriptor.getInputTensors()) {
+			Tensor<?> tt = Tensor.getTensorByNameFromList(inputTensors, spec.getName());
+			if (tt == null)
+				throw new IllegalArgumentException("Missing input tensor '" + spec.getName() + "'.");
+			sizes.put(spec.getName(), tt.getShape());
+			inputBytesPerPixel.put(spec.getName(), Math.max(1, Util.getTypeFromInterval(tt.getData()).getBitsPerPixel() / 8));
+		}
+		int maxK = 0;
+		while (!allPatchesCapped(sizes, maxK))
+			maxK ++;
+		long minBytes = bytesPerTile(sizes, 0);
+		if (minBytes > memoryBudget)
+			throw new IllegalArgumentException("The smallest patch allowed for the model needs " + minBytes
+					+ " bytes, which is more than the memory budget (" + memoryBudget + " bytes).");
+
+		int[] bestK = new int[maxTilesInFlight + 1];
+		for (int t = 1; t <= maxTilesInFlight; t ++)
+			bestK[t] = largestFittingK(sizes, maxK, memoryBudget / t);
+		long minProcessed = processedPixels(sizes, bestK[1]);
+		tilesInFlight = 1;
+		for (int t = maxTilesInFlight; t > 1; t --) {
+			if (bytesPerTile(sizes, bestK[t]) * t > memoryBudget)
+				continue;
+			if (processedPixels(sizes, bestK[t]) <= (1 + haloOverheadTolerance) * minProcessed) {
+				tilesInFlight = t;
+				break;
+			}
+		}
+		int k = bestK[tilesInFlight];
+		patches = new HashMap<String, int[]>();
+		for (TensorSpec spec : descriptor.getInputTensors()) {
+			if (!spec.isImage())
+				continue;
+			patches.put(spec.getName(), patchAt(spec, sizes.get(spec.getName()), k));
+		}
+		bytesPerTile = bytesPerTile(sizes, k);
+		return tilesInFlight;
+	}
+
+	/**
+	 *
+	 * @param tensorName
+	 * 	name of an input tensor
+	 * @return the patch selected for the input tensor in the tensor axes order or null
+	 * 	if {@link #plan(List)} has not been called
+	 */
+	public int[] getPatchSize(String tensorName) {
+		return patches == null ? null : patches.get(tensorName);
+	}
+
+	/**
+	 *
+	 * @return the number of tiles in flight selected or 0 if {@link #plan(List)} has not been called
+	 */
+	public int getTilesInFlight() {
+		return tilesInFlight;
+	}
+
+	/**
+	 *
+	 * @return the bytes needed by the input and output patches of a single tile with the selected patches
+	 */
+	public long getBytesPerTile() {
+		return bytesPerTile;
+	}
+
+	/**
+	 * Find the biggest patch index whose patches fit in the memory provided
+	 * @param sizes
+	 * 	size of every input image
+	 * @param maxK
+	 * 	patch index at which every patch covers the whole image
+	 * @param bytes
+	 * 	memory available for the patches of one tile
+	 * @return the patch index
+	 */
+	private int largestFittingK(Map<String, int[]> sizes, int maxK, long bytes) {
+		int k = 0;
+		while (k < maxK && bytesPerTile(sizes, k + 1) <= bytes)
+			k ++;
+		return k;
+	}
+
+	/**
+	 * Whether the patch index provided already gives patches that cover the whole image
+	 * for every input
+	 * @param sizes
+	 * 	size of every input image
+	 * @param k
+	 * 	patch index
+	 * @return true if increasing the patch index would not change the patches
+	 */
+	private boolean allPatchesCapped(Map<String, int[]> sizes, int k) {
+		for (TensorSpec spec : descriptor.getInputTensors()) {
+			if (!spec.isImage())
+				continue;
+			int[] size = sizes.get(spec.getName());
+			if (!PatchGridCalculator.compareTwoArrays(patchAt(spec, size, k), patchAt(spec, size, k + 1)))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Patch of an input for a given patch index. Along every axis that can be tiled, the patch is
+	 * the smallest allowed size bigger than twice the halo plus k steps, without exceeding the patch
+	 * that covers the whole image. Along the rest of axes, the patch is fixed
+	 * @param spec
+	 * 	specs of the input tensor
+	 * @param size
+	 * 	size of the input image in the tensor axes order
+	 * @param k
+	 * 	patch index
+	 * @return the patch in the tensor axes order
+	 */
+	private static int[] patchAt(TensorSpec spec, int[] size, int k) {
+		String axes = spec.getAxesOrder().toLowerCase();
+		int[] whole = spec.getOptimalPatchConsiderTiling(size, axes, true);
+		if (!spec.getTiling())
+			return whole;
+		int[] min = spec.getShape().getPatchMinimumSize();
+		int[] step = spec.getShape().getPatchPositionStep();
+		float[] halo = spec.getHalo();
+		int[] patch = new int[axes.length()];
+		for (int i = 0; i < patch.length; i ++) {
+			char ax = axes.charAt(i);
+			if (step[i] == 0 || ax == 'c' || ax == 'b') {
+				patch[i] = whole[i];
+				continue;
+			}
+			int start = min[i];
+			while (start <= 2 * halo[i])
+				start += step[i];
+			patch[i] = Math.min(Math.max(whole[i], start), start + k * step[i]);
+		}
+		return patch;
+	}
+
+	/**
+	 * Bytes needed by the input and output patches of a single tile. The inputs that are not
+	 * images do not count, as they are not copied
+	 * @param sizes
+	 * 	size of every input image
+	 * @param k
+	 * 	patch index
+	 * @return the number of bytes
+	 */
+	private long bytesPerTile(Map<String, int[]> sizes, int k) {
+		Map<String, int[]> inPatches = new HashMap<String, int[]>();
+		long bytes = 0;
+		for (TensorSpec spec : descriptor.getInputTensors()) {
+			int[] size = sizes.get(spec.getName());
+			if (!spec.isImage()) {
+				inPatches.put(spec.getName(), size);
+				continue;
+			}
+			int[] patch = patchAt(spec, size, k);
+			inPatches.put(spec.getName(), patch);
+			bytes += volume(patch) * inputBytesPerPixel.get(spec.getName());
+		}
+		for (TensorSpec spec : descriptor.getOutputTensors())
+			bytes += volume(outputPatch(spec, inPatches)) * getBytesPerPixel(spec.getDataType());
+		return bytes;
+	}
+
+	/**
+	 * Total number of input pixels processed by the model, halo included, to process
+	 * the whole images
+	 * @param sizes
+	 * 	size of every input image
+	 * @param k
+	 * 	patch index
+	 * @return the number of pixels
+	 */
+	private long processedPixels(Map<String, int[]> sizes, int k) {
+		long nTiles = 1;
+		long pixelsPerTile = 0;
+		for (TensorSpec spec : descriptor.getInputTensors()) {
+			if (!spec.isImage())
+				continue;
+			int[] size = sizes.get(spec.getName());
+			int[] patch = patchAt(spec, size, k);
+			float[] halo = spec.getHalo();
+			long tiles = 1;
+			for (int i = 0; i < patch.length; i ++)
+				tiles *= (long) Math.ceil(size[i] / Math.max(1, patch[i] - 2 * (double) halo[i]));
+			nTiles = Math.max(nTiles, tiles);
+			pixelsPerTile += volume(patch);
+		}
+		return nTiles * pixelsPerTile;
+	}
+
+	/**
+	 * Size of the output patch of a tensor calculated from the patch of its reference input
+	 * @param spec
+	 * 	specs of the output tensor
+	 * @param inPatches
+	 * 	patch of each of the inputs
+	 * @return the size of the output patch in the tensor axes order
+	 */
+	private int[] outputPatch(TensorSpec spec, Map<String, int[]> inPatches) {
+		ShapeSpec shape = spec.getShape();
+		if (shape.getReferenceInput() == null)
+			return shape.getPatchRecomendedSize();
+		String axes = spec.getAxesOrder().toLowerCase();
+		String refAxes = descriptor.findInputTensor(shape.getReferenceInput()).getAxesOrder().toLowerCase();
+		int[] refPatch = inPatches.get(shape.getReferenceInput());
+		float[] scale = shape.getScale();
+		float[] offset = shape.getOffset();
+		int[] patch = new int[axes.length()];
+		for (int i = 0; i < patch.length; i ++) {
+			int ind = refAxes.indexOf(axes.charAt(i));
+			int refSize = ind == -1 ? 1 : refPatch[ind];
+			patch[i] = Math.round(refSize * scale[i] + 2 * offset[i]);
+		}
+		return patch;
+	}
+
+	private static long volume(int[] arr) {
+		long vol = 1;
+		for (int aa : arr)
+			vol *= Math.max(1, aa);
+		return vol;
+	}
+
+	/**
+	 * Number of bytes used by each pixel of a patch of a data type as defined in the rdf.yaml.
+	 * It matches the ImgLib2 type the patches are allocated with by Tensor.buildBlankTensor,
+	 * so the data types without an exact ImgLib2 type, such as "bool", "float16" or "uint64",
+	 * and unknown data types use 4 bytes, as they are allocated as floats
+	 * @param dataType
+	 * 	data type of a tensor
+	 * @return the number of bytes per pixel
+	 */
+	public static int getBytesPerPixel(String dataType) {
+		if (dataType == null)
+			return 4;
+		switch (dataType.toLowerCase()) {
+		case "int8":
+		case "uint8":
+			return 1;
+		case "int16":
+		case "uint16":
+			return 2;
+		case "int64":
+		case "float64":
+			return 8;
+		default:
+			return 4;
+		}
+	}
+}
@@ -0,0 +1,1159 @@
+/*-
+ * #%L
+ * Use deep learning frameworks from Java in an agnostic and isolated way.
+ * %%
+ * Copyright (C) 2022 - 2023 Institut Pasteur and BioImage.IO developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.bioimage.modelrunner.tiling;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import io.bioimage.modelrunner.bioimageio.description.ModelDescriptor;
+import io.bioimage.modelrunner.bioimageio.description.ShapeSpec;
+import io.bioimage.modelrunner.bioimageio.description.TensorSpec;
+import io.bioimage.modelrunner.exceptions.RunModelException;
+import io.bioimage.modelrunner.metrics.InferenceMetrics;
+import io.bioimage.modelrunner.metrics.Stage;
+import io.bioimage.modelrunner.model.Model;
+import io.bioimage.modelrunner.tensor.Tensor;
+import io.bioimage.modelrunner.tensor.TensorPool;
+import io.bioimage.modelrunner.transformations.ProcessingPipeline;
+import io.bioimage.modelrunner.utils.Constants;
+import net.imglib2.FinalDimensions;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.cache.img.DiskCachedCellImgFactory;
+import net.imglib2.cache.img.DiskCachedCellImgOptions;
+import net.imglib2.cache.img.DiskCachedCellImgOptions.CacheType;
+import net.imglib2.img.Img;
+import net.imglib2.img.ImgFactory;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+/**
+ * Class that runs a Bioimage.io model on images of any size processing them tile by tile.
+ * The patch grid is calculated with {@link PatchGridCalculator}, then for each tile the
+ * patch (halo included) is extracted from the input images, mirroring where the patch falls out
+ * of the image, the model is run on it and the area of interest of the output patch is written
+ * back into the output images, that are allocated only once.
+ * Only the patch buffers, that are reused for every tile, are allocated apart from the outputs,
+ * so the memory needed to run the model does not depend on the size of the image.
+ * The input images can be lazily loaded or disk cached images, such as a {@link net.imglib2.img.cell.CellImg},
+ * as they are only accessed patch by patch, and the outputs can be written into disk cached images,
+ * so images bigger than the available memory can be processed.
+ * Tiles whose patch is completely inside the image are passed to the model as views of the
+ * input images, so only the tiles at the border of the image are copied and mirrored.
+ * If the model accepts several samples along its batch axis, several tiles can be packed
+ * into the same patch tensors and run with a single call to the model.
+ * The postprocessing defined in the rdf.yaml can also be applied to the outputs, tile by tile
+ * while the model runs on the next tiles whenever it does not depend on statistics of the whole image.
+ * The output patches and the outputs are allocated with the data type defined in the rdf.yaml for each
+ * output, except when the tiles are blended, as the weighted sums need floats. The outputs that are
+ * postprocessed are returned as floats, as every transformation produces floats.
+ *
+ * An instance is not thread safe, as the {@link Model} it wraps is not either.
+ *
+ * @author Carlos Garcia Lopez de Haro
+ */
+public class TiledModelRunner
+{
+	/**
+	 * Model that is going to be run on each of the tiles. It should be already loaded
+	 */
+	private final Model model;
+	/**
+	 * Specs of the model, needed to calculate the tiles
+	 */
+	private final ModelDescriptor descriptor;
+	/**
+	 * Input tensors of the current run
+	 */
+	private List<Tensor<?>> inputTensors;
+	/**
+	 * Patch of each of the input image tensors of the current run, in the tensor axes order.
+	 * They are kept in the runner, so the {@link TensorSpec}s of the model are not modified
+	 */
+	private Map<String, int[]> processingPatches;
+	/**
+	 * Patch specs of each of the input image tensors of the current run
+	 */
+	private List<PatchSpec> patchSpecs;
+	/**
+	 * Number of patches per axis for the current run. Follows the "xyczb" axes order
+	 */
+	private int[] grid;
+	/**
+	 * Maximum number of tiles that are processed at the same time
+	 */
+	private int tilesInFlight = 3;
+	/**
+	 * Maximum number of bytes that the patch buffers can use. If it is 0, the patches are not
+	 * limited by memory
+	 */
+	private long memoryBudget = 0;
+	/**
+	 * Number of tiles packed along the batch axis of the patches on every call to the model
+	 */
+	private int tilesPerBatch = 1;
+	/**
+	 * Window used to blend the overlapping regions of the tiles. If it is null, the halo
+	 * of every output patch is cut
+	 */
+	private BlendingStitcher.Window blendingWindow;
+	/**
+	 * Stitcher used during the current run if the tiles are blended
+	 */
+	private BlendingStitcher blender;
+	/**
+	 * Whether the patches that are completely inside the image are passed to the model as views
+	 * of the input images instead of being copied into the patch buffers
+	 */
+	private boolean useInteriorViews = true;
+	/**
+	 * Directory where the outputs are cached if they are backed by disk. If it is null, the
+	 * outputs are kept in memory
+	 */
+	private Path diskCacheDirectory;
+	/**
+	 * Pool the patch buffers are borrowed from. If it is null, they are allocated on every run
+	 */
+	private TensorPool tensorPool;
+	/**
+	 * Whether the postprocessing of the rdf.yaml is applied to the outputs
+	 */
+	private boolean applyPostprocessing = false;
+	/**
+	 * Postprocessing of each output tensor, in the order defined by the rdf.yaml, during a run
+	 */
+	private List<ProcessingPipeline> postprocessing;
+	/**
+	 * Whether the postprocessing of each output tensor is applied to every output patch before
+	 * stitching it, during a run
+	 */
+	private boolean[] postprocessTiles;
+	/**
+	 * Time that the inference stage waits for a tile before checking whether the other
+	 * stages have failed
+	 */
+	private static final long STAGE_POLL_MILLIS = 100;
+
+	private TiledModelRunner(Model model, ModelDescriptor descriptor)
+	{
+		this.model = model;
+		this.descriptor = descriptor;
+	}
+
+	/**
+	 * Create a runner that processes images tile by tile with the model provided
+	 * @param model
+	 * 	the model that is going to be run. It should be already loaded
+	 * @param descriptor
+	 * 	the specs of the model, read from its rdf.yaml file
+	 * @return the runner
+	 */
+	public static TiledModelRunner build(Model model, ModelDescriptor descriptor) {
+		Objects.requireNonNull(model);
+		Objects.requireNonNull(descriptor);
+		return new TiledModelRunner(model, descriptor);
+	}
+
+	/**
+	 * Create a runner that processes images tile by tile with the model provided.
+	 * The specs of the model are read from the rdf.yaml file in the model folder
+	 * @param model
+	 * 	the model that is going to be run. It should be already loaded
+	 * @return the runner
+	 * @throws Exception if it is not possible to read the rdf.yaml file of the model
+	 */
+	public static TiledModelRunner build(Model model) throws Exception {
+		Objects.requireNonNull(model);
+		ModelDescriptor descriptor =
+				ModelDescriptor.readFromLocalFile(model.getModelFolder() + File.separator + Constants.RDF_FNAME, false);
+		return new TiledModelRunner(model, descriptor);
+	}
+
+	/**
+	 * Run the model on the input tensors tile by tile.
+	 * If the patch size of an input tensor has not been set before with {@link TensorSpec#validate(int[])},
+	 * the optimal patch for the image is used, which is the smallest patch that covers the whole image.
+	 * The patches are selected again on every run, and they are not written into the {@link TensorSpec}s.
+	 * If a memory budget has been set with {@link #setMemoryBudget(long)}, the patches and the number
+	 * of tiles in flight are selected by a {@link PatchSizePlanner} instead.
+	 * Each output has the data type defined in the rdf.yaml, or float if the tiles are blended
+	 * or the output is postprocessed
+	 * @param inputTensors
+	 * 	the full size input tensors. Their names and axes order should be the ones defined
+	 * 	in the rdf.yaml
+	 * @return the full size output tensors, in the order defined by the rdf.yaml
+	 * @throws RunModelException if there is any error running the model on any of the tiles
+	 * @throws Exception if the patch grid cannot be calculated for the inputs
+	 */
+	public List<Tensor<?>> run(List<Tensor<?>> inputTensors) throws RunModelException, Exception {
+		if (tilesPerBatch > 1)
+			validateBatchPacking();
+		int nBuffers = tilesInFlight;
+		PatchSizePlanner planner = null;
+		if (memoryBudget > 0) {
+			planner = PatchSizePlanner.build(descriptor, memoryBudget / tilesPerBatch);
+			planner.setMaxTilesInFlight(tilesInFlight);
+			nBuffers = planner.plan(inputTensors);
+		}
+		setTilingPlan(inputTensors, planner);
+		int nTiles = TilingUtils.getNumberOfTiles(grid);
+		int nBatches = (int) Math.ceil(nTiles / (double) tilesPerBatch);
+		if (nBatches == 1)
+			nBuffers = 1;
+		List<TileBuffer> buffers = new ArrayList<TileBuffer>();
+		blender = null;
+		try {
+			for (int i = 0; i < nBuffers; i ++)
+				buffers.add(createTileBuffer());
+			List<Tensor<?>> outputTensors;
+			if (blendingWindow == null) {
+				outputTensors = createOutputTensors(buffers.get(0).outputPatches, nBuffers);
+			} else {
+				List<Tensor<FloatType>> floatOutputs = createFloatOutputTensors(nBuffers);
+				blender = BlendingStitcher.build(blendingWindow, floatOutputs, createWeightImages(nBuffers));
+				outputTensors = new ArrayList<Tensor<?>>(floatOutputs);
+			}
+			setPostprocessing(outputTensors);
+			if (nBuffers == 1)
+				runSequentially(buffers.get(0), outputTensors, nTiles);
+			else
+				runPipelined(buffers, outputTensors, nTiles);
+			if (blender != null)
+				blender.normalize();
+			postprocessOutputs(outputTensors);
+			return outputTensors;
+		} finally {
+			for (TileBuffer buffer : buffers)
+				closePatches(buffer.inputPatches, buffer.outputPatches);
+			blender = null;
+			postprocessing = null;
+		}
+	}
+
+	/**
+	 * Set the maximum number of tiles that can be processed at the same time. If it is bigger than 1,
+	 * the extraction of the input patches, the inference and the stitching of the output patches
+	 * are run as three overlapping stages: while the model runs on one tile, the next one is
+	 * extracted and the previous one is written into the outputs. Each tile in flight needs its own
+	 * input and output patch buffers. With 3 tiles in flight, every stage can work at the same time.
+	 * The default is 3
+	 * @param tilesInFlight
+	 * 	maximum number of tiles being processed at the same time
+	 */
+	public void setTilesInFlight(int tilesInFlight) {
+		if (tilesInFlight < 1)
+			throw new IllegalArgumentException("The number of tiles in flight should be at least 1.");
+		this.tilesInFlight = tilesInFlight;
+	}
+
+	/**
+	 * 
+	 * @return the maximum number of tiles that can be processed at the same time
+	 */
+	public int getTilesInFlight() {
+		return tilesInFlight;
+	}
+
+	/**
+	 * Limit the memory used by the input and output patches of all the tiles in flight. The patch
+	 * size of every input and the number of tiles in flight (up to {@link #getTilesInFlight()}) are
+	 * then selected at every run with a {@link PatchSizePlanner}, overriding the patches set in the
+	 * {@link TensorSpec}s. Set it to 0 to stop limiting the memory
+	 * @param memoryBudget
+	 * 	maximum number of bytes used by the patch buffers
+	 */
+	public void setMemoryBudget(long memoryBudget) {
+		if (memoryBudget < 0)
+			throw new IllegalArgumentException("The memory budget cannot be negative.");
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * 
+	 * @return the maximum number of bytes used by the patch buffers, 0 if it is not limited
+	 */
+	public long getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	/**
+	 * Set the number of tiles that are packed along the batch axis of the patches and run with
+	 * a single call to the model. Packing several tiles reduces the overhead of calling the engine,
+	 * which dominates for small patches. Every input image and every output of the model need to
+	 * have a batch axis, and the batch size has to be allowed by the rdf.yaml. The default is 1
+	 * @param tilesPerBatch
+	 * 	number of tiles run on every call to the model
+	 */
+	public void setTilesPerBatch(int tilesPerBatch) {
+		if (tilesPerBatch < 1)
+			throw new IllegalArgumentException("The number of tiles per batch should be at least 1.");
+		this.tilesPerBatch = tilesPerBatch;
+	}
+
+	/**
+	 * 
+	 * @return the number of tiles run on every call to the model
+	 */
+	public int getTilesPerBatch() {
+		return tilesPerBatch;
+	}
+
+	/**
+	 * Blend the regions where neighbouring tiles overlap with the wanted window, instead of
+	 * cutting the halo of every output patch. Blending hides the seams between tiles, so the
+	 * halo of the inputs can be reduced with {@link TensorSpec#setTotalHalo(float[])}, reducing
+	 * the number of pixels processed. It needs an extra image of the size of each output
+	 * to store the weights. Set it to null to cut the halo, which is the default
+	 * @param blendingWindow
+	 * 	window used to weight the output patches or null
+	 */
+	public void setBlendingWindow(BlendingStitcher.Window blendingWindow) {
+		this.blendingWindow = blendingWindow;
+	}
+
+	/**
+	 * 
+	 * @return the window used to blend the tiles or null if the halo is cut
+	 */
+	public BlendingStitcher.Window getBlendingWindow() {
+		return blendingWindow;
+	}
+
+	/**
+	 * Set whether the patches of the tiles that are completely inside the image are passed to the
+	 * model as views of the input images, avoiding the copy into the patch buffers. Only the tiles
+	 * that need mirroring are copied. Views are not used when several tiles are packed along the
+	 * batch axis. The default is true
+	 * @param useInteriorViews
+	 * 	whether to use views for the interior tiles
+	 */
+	public void setUseInteriorViews(boolean useInteriorViews) {
+		this.useInteriorViews = useInteriorViews;
+	}
+
+	/**
+	 * 
+	 * @return whether the patches of the interior tiles are passed to the model as views
+	 */
+	public boolean isUseInteriorViews() {
+		return useInteriorViews;
+	}
+
+	/**
+	 * Write the outputs into disk cached images instead of keeping them in memory. The output images
+	 * are divided into cells of the size of the area of interest of a tile, and only the cells of the
+	 * tiles in flight are kept in memory, so the memory used does not depend on the size of the image.
+	 * The cache files are created in a temporary folder inside the directory provided and removed when
+	 * the JVM exits. Set it to null to keep the outputs in memory, which is the default
+	 * @param diskCacheDirectory
+	 * 	directory where the output cache files are created or null
+	 */
+	public void setDiskCacheDirectory(Path diskCacheDirectory) {
+		this.diskCacheDirectory = diskCacheDirectory;
+	}
+
+	/**
+	 * 
+	 * @return the directory where the outputs are cached or null if they are kept in memory
+	 */
+	public Path getDiskCacheDirectory() {
+		return diskCacheDirectory;
+	}
+
+	/**
+	 * Borrow the patch buffers from a pool instead of allocating them on every run. Repeated runs
+	 * on images of the same size then reuse the same buffers. Set it to null to allocate them,
+	 * which is the default
+	 * @param tensorPool
+	 * 	the pool or null
+	 */
+	public void setTensorPool(TensorPool tensorPool) {
+		this.tensorPool = tensorPool;
+	}
+
+	/**
+	 * 
+	 * @return the pool the patch buffers are borrowed from or null if they are allocated
+	 */
+	public TensorPool getTensorPool() {
+		return tensorPool;
+	}
+
+	/**
+	 * Apply the postprocessing defined in the rdf.yaml for each output to the output tensors.
+	 * The transformations that only depend on the value of each pixel, such as "sigmoid" or "binarize",
+	 * are applied to every output patch right before stitching it, so they overlap with the inference of the
+	 * next tiles. If any transformation needs statistics of the whole image, such as "scale_range",
+	 * or the tiles are blended, the postprocessing is applied once the whole output has been stitched.
+	 * The default is false
+	 * @param applyPostprocessing
+	 * 	whether to apply the postprocessing to the outputs
+	 */
+	public void setApplyPostprocessing(boolean applyPostprocessing) {
+		this.applyPostprocessing = applyPostprocessing;
+	}
+
+	/**
+	 * 
+	 * @return whether the postprocessing of the rdf.yaml is applied to the outputs
+	 */
+	public boolean isApplyPostprocessing() {
+		return applyPostprocessing;
+	}
+
+	/**
+	 * Create the postprocessing pipelines of the outputs and decide which of them are applied
+	 * tile by tile. The input tensors of the run are provided to the pipelines, as the outputs are
+	 * usually scaled with the percentiles of the input set as 'reference_tensor'.
+	 * Only the outputs of floats can be postprocessed tile by tile, as the transformations write
+	 * floats and the output patches are overwritten
+	 * @param outputTensors
+	 * 	full size output tensors
+	 */
+	private void setPostprocessing(List<Tensor<?>> outputTensors) {
+		postprocessing = null;
+		if (!applyPostprocessing)
+			return;
+		List<TensorSpec> specs = descriptor.getOutputTensors();
+		postprocessing = new ArrayList<ProcessingPipeline>();
+		postprocessTiles = new boolean[specs.size()];
+		for (int i = 0; i < specs.size(); i ++) {
+			ProcessingPipeline pipeline = ProcessingPipeline.createPostprocessing(specs.get(i));
+			pipeline.setReferenceTensors(inputTensors);
+			postprocessing.add(pipeline);
+			postprocessTiles[i] = blender == null && !pipeline.isEmpty()
+					&& outputTensors.get(i).getDataType() instanceof FloatType
+					&& pipeline.isPixelwise(specs.get(i).getAxesOrder());
+		}
+	}
+
+	/**
+	 * Apply to the full size outputs the postprocessing that was not applied tile by tile.
+	 * The outputs that are not floats are replaced by a new tensor with the result, of floats
+	 * unless it can keep a narrower type, see {@link ProcessingPipeline#applyToOutputWithNarrowType(Tensor)}
+	 * @param outputTensors
+	 * 	full size output tensors
+	 */
+	private void postprocessOutputs(List<Tensor<?>> outputTensors) {
+		if (postprocessing == null)
+			return;
+		for (int i = 0; i < outputTensors.size(); i ++) {
+			if (postprocessTiles[i] || postprocessing.get(i).isEmpty())
+				continue;
+			Tensor<?> output = outputTensors.get(i);
+			Tensor<?> result = postprocessing.get(i).applyToOutputWithNarrowType(output);
+			if (result != output) {
+				output.close();
+				outputTensors.set(i, result);
+			}
+		}
+	}
+
+	/**
+	 * Check that the model can process {@link #tilesPerBatch} tiles at once along its batch axis
+	 * @throws IllegalArgumentException if any tensor lacks a batch axis or the batch size is not
+	 * 	allowed by the rdf.yaml
+	 */
+	private void validateBatchPacking() {
+		for (TensorSpec spec : descriptor.getInputTensors()) {
+			if (!spec.isImage())
+				continue;
+			int bInd = spec.getAxesOrder().toLowerCase().indexOf("b");
+			if (bInd == -1)
+				throw new IllegalArgumentException("Input tensor '" + spec.getName() + "' does not have a batch "
+						+ "axis, so several tiles cannot be packed into it.");
+			int min = spec.getShape().getPatchMinimumSize()[bInd];
+			int step = spec.getShape().getPatchPositionStep()[bInd];
+			if (tilesPerBatch < min || (step == 0 && tilesPerBatch != min)
+					|| (step != 0 && (tilesPerBatch - min) % step != 0))
+				throw new IllegalArgumentException("Input tensor '" + spec.getName() + "' does not accept a batch size of "
+						+ tilesPerBatch + " (min: " + min + ", step: " + step + ").");
+		}
+		for (TensorSpec spec : descriptor.getOutputTensors()) {
+			if (spec.getAxesOrder().toLowerCase().indexOf("b") == -1 || spec.getShape().getReferenceInput() == null)
+				throw new IllegalArgumentException("Output tensor '" + spec.getName() + "' does not have a batch "
+						+ "axis that depends on the inputs, so several tiles cannot be packed into it.");
+		}
+	}
+
+	/**
+	 * Extract, run and stitch every tile one after the other, using a single set of patch buffers
+	 * @param buffer
+	 * 	the patch buffers
+	 * @param outputTensors
+	 * 	full size output tensors
+	 * @param nTiles
+	 * 	number of tiles
+	 * @throws RunModelException if there is any error running the model on any of the tiles
+	 * @throws Exception if there is any other error processing the tiles
+	 */
+	private void runSequentially(TileBuffer buffer, List<Tensor<?>> outputTensors, int nTiles)
+			throws RunModelException, Exception {
+		for (int i = 0; i < nTiles; i += tilesPerBatch) {
+			extractBatch(buffer, i, nTiles);
+			model.runModel(buffer.modelInputs, buffer.outputPatches);
+			stitchBatch(buffer, outputTensors);
+		}
+	}
+
+	/**
+	 * Run the extraction, inference and stitching of the tiles as three stages connected
+	 * by bounded queues. The extraction and stitching run on their own threads while the model
+	 * is run on the calling thread, as the engine ClassLoader is set on it.
+	 * The number of patch buffers, and thus the memory used, is limited by the number of tiles in flight.
+	 * If tiles are packed along the batch axis, each patch buffer holds a whole batch
+	 * @param buffers
+	 * 	the patch buffers, one per tile (or batch of tiles) in flight
+	 * @param outputTensors
+	 * 	full size output tensors
+	 * @param nTiles
+	 * 	number of tiles
+	 * @throws RunModelException if there is any error running the model on any of the tiles
+	 * @throws Exception if there is any other error processing the tiles
+	 */
+	private void runPipelined(List<TileBuffer> buffers, List<Tensor<?>> outputTensors, int nTiles)
+			throws RunModelException, Exception {
+		BlockingQueue<TileBuffer> free = new ArrayBlockingQueue<TileBuffer>(buffers.size(), false, buffers);
+		BlockingQueue<TileBuffer> extracted = new ArrayBlockingQueue<TileBuffer>(buffers.size());
+		BlockingQueue<TileBuffer> inferred = new ArrayBlockingQueue<TileBuffer>(buffers.size());
+		ExecutorService executor = Executors.newFixedThreadPool(2, r -> new Thread(r, "tiling-" + descriptor.getName()));
+		try {
+			Future<?> extractor = executor.submit(() -> {
+				for (int i = 0; i < nTiles; i += tilesPerBatch) {
+					TileBuffer buffer = free.take();
+					extractBatch(buffer, i, nTiles);
+					extracted.put(buffer);
+				}
+				return null;
+			});
+			Future<?> stitcher = executor.submit(() -> {
+				for (int i = 0; i < nTiles; i += tilesPerBatch) {
+					TileBuffer buffer = inferred.take();
+					stitchBatch(buffer, outputTensors);
+					free.put(buffer);
+				}
+				return null;
+			});
+			for (int i = 0; i < nTiles; i += tilesPerBatch) {
+				TileBuffer buffer = takeFromStage(extracted, extractor, stitcher);
+				model.runModel(buffer.modelInputs, buffer.outputPatches);
+				inferred.put(buffer);
+			}
+			stitcher.get();
+		} catch (ExecutionException ex) {
+			if (ex.getCause() instanceof Exception)
+				throw (Exception) ex.getCause();
+			throw ex;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Take the next tile produced by the previous stage. While waiting, check that no stage
+	 * has failed, otherwise the pipeline would block forever
+	 * @param queue
+	 * 	queue where the previous stage leaves the tiles
+	 * @param stages
+	 * 	the stages running on other threads
+	 * @return the next tile
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 * @throws ExecutionException if any of the stages has failed
+	 */
+	private static TileBuffer takeFromStage(BlockingQueue<TileBuffer> queue, Future<?>... stages)
+			throws InterruptedException, ExecutionException {
+		while (true) {
+			TileBuffer buffer = queue.poll(STAGE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+			if (buffer != null)
+				return buffer;
+			for (Future<?> stage : stages) {
+				if (stage.isDone())
+					stage.get();
+			}
+		}
+	}
+
+	/**
+	 * Allocate the input and output patch buffers needed to process one tile
+	 * @return the patch buffers
+	 */
+	private TileBuffer createTileBuffer() {
+		TileBuffer buffer = new TileBuffer();
+		buffer.inputPatches = createInputPatches();
+		buffer.modelInputs = new ArrayList<Tensor<?>>(buffer.inputPatches);
+		buffer.outputPatches = createOutputPatches();
+		return buffer;
+	}
+
+	/**
+	 * Calculate the patch grid for the inputs provided
+	 * @param inputTensors
+	 * 	the full size input tensors
+	 * @param planner
+	 * 	planner that has selected the patches for the memory budget, or null if there is no budget
+	 * @throws Exception if the patch grid cannot be calculated for the inputs
+	 */
+	private void setTilingPlan(List<Tensor<?>> inputTensors, PatchSizePlanner planner) throws Exception {
+		this.inputTensors = inputTensors;
+		setProcessingPatches(planner);
+		Map<String, Object> inputMap = new LinkedHashMap<String, Object>();
+		for (Tensor<?> tt : inputTensors)
+			inputMap.put(tt.getName(), tt);
+		patchSpecs = PatchGridCalculator.build(descriptor, inputMap).setProcessingPatches(processingPatches).call();
+		grid = PatchSpec.getGridSize(patchSpecs);
+		if (TilingUtils.getNumberOfTiles(grid) > 1) {
+			for (TensorSpec out : descriptor.getOutputTensors()) {
+				if (out.getShape().getReferenceInput() == null)
+					throw new IllegalArgumentException("Output tensor '" + out.getName() + "' has a fixed shape "
+							+ "that does not depend on any input, so it cannot be reconstructed from several tiles. "
+							+ "Please select a patch size that covers the whole image.");
+			}
+		}
+	}
+
+	/**
+	 * Select the patch of every input image tensor for the current run: the patch selected by the
+	 * planner if there is a memory budget, the patch set in its {@link TensorSpec}, or the optimal
+	 * patch for the image if none has been set
+	 * @param planner
+	 * 	planner that has selected the patches for the memory budget, or null if there is no budget
+	 */
+	private void setProcessingPatches(PatchSizePlanner planner) {
+		processingPatches = new HashMap<String, int[]>();
+		for (TensorSpec spec : descriptor.getInputTensors()) {
+			if (!spec.isImage())
+				continue;
+			Tensor<?> tt = Tensor.getTensorByNameFromList(inputTensors, spec.getName());
+			if (tt == null)
+				continue;
+			int[] patch = planner == null ? spec.getProcessingPatch() : planner.getPatchSize(spec.getName());
+			if (patch == null)
+				patch = spec.getOptimalPatchConsiderTiling(tt.getShape(), tt.getAxesOrderString(), true);
+			processingPatches.put(spec.getName(), patch);
+		}
+	}
+
+	/**
+	 * Copy the patches of the next batch of tiles into the input patch tensors of a buffer,
+	 * one tile per position of the batch axis. If there are less tiles left than positions,
+	 * the positions left keep the previous data and their results are ignored
+	 * @param buffer
+	 * 	the patch buffers where the tiles are copied
+	 * @param firstTile
+	 * 	flat index of the first tile of the batch
+	 * @param nTiles
+	 * 	total number of tiles
+	 */
+	private void extractBatch(TileBuffer buffer, int firstTile, int nTiles) {
+		long start = InferenceMetrics.start();
+		int n = Math.min(tilesPerBatch, nTiles - firstTile);
+		buffer.gridPositions = new int[n][];
+		for (int j = 0; j < n; j ++) {
+			buffer.gridPositions[j] = TilingUtils.getGridPosition(firstTile + j, grid);
+			extractTile(buffer.gridPositions[j], buffer, j);
+		}
+		InferenceMetrics.stop(Stage.TILE_EXTRACT, start);
+		InferenceMetrics.increment(InferenceMetrics.TILES_COUNTER, n);
+	}
+
+	/**
+	 * Write the output patches of every tile of a buffer into the full size output tensors,
+	 * applying first the postprocessing that can be applied tile by tile
+	 * @param buffer
+	 * 	the patch buffers, already filled by the model
+	 * @param outputTensors
+	 * 	full size output tensors
+	 */
+	private void stitchBatch(TileBuffer buffer, List<Tensor<?>> outputTensors) {
+		if (postprocessing != null) {
+			for (int i = 0; i < buffer.outputPatches.size(); i ++) {
+				if (postprocessTiles[i])
+					postprocessing.get(i).applyToOutput(buffer.outputPatches.get(i));
+			}
+		}
+		long start = InferenceMetrics.start();
+		for (int j = 0; j < buffer.gridPositions.length; j ++)
+			stitchTile(buffer.gridPositions[j], buffer.outputPatches, outputTensors, j);
+		InferenceMetrics.stop(Stage.TILE_STITCH, start);
+	}
+
+	/**
+	 * Prepare the inputs of the model for the tile at the wanted grid position. If the patch of an
+	 * input is completely inside the image, a view of the image is used, otherwise the patch is
+	 * copied, mirroring where needed, into the input patch tensor.
+	 * Input tensors that are not images are passed entirely
+	 * @param gridPosition
+	 * 	position of the tile in the patch grid
+	 * @param buffer
+	 * 	patch buffers of the tile, whose model inputs are updated
+	 * @param slot
+	 * 	position along the batch axis of the patches where the tile is copied
+	 */
+	private void extractTile(int[] gridPosition, TileBuffer buffer, int slot) {
+		for (int i = 0; i < buffer.inputPatches.size(); i ++) {
+			Tensor<?> patch = buffer.inputPatches.get(i);
+			PatchSpec spec = PatchSpec.getPatchSpecFromListByName(patchSpecs, patch.getName());
+			if (spec == null)
+				continue;
+			Tensor<?> image = Tensor.getTensorByNameFromList(inputTensors, patch.getName());
+			int[] imageSize = toProcessingAxesOrder(image.getShape(), image.getAxesOrderString());
+			if (useInteriorViews && tilesPerBatch == 1 && TilingUtils.isInteriorTile(spec, imageSize, gridPosition)) {
+				buffer.modelInputs.set(i, createPatchView(image, spec, gridPosition));
+				continue;
+			}
+			RandomAccessibleInterval<?> slotData = getBatchSlot(patch.getData(), patch.getAxesOrderString(), slot);
+			fillPatch(image, slotData, spec, gridPosition);
+			InferenceMetrics.recordBytes(Stage.TILE_EXTRACT, slotData);
+			buffer.modelInputs.set(i, patch);
+		}
+	}
+
+	/**
+	 * Create a tensor whose data is a view of the patch of the tile at the wanted grid
+	 * position. The patch has to be completely inside the image
+	 * @param <T>
+	 * 	the ImgLib2 data type of the image
+	 * @param image
+	 * 	the full size image tensor
+	 * @param spec
+	 * 	the patch specs of the tensor
+	 * @param gridPosition
+	 * 	position of the tile in the patch grid
+	 * @return a tensor that shares the data with the image
+	 */
+	private static < T extends RealType< T > & NativeType< T > > Tensor<T> createPatchView(Tensor<T> image,
+			PatchSpec spec, int[] gridPosition) {
+		String axes = image.getAxesOrderString();
+		int[] imageSize = toProcessingAxesOrder(image.getShape(), axes);
+		long[] patchStart = toLongArray(TilingUtils.toTensorAxesOrder(
+				TilingUtils.getPatchStart(spec, imageSize, gridPosition), axes, new int[axes.length()]));
+		long[] patchSize = toLongArray(TilingUtils.toTensorAxesOrder(spec.getPatchInputSize(), axes, image.getShape()));
+		return Tensor.build(image.getName(), axes, Views.offsetInterval(image.getData(), patchStart, patchSize));
+	}
+
+	/**
+	 * Get the part of a patch tensor that corresponds to one of the tiles packed along its batch axis
+	 * @param <T>
+	 * 	the ImgLib2 data type of the patch
+	 * @param patch
+	 * 	the patch data
+	 * @param axes
+	 * 	the axes order of the patch
+	 * @param slot
+	 * 	position of the tile in the batch
+	 * @return a view of the patch containing only the wanted tile
+	 */
+	private < T extends RealType< T > & NativeType< T > > RandomAccessibleInterval<T> getBatchSlot(
+			RandomAccessibleInterval<T> patch, String axes, int slot) {
+		int bInd = axes.toLowerCase().indexOf("b");
+		if (tilesPerBatch == 1 || bInd == -1)
+			return patch;
+		long[] offset = new long[patch.numDimensions()];
+		long[] dims = patch.dimensionsAsLongArray();
+		dims[bInd] = dims[bInd] / tilesPerBatch;
+		offset[bInd] = slot * dims[bInd];
+		return Views.offsetInterval(patch, offset, dims);
+	}
+
+	/**
+	 * Copy the patch of the tile at the wanted grid position from an image into a patch tensor
+	 * @param <T>
+	 * 	the ImgLib2 data type of the image
+	 * @param image
+	 * 	the full size image tensor
+	 * @param patch
+	 * 	the patch data, of the same data type as the image
+	 * @param spec
+	 * 	the patch specs of the tensor
+	 * @param gridPosition
+	 * 	position of the tile in the patch grid
+	 */
+	@SuppressWarnings("unchecked")
+	private static < T extends RealType< T > & NativeType< T > > void fillPatch(Tensor<T> image,
+			RandomAccessibleInterval<?> patch, PatchSpec spec, int[] gridPosition) {
+		String axes = image.getAxesOrderString();
+		int[] imageSize = toProcessingAxesOrder(image.getShape(), axes);
+		int[] patchStart = TilingUtils.toTensorAxesOrder(
+				TilingUtils.getPatchStart(spec, imageSize, gridPosition), axes, new int[axes.length()]);
+		int[][] padding = new int[2][];
+		padding[0] = TilingUtils.toTensorAxesOrder(spec.getPatchPaddingSize()[0], axes, new int[axes.length()]);
+		padding[1] = TilingUtils.toTensorAxesOrder(spec.getPatchPaddingSize()[1], axes, new int[axes.length()]);
+		ImgLib2Utils.addMirrorToPatchRai(image.getData(), (RandomAccessibleInterval<T>) patch,
+				patchStart, padding);
+	}
+
+	/**
+	 * Write the area of interest of the output patches of the tile at the wanted grid position
+	 * into the full size output tensors
+	 * @param gridPosition
+	 * 	position of the tile in the patch grid
+	 * @param outputPatches
+	 * 	output patch tensors, already filled by the model
+	 * @param outputTensors
+	 * 	full size output tensors
+	 * @param slot
+	 * 	position along the batch axis of the output patches where the tile is
+	 */
+	private void stitchTile(int[] gridPosition, List<Tensor<?>> outputPatches, List<Tensor<?>> outputTensors, int slot) {
+		for (int i = 0; i < outputTensors.size(); i ++) {
+			TensorSpec spec = descriptor.getOutputTensors().get(i);
+			int[][] geometry = getOutputTileGeometry(spec, gridPosition);
+			stitchOutputTile(i, outputPatches.get(i), outputTensors.get(i), geometry, slot);
+		}
+	}
+
+	/**
+	 * Write the area of interest of one output patch into its full size output tensor, or
+	 * accumulate the whole patch if the tiles are blended
+	 * @param <T>
+	 * 	the ImgLib2 data type of the output patch
+	 * @param outputIndex
+	 * 	index of the output in the order defined by the rdf.yaml
+	 * @param patch
+	 * 	output patch tensor, already filled by the model
+	 * @param output
+	 * 	full size output tensor
+	 * @param geometry
+	 * 	location of the tile in the output, as calculated by {@link #getOutputTileGeometry(TensorSpec, int[])}
+	 * @param slot
+	 * 	position along the batch axis of the output patch where the tile is
+	 */
+	private < T extends RealType< T > & NativeType< T > > void stitchOutputTile(int outputIndex, Tensor<T> patch,
+			Tensor<?> output, int[][] geometry, int slot) {
+		RandomAccessibleInterval<T> tile = getBatchSlot(patch.getData(), patch.getAxesOrderString(), slot);
+		InferenceMetrics.recordBytes(Stage.TILE_STITCH, tile);
+		if (blender != null) {
+			long[] patchStart = new long[geometry[2].length];
+			for (int j = 0; j < patchStart.length; j ++)
+				patchStart[j] = geometry[2][j] - geometry[3][j];
+			blender.accumulate(outputIndex, tile, patchStart);
+			return;
+		}
+		T type = Util.getTypeFromInterval(tile);
+		ImgLib2Utils.fillRaiAt(getDataOfType(output, type), tile, geometry[2], geometry[3], geometry[4]);
+	}
+
+	/**
+	 * Get the data of a tensor checking that it has the wanted data type
+	 * @param <T>
+	 * 	the wanted ImgLib2 data type
+	 * @param tensor
+	 * 	the tensor
+	 * @param type
+	 * 	an instance of the wanted data type
+	 * @return the data of the tensor
+	 * @throws IllegalStateException if the tensor has another data type, for example because the
+	 * 	output patch was replaced by the engine
+	 */
+	@SuppressWarnings("unchecked")
+	private static < T extends RealType< T > & NativeType< T > > RandomAccessibleInterval<T> getDataOfType(
+			Tensor<?> tensor, T type) {
+		Object tensorType = tensor.getDataType();
+		if (tensorType.getClass() != type.getClass())
+			throw new IllegalStateException("The output patch of '" + tensor.getName() + "' is of type "
+					+ type.getClass().getSimpleName() + " but the output is of type "
+					+ tensorType.getClass().getSimpleName() + ".");
+		return (RandomAccessibleInterval<T>) tensor.getData();
+	}
+
+	/**
+	 * Calculate where the tile at the wanted grid position is located in an output tensor.
+	 * The output tile is calculated from the tile of the reference input with the scale
+	 * and offset defined in the rdf.yaml. Tiling never happens along the channels axis,
+	 * so along it the output patch is written entirely.
+	 * @param spec
+	 * 	specs of the output tensor
+	 * @param gridPosition
+	 * 	position of the tile in the patch grid
+	 * @return an array containing in the output tensor axes order: the full size of the output
+	 * 	image, the size of the output patch, the position in the output image where the area of
+	 * 	interest starts, the position in the output patch where the area of interest starts
+	 * 	and the size of the area of interest
+	 */
+	private int[][] getOutputTileGeometry(TensorSpec spec, int[] gridPosition) {
+		String axes = spec.getAxesOrder().toLowerCase();
+		ShapeSpec shape = spec.getShape();
+		if (shape.getReferenceInput() == null) {
+			int[] size = shape.getPatchRecomendedSize();
+			return new int[][] {size, size, new int[size.length], new int[size.length], size};
+		}
+		Tensor<?> ref = Tensor.getTensorByNameFromList(inputTensors, shape.getReferenceInput());
+		PatchSpec refSpec = PatchSpec.getPatchSpecFromListByName(patchSpecs, shape.getReferenceInput());
+		String refAxes = ref.getAxesOrderString().toLowerCase();
+		int[] refSize = ref.getShape();
+		int[] refSizeProc = toProcessingAxesOrder(refSize, refAxes);
+		int[] refPatch = TilingUtils.toTensorAxesOrder(refSpec.getPatchInputSize(), refAxes, refSize);
+		int[] refPad = TilingUtils.toTensorAxesOrder(refSpec.getPatchPaddingSize()[0], refAxes, new int[refAxes.length()]);
+		int[] refAoi = TilingUtils.toTensorAxesOrder(TilingUtils.getAreaOfInterestSize(refSpec), refAxes, refSize);
+		int[] refStart = TilingUtils.toTensorAxesOrder(TilingUtils.getTileStart(refSpec, refSizeProc, gridPosition),
+				refAxes, new int[refAxes.length()]);
+
+		int[][] geometry = new int[5][axes.length()];
+		for (int i = 0; i < axes.length(); i ++) {
+			double scale = shape.getScale()[i];
+			double offset = shape.getOffset()[i];
+			int refInd = refAxes.indexOf(axes.charAt(i));
+			boolean tiled = refInd != -1 && axes.charAt(i) != 'c';
+			int refPatchSize = refInd == -1 ? 1 : refPatch[refInd];
+			geometry[1][i] = (int) Math.round(refPatchSize * scale + 2 * offset);
+			if (tiled) {
+				geometry[0][i] = (int) Math.round(refSize[refInd] * scale);
+				geometry[2][i] = (int) Math.round(refStart[refInd] * scale);
+				geometry[3][i] = (int) Math.round(refPad[refInd] * scale + offset);
+				geometry[4][i] = (int) Math.round(refAoi[refInd] * scale);
+			} else {
+				geometry[0][i] = geometry[1][i];
+				geometry[4][i] = geometry[1][i];
+			}
+		}
+		return geometry;
+	}
+
+	/**
+	 * Allocate the full size output tensors, with the same data type as the output patches
+	 * @param outputPatches
+	 * 	the output patch tensors, in the order defined by the rdf.yaml
+	 * @param nBuffers
+	 * 	number of tiles (or batches of tiles) in flight
+	 * @return the output tensors, in the order defined by the rdf.yaml
+	 */
+	private List<Tensor<?>> createOutputTensors(List<Tensor<?>> outputPatches, int nBuffers) {
+		List<TensorSpec> specs = descriptor.getOutputTensors();
+		List<Tensor<?>> outputs = new ArrayList<Tensor<?>>();
+		for (int i = 0; i < specs.size(); i ++)
+			outputs.add(createOutputTensor(specs.get(i), outputPatches.get(i), nBuffers));
+		return outputs;
+	}
+
+	/**
+	 * Allocate a full size output tensor with the same data type as its output patch
+	 * @param <T>
+	 * 	the ImgLib2 data type of the output patch
+	 * @param spec
+	 * 	specs of the output tensor
+	 * @param patch
+	 * 	the output patch tensor
+	 * @param nBuffers
+	 * 	number of tiles (or batches of tiles) in flight
+	 * @return the output tensor
+	 */
+	private < T extends RealType< T > & NativeType< T > > Tensor<T> createOutputTensor(TensorSpec spec,
+			Tensor<T> patch, int nBuffers) {
+		T type = Util.getTypeFromInterval(patch.getData()).createVariable();
+		return Tensor.build(spec.getName(), spec.getAxesOrder(), createOutputImg(spec, nBuffers, type));
+	}
+
+	/**
+	 * Allocate the full size output tensors as floats, needed to blend the tiles
+	 * @param nBuffers
+	 * 	number of tiles (or batches of tiles) in flight
+	 * @return the output tensors, in the order defined by the rdf.yaml
+	 */
+	private List<Tensor<FloatType>> createFloatOutputTensors(int nBuffers) {
+		List<Tensor<FloatType>> outputs = new ArrayList<Tensor<FloatType>>();
+		for (TensorSpec spec : descriptor.getOutputTensors())
+			outputs.add(Tensor.build(spec.getName(), spec.getAxesOrder(), createOutputImg(spec, nBuffers, new FloatType())));
+		return outputs;
+	}
+
+	/**
+	 * Allocate an image of the size of each of the outputs to store the blending weights
+	 * @param nBuffers
+	 * 	number of tiles (or batches of tiles) in flight
+	 * @return the weight images, in the order defined by the rdf.yaml
+	 */
+	private List<RandomAccessibleInterval<FloatType>> createWeightImages(int nBuffers) {
+		List<RandomAccessibleInterval<FloatType>> weights = new ArrayList<RandomAccessibleInterval<FloatType>>();
+		for (TensorSpec spec : descriptor.getOutputTensors())
+			weights.add(createOutputImg(spec, nBuffers, new FloatType()));
+		return weights;
+	}
+
+	/**
+	 * Allocate a full size image for an output. If the outputs are backed by disk, the image is
+	 * divided in cells of the size of the area of interest of a tile, and the number of cells kept
+	 * in memory is limited to the ones the tiles in flight can touch
+	 * @param <T>
+	 * 	the ImgLib2 data type of the image
+	 * @param spec
+	 * 	specs of the output tensor
+	 * @param nBuffers
+	 * 	number of tiles (or batches of tiles) in flight
+	 * @param type
+	 * 	an instance of the data type of the image
+	 * @return the image
+	 */
+	private < T extends NativeType< T > > Img<T> createOutputImg(TensorSpec spec, int nBuffers, T type) {
+		int[][] geometry = getOutputTileGeometry(spec, new int[grid.length]);
+		long[] dims = toLongArray(geometry[0]);
+		if (diskCacheDirectory == null) {
+			final ImgFactory< T > factory =
+					Util.getArrayOrCellImgFactory( new FinalDimensions( dims ), type );
+			return factory.create( dims );
+		}
+		int[] cellDims = new int[dims.length];
+		for (int i = 0; i < dims.length; i ++)
+			cellDims[i] = Math.max(1, geometry[4][i]);
+		// A tile that is not aligned with the cells touches up to 2 cells per axis
+		long maxCells = (long) (nBuffers * tilesPerBatch + 1) << dims.length;
+		DiskCachedCellImgOptions options = DiskCachedCellImgOptions.options()
+				.cellDimensions(cellDims)
+				.cacheType(CacheType.BOUNDED)
+				.maxCacheSize(maxCells)
+				.tempDirectory(diskCacheDirectory)
+				.deleteCacheDirectoryOnExit(true);
+		return new DiskCachedCellImgFactory<T>(type, options).create(dims);
+	}
+
+	/**
+	 * Allocate the input patch tensors, that are reused for every tile.
+	 * Input tensors that are not images are passed entirely
+	 * @return the input patch tensors, in the order defined by the rdf.yaml
+	 */
+	private List<Tensor<?>> createInputPatches() {
+		List<Tensor<?>> patches = new ArrayList<Tensor<?>>();
+		for (TensorSpec spec : descriptor.getInputTensors()) {
+			Tensor<?> image = Tensor.getTensorByNameFromList(inputTensors, spec.getName());
+			PatchSpec patchSpec = PatchSpec.getPatchSpecFromListByName(patchSpecs, spec.getName());
+			if (patchSpec == null)
+				patches.add(image);
+			else
+				patches.add(createPatch(image, patchSpec));
+		}
+		return patches;
+	}
+
+	/**
+	 * Allocate a patch tensor with the same data type, name and axes order as the image
+	 * @param <T>
+	 * 	the ImgLib2 data type of the image
+	 * @param image
+	 * 	the full size image tensor
+	 * @param spec
+	 * 	the patch specs of the tensor
+	 * @return the patch tensor, with room for {@link #tilesPerBatch} tiles along the batch axis
+	 */
+	private < T extends RealType< T > & NativeType< T > > Tensor<T> createPatch(Tensor<T> image, PatchSpec spec) {
+		String axes = image.getAxesOrderString();
+		int[] patchSize = TilingUtils.toTensorAxesOrder(spec.getPatchInputSize(), axes, image.getShape());
+		int bInd = axes.toLowerCase().indexOf("b");
+		if (bInd != -1)
+			patchSize[bInd] *= tilesPerBatch;
+		return Tensor.buildBlankTensor(image.getName(), axes, toLongArray(patchSize),
+				Util.getTypeFromInterval(image.getData()).createVariable(), tensorPool);
+	}
+
+	/**
+	 * Allocate the output patch tensors, that are reused for every tile, with room for
+	 * {@link #tilesPerBatch} tiles along the batch axis. Each patch has the data type defined
+	 * in the rdf.yaml for its output, as the engines fill them with the data type of the model
+	 * @return the output patch tensors, in the order defined by the rdf.yaml
+	 */
+	private List<Tensor<?>> createOutputPatches() {
+		List<Tensor<?>> patches = new ArrayList<Tensor<?>>();
+		int[] origin = new int[grid.length];
+		for (TensorSpec spec : descriptor.getOutputTensors()) {
+			long[] dims = toLongArray(getOutputTileGeometry(spec, origin)[1]);
+			int bInd = spec.getAxesOrder().toLowerCase().indexOf("b");
+			if (bInd != -1)
+				dims[bInd] *= tilesPerBatch;
+			patches.add(Tensor.buildBlankTensor(spec.getName(), spec.getAxesOrder(), dims, spec.getDataType(), tensorPool));
+		}
+		return patches;
+	}
+
+	/**
+	 * Close the patch tensors created by the runner, the input tensors passed entirely
+	 * are left untouched
+	 * @param inputPatches
+	 * 	input patch tensors
+	 * @param outputPatches
+	 * 	output patch tensors
+	 */
+	private void closePatches(List<Tensor<?>> inputPatches, List<Tensor<?>> outputPatches) {
+		for (Tensor<?> tt : inputPatches) {
+			if (!inputTensors.contains(tt))
+				closePatch(tt);
+		}
+		for (Tensor<?> tt : outputPatches)
+			closePatch(tt);
+	}
+
+	/**
+	 * Close a patch tensor, giving its buffer back to the pool if there is one
+	 * @param patch
+	 * 	the patch tensor
+	 */
+	private void closePatch(Tensor<?> patch) {
+		if (tensorPool != null)
+			tensorPool.release(patch);
+		else
+			patch.close();
+	}
+
+	/**
+	 * Convert an array in the tensor axes order into the "xyczb" axes order
+	 * @param arr
+	 * 	the array in the tensor axes order
+	 * @param axes
+	 * 	the tensor axes order
+	 * @return the array in the "xyczb" axes order
+	 */
+	private static int[] toProcessingAxesOrder(int[] arr, String axes) {
+		return PatchGridCalculator.arrayToWantedAxesOrderAddOnes(arr, axes, TilingUtils.PROCESSING_AXES_ORDER);
+	}
+
+	private static long[] toLongArray(int[] arr) {
+		long[] longArr = new long[arr.length];
+		for (int i = 0; i < arr.length; i ++)
+			longArr[i] = arr[i];
+		return longArr;
+	}
+
+	/**
+	 * Patch buffers needed to process a single batch of tiles and the positions of the tiles
+	 * they currently hold
+	 */
+	private static final class TileBuffer
+	{
+		private int[][] gridPositions;
+
+		private List<Tensor<?>> inputPatches;
+
+		private List<Tensor<?>> modelInputs;
+
+		private List<Tensor<?>> outputPatches;
+	}
+}
@@ -19,6 +19,151 @@
  */
 package io.bioimage.modelrunner.tiling;
 
+/**
+ * Utility methods to compute the geometry of each of the tiles of a patch grid.
+ * Unless stated otherwise, every array follows the "xyczb" axes order used by
+ * {@link PatchSpec}
+ *
+ * @author Carlos Garcia Lopez de Haro
+ */
 public class TilingUtils {
 
+	/**
+	 * Axes order used to do every tiling calculation
+	 */
+	public static final String PROCESSING_AXES_ORDER = "xyczb";
+
+	/**
+	 * Get the total number of tiles needed to process an image
+	 * @param grid
+	 * 	number of patches per axis
+	 * @return the total number of tiles
+	 */
+	public static int getNumberOfTiles(int[] grid) {
+		int n = 1;
+		for (int gg : grid)
+			n *= gg;
+		return n;
+	}
+
+	/**
+	 * Get the position of a tile in the patch grid from its flat index.
+	 * The first axis is the one that changes faster
+	 * @param tileIndex
+	 * 	flat index of the tile, from 0 to {@link #getNumberOfTiles(int[])} - 1
+	 * @param grid
+	 * 	number of patches per axis
+	 * @return the position of the tile in the grid
+	 */
+	public static int[] getGridPosition(int tileIndex, int[] grid) {
+		int[] pos = new int[grid.length];
+		for (int i = 0; i < grid.length; i ++) {
+			pos[i] = tileIndex % grid[i];
+			tileIndex = tileIndex / grid[i];
+		}
+		return pos;
+	}
+
+	/**
+	 * Get the size of the area of interest of the patches of a tensor, this is
+	 * the size of the patch once the padding at both sides is removed
+	 * @param spec
+	 * 	patch specs of the tensor
+	 * @return the size of the area of interest of every patch
+	 */
+	public static int[] getAreaOfInterestSize(PatchSpec spec) {
+		int[] patch = spec.getPatchInputSize();
+		int[][] padding = spec.getPatchPaddingSize();
+		int[] aoi = new int[patch.length];
+		for (int i = 0; i < patch.length; i ++)
+			aoi[i] = patch[i] - padding[0][i] - padding[1][i];
+		return aoi;
+	}
+
+	/**
+	 * Get the position on the image where the area of interest of a tile starts.
+	 * The last tile of each axis is moved back so it does not go beyond the image,
+	 * the same way as {@link ImgLib2Utils#fillRaiAt} does
+	 * @param spec
+	 * 	patch specs of the tensor
+	 * @param imageSize
+	 * 	size of the image
+	 * @param gridPosition
+	 * 	position of the tile in the grid. If the tensor needs less patches than the grid
+	 * 	along any axis, its last patch is used
+	 * @return the position where the area of interest of the tile starts
+	 */
+	public static int[] getTileStart(PatchSpec spec, int[] imageSize, int[] gridPosition) {
+		int[] aoi = getAreaOfInterestSize(spec);
+		int[] specGrid = spec.getPatchGridSize();
+		int[] start = new int[aoi.length];
+		for (int i = 0; i < aoi.length; i ++) {
+			int pos = Math.min(gridPosition[i], specGrid[i] - 1);
+			start[i] = Math.max(0, Math.min(pos * aoi[i], imageSize[i] - aoi[i]));
+		}
+		return start;
+	}
+
+	/**
+	 * Get the position on the image where the patch of a tile (halo included) starts.
+	 * The position can be negative, in that case the patch needs mirroring
+	 * @param spec
+	 * 	patch specs of the tensor
+	 * @param imageSize
+	 * 	size of the image
+	 * @param gridPosition
+	 * 	position of the tile in the grid
+	 * @return the position where the patch starts
+	 */
+	public static int[] getPatchStart(PatchSpec spec, int[] imageSize, int[] gridPosition) {
+		int[] start = getTileStart(spec, imageSize, gridPosition);
+		int[] paddingFront = spec.getPatchPaddingSize()[0];
+		for (int i = 0; i < start.length; i ++)
+			start[i] -= paddingFront[i];
+		return start;
+	}
+
+	/**
+	 * Whether the patch of a tile is completely inside the image or if it needs
+	 * mirroring along any axis
+	 * @param spec
+	 * 	patch specs of the tensor
+	 * @param imageSize
+	 * 	size of the image
+	 * @param gridPosition
+	 * 	position of the tile in the grid
+	 * @return true if no pixel of the patch falls out of the image
+	 */
+	public static boolean isInteriorTile(PatchSpec spec, int[] imageSize, int[] gridPosition) {
+		int[] start = getPatchStart(spec, imageSize, gridPosition);
+		int[] patch = spec.getPatchInputSize();
+		for (int i = 0; i < start.length; i ++) {
+			if (start[i] < 0 || start[i] + patch[i] > imageSize[i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Convert an array that follows the {@link #PROCESSING_AXES_ORDER} into the axes
+	 * order of a tensor. Axes of the tensor that are not in the processing axes order
+	 * take the value of the fill array
+	 * @param arr
+	 * 	array in the processing axes order
+	 * @param tensorAxes
+	 * 	axes order of the tensor
+	 * @param fill
+	 * 	array in the tensor axes order whose values are used for the axes that are not
+	 * 	in the processing axes order
+	 * @return array in the tensor axes order
+	 */
+	public static int[] toTensorAxesOrder(int[] arr, String tensorAxes, int[] fill) {
+		String[] axesArr = tensorAxes.toLowerCase().split("");
+		int[] nArr = new int[axesArr.length];
+		for (int i = 0; i < axesArr.length; i ++) {
+			int ind = PROCESSING_AXES_ORDER.indexOf(axesArr[i]);
+			nArr[i] = ind == -1 ? fill[i] : arr[ind];
+		}
+		return nArr;
+	}
 }
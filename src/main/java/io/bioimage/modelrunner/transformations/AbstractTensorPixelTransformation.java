@@ -21,15 +21,27 @@ package io.bioimage.modelrunner.transformations;
 
 import io.bioimage.modelrunner.tensor.Tensor;
 
+import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.loops.LoopBuilder;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.ByteType;
+import net.imglib2.type.numeric.integer.ShortType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
 import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
 
 /**
  * Abstract classes for tensor transformations where a new pixel value can be
  * calculated solely from the corresponding pixel value in the input. This
- * mapping is specified by a
+ * mapping is specified by a {@link FloatUnaryOperator}.
+ *
+ * When the input and the output are {@link net.imglib2.img.array.ArrayImg}s backed by
+ * float[], short[] or byte[] arrays, the operator is applied with plain loops over the arrays,
+ * in parallel ranges, which the JIT compiles into tight (and when possible vectorized) code.
+ * Any other image goes through {@link LoopBuilder}.
  *
  * @author Jean-Yves Tinevez
  *
@@ -51,7 +63,9 @@ public class AbstractTensorPixelTransformation extends AbstractTensorTransformat
 	@Override
 	public < R extends RealType< R > & NativeType< R > > Tensor< FloatType > apply( final Tensor< R > input )
 	{
-		final Tensor< FloatType > output = makeOutput( input );
+		final Tensor< FloatType > output = createOutput( input );
+		if ( applyToArrays( input.getData(), output.getData() ) )
+			return output;
 		LoopBuilder
 				.setImages( input.getData(), output.getData() )
 				.multiThreaded()
@@ -62,12 +76,77 @@ public class AbstractTensorPixelTransformation extends AbstractTensorTransformat
 	@Override
 	public void applyInPlace( final Tensor< FloatType > input )
 	{
+		if ( applyToArrays( input.getData(), input.getData() ) )
+			return;
 		LoopBuilder
 				.setImages( input.getData() )
 				.multiThreaded()
 				.forEachPixel( i -> i.set( fun.applyAsFloat( i.get() ) ) );
 	}
 
+	/**
+	 * Apply the operator looping directly over the primitive arrays of the images, if both are
+	 * {@link net.imglib2.img.array.ArrayImg}s with the same dimensions, the output of floats and the
+	 * input of floats, (unsigned) shorts or (unsigned) bytes.
+	 * The Vector API is not used because it is not available in Java 8, but the loops are simple
+	 * enough for the JIT to unroll and vectorize them.
+	 *
+	 * @return whether the operator was applied, false if the images are not backed by supported arrays
+	 */
+	private < R extends RealType< R > > boolean applyToArrays( final RandomAccessibleInterval< R > source,
+			final RandomAccessibleInterval< FloatType > target )
+	{
+		final float[] out = PrimitiveArrays.getFloatArray( target );
+		if ( out == null || !Intervals.equalDimensions( source, target ) )
+			return false;
+		final Object in = PrimitiveArrays.getStorageArray( source );
+		final R type = Util.getTypeFromInterval( source );
+		final FloatUnaryOperator op = fun;
+		if ( in instanceof float[] && type instanceof FloatType )
+		{
+			final float[] arr = ( float[] ) in;
+			PrimitiveArrays.forEachRange( out.length, ( from, to ) -> {
+				for ( int i = from; i < to; i ++ )
+					out[ i ] = op.applyAsFloat( arr[ i ] );
+			} );
+		}
+		else if ( in instanceof short[] && type instanceof UnsignedShortType )
+		{
+			final short[] arr = ( short[] ) in;
+			PrimitiveArrays.forEachRange( out.length, ( from, to ) -> {
+				for ( int i = from; i < to; i ++ )
+					out[ i ] = op.applyAsFloat( arr[ i ] & 0xffff );
+			} );
+		}
+		else if ( in instanceof short[] && type instanceof ShortType )
+		{
+			final short[] arr = ( short[] ) in;
+			PrimitiveArrays.forEachRange( out.length, ( from, to ) -> {
+				for ( int i = from; i < to; i ++ )
+					out[ i ] = op.applyAsFloat( arr[ i ] );
+			} );
+		}
+		else if ( in instanceof byte[] && type instanceof UnsignedByteType )
+		{
+			final byte[] arr = ( byte[] ) in;
+			PrimitiveArrays.forEachRange( out.length, ( from, to ) -> {
+				for ( int i = from; i < to; i ++ )
+					out[ i ] = op.applyAsFloat( arr[ i ] & 0xff );
+			} );
+		}
+		else if ( in instanceof byte[] && type instanceof ByteType )
+		{
+			final byte[] arr = ( byte[] ) in;
+			PrimitiveArrays.forEachRange( out.length, ( from, to ) -> {
+				for ( int i = from; i < to; i ++ )
+					out[ i ] = op.applyAsFloat( arr[ i ] );
+			} );
+		}
+		else
+			return false;
+		return true;
+	}
+
 	@FunctionalInterface
 	public interface FloatUnaryOperator
 	{
@@ -20,6 +20,7 @@
 package io.bioimage.modelrunner.transformations;
 
 import io.bioimage.modelrunner.tensor.Tensor;
+import io.bioimage.modelrunner.tensor.TensorPool;
 
 import net.imglib2.converter.RealTypeConverters;
 import net.imglib2.img.Img;
@@ -35,6 +36,8 @@ public abstract class AbstractTensorTransformation implements TensorTransformati
 	private final String name;
 
 	private Mode mode = Mode.FIXED;
+
+	private TensorPool tensorPool;
 	
 	protected static String DEFAULT_MISSING_ARG_ERR = "Cannot execute Clip BioImage.io transformation because '%s' "
 			+ "parameter was not set.";
@@ -62,13 +65,110 @@ public abstract class AbstractTensorTransformation implements TensorTransformati
 		return mode;
 	}
 
+	/**
+	 * Set the pool the output tensors of {@link #apply(Tensor)} are borrowed from,
+	 * instead of allocating a new image every time. The output tensors should then be given
+	 * back to the pool with {@link TensorPool#release(Tensor)} once they are not needed.
+	 *
+	 * @param tensorPool
+	 *            the pool or null to allocate new outputs
+	 */
+	public void setTensorPool( final TensorPool tensorPool )
+	{
+		this.tensorPool = tensorPool;
+	}
+
+	/**
+	 *
+	 * @return the pool the output tensors are borrowed from, null if they are allocated
+	 */
+	public TensorPool getTensorPool()
+	{
+		return tensorPool;
+	}
+
+	/**
+	 * Whether a transformation computed over some axes of a tensor covers every axis except the batch,
+	 * so it can be computed over the whole tensor at once
+	 *
+	 * @param axes
+	 *            the axes the transformation is computed over, null for every axis
+	 * @param axesOrder
+	 *            the axes order of the tensor
+	 * @return whether the transformation is global for the tensor
+	 */
+	static boolean isGlobal( final String axes, final String axesOrder )
+	{
+		if ( axes == null )
+			return true;
+		final String selectedAxes = getSelectedAxes( axes, axesOrder );
+		return selectedAxes.equals( "" ) || axesOrder.replace( "b", "" ).length() == selectedAxes.length();
+	}
+
+	/**
+	 * Get the axes of a tensor that a transformation computed over some axes iterates over,
+	 * that is, the axes not included in the ones it is computed over, excluding the batch
+	 *
+	 * @param axes
+	 *            the axes the transformation is computed over, null for every axis
+	 * @param axesOrder
+	 *            the axes order of the tensor
+	 * @return the axes iterated over, in the axes order of the tensor
+	 */
+	static String getSelectedAxes( final String axes, final String axesOrder )
+	{
+		String selectedAxes = "";
+		if ( axes == null )
+			return selectedAxes;
+		for ( final String ax : axesOrder.split( "" ) )
+		{
+			if ( !axes.toLowerCase().contains( ax.toLowerCase() ) && !ax.toLowerCase().equals( "b" ) )
+				selectedAxes += ax;
+		}
+		return selectedAxes;
+	}
+
 	protected < R extends RealType< R > & NativeType< R > > Tensor< FloatType > makeOutput( final Tensor< R > input )
 	{
-		final ImgFactory< FloatType > factory = Util.getArrayOrCellImgFactory( input.getData(), new FloatType() );
-		final Img< FloatType > outputImg = factory.create( input.getData() );
-		// TODO improve, do not copy here. Do it directly in the method to avoid looping twice over the images
-		RealTypeConverters.copyFromTo(input.getData(), outputImg);
-		final Tensor< FloatType > output = Tensor.build( getName() + '_' + input.getName(), input.getAxesOrderString(), outputImg );
+		final Tensor< FloatType > output = createOutput( input );
+		RealTypeConverters.copyFromTo( input.getData(), output.getData() );
 		return output;
 	}
+
+	/**
+	 * Create the output tensor of {@link #apply(Tensor)}, with the same shape as the input, without
+	 * copying the input into it. Its values are undefined, so the transformation has to write every pixel
+	 *
+	 * @param <R>
+	 *            the pixel type of the input
+	 * @param input
+	 *            the input tensor
+	 * @return the output tensor, borrowed from the pool if there is one
+	 */
+	protected < R extends RealType< R > & NativeType< R > > Tensor< FloatType > createOutput( final Tensor< R > input )
+	{
+		return createOutput( input, new FloatType() );
+	}
+
+	/**
+	 * Create an output tensor of the wanted pixel type, with the same shape as the input, without
+	 * copying the input into it. Its values are undefined, so the transformation has to write every pixel
+	 *
+	 * @param <T>
+	 *            the pixel type of the output
+	 * @param input
+	 *            the input tensor
+	 * @param type
+	 *            an instance of the pixel type of the output
+	 * @return the output tensor, borrowed from the pool if there is one
+	 */
+	protected < T extends RealType< T > & NativeType< T > > Tensor< T > createOutput( final Tensor< ? > input, final T type )
+	{
+		if ( tensorPool != null )
+			return tensorPool.borrow( getName() + '_' + input.getName(),
+					input.getAxesOrderString(), input.getData().dimensionsAsLongArray(), type );
+		final ImgFactory< T > factory = Util.getArrayOrCellImgFactory( input.getData(), type );
+		final Img< T > outputImg = factory.create( input.getData() );
+		return Tensor.build( getName() + '_' + input.getName(), input.getAxesOrderString(), outputImg );
+	}
 }
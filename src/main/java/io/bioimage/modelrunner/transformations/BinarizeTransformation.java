@@ -21,11 +21,14 @@ package io.bioimage.modelrunner.transformations;
 
 import io.bioimage.modelrunner.tensor.Tensor;
 
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.loops.LoopBuilder;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
 import net.imglib2.type.numeric.real.FloatType;
 
-public class BinarizeTransformation extends AbstractTensorPixelTransformation
+public class BinarizeTransformation extends AbstractTensorPixelTransformation implements FusableTransformation
 {
 	
 	private static String name = "binarize";
@@ -56,6 +59,14 @@ public class BinarizeTransformation extends AbstractTensorPixelTransformation
 		}
 	}
 
+	@Override
+	public FloatUnaryOperator getPixelOperation( final RandomAccessibleInterval< FloatType > values, final String axesOrder )
+	{
+		checkRequiredArgs();
+		final double thresh = threshold;
+		return v -> ( v >= thresh ) ? 1f : 0f;
+	}
+
 	public < R extends RealType< R > & NativeType< R > > Tensor< FloatType > apply( final Tensor< R > input )
 	{
 		checkRequiredArgs();
@@ -63,10 +74,32 @@ public class BinarizeTransformation extends AbstractTensorPixelTransformation
 		return super.apply(input);
 	}
 
+	/**
+	 * Binarize the input into a mask of unsigned bytes, 1 where the pixel is above the threshold
+	 * and 0 elsewhere. The mask is computed directly from the input type in a single pass, and it
+	 * takes a quarter of the memory of the tensor of floats returned by {@link #apply(Tensor)}
+	 * @param <R>
+	 * 	the pixel type of the input tensor
+	 * @param input
+	 * 	the input tensor
+	 * @return a new tensor of unsigned bytes with the mask
+	 */
+	public < R extends RealType< R > & NativeType< R > > Tensor< UnsignedByteType > applyToMask( final Tensor< R > input )
+	{
+		checkRequiredArgs();
+		final double thresh = threshold;
+		final Tensor< UnsignedByteType > output = createOutput( input, new UnsignedByteType() );
+		LoopBuilder
+				.setImages( input.getData(), output.getData() )
+				.multiThreaded()
+				.forEachPixel( ( i, o ) -> o.set( i.getRealDouble() >= thresh ? 1 : 0 ) );
+		return output;
+	}
+
 	public void applyInPlace( final Tensor< FloatType > input )
 	{
 		checkRequiredArgs();
 		super.setFloatUnitaryOperator(v -> ( v >= threshold ) ? 1f : 0f);
-		super.apply(input);
+		super.applyInPlace(input);
 	}
 }
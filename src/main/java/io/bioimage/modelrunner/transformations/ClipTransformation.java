@@ -21,11 +21,15 @@ package io.bioimage.modelrunner.transformations;
 
 import io.bioimage.modelrunner.tensor.Tensor;
 
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.loops.LoopBuilder;
 import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.IntegerType;
 import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Util;
 import net.imglib2.type.numeric.real.FloatType;
 
-public class ClipTransformation extends AbstractTensorPixelTransformation
+public class ClipTransformation extends AbstractTensorPixelTransformation implements FusableTransformation
 {
 
 	private static final class ClipFunction implements FloatUnaryOperator
@@ -97,6 +101,13 @@ public class ClipTransformation extends AbstractTensorPixelTransformation
 		}
 	}
 
+	@Override
+	public FloatUnaryOperator getPixelOperation( final RandomAccessibleInterval< FloatType > values, final String axesOrder )
+	{
+		checkRequiredArgs();
+		return new ClipFunction( min, max );
+	}
+
 	public < R extends RealType< R > & NativeType< R > > Tensor< FloatType > apply( final Tensor< R > input )
 	{
 		checkRequiredArgs();
@@ -104,10 +115,63 @@ public class ClipTransformation extends AbstractTensorPixelTransformation
 		return super.apply(input);
 	}
 
+	/**
+	 * Clip the input into a tensor of its same pixel type, computed directly from the input in a single
+	 * pass, so for example images of unsigned bytes or shorts are not converted into floats.
+	 * The bounds are first limited to the range of the type, and for integer types they
+	 * must then be integers, otherwise the clipped values could not be represented
+	 * @param <R>
+	 * 	the pixel type of the input tensor
+	 * @param input
+	 * 	the input tensor
+	 * @return a new tensor of the same type as the input with the clipped values
+	 * @throws IllegalArgumentException if the type of the input is an integer type and the bounds are not integers
+	 */
+	public < R extends RealType< R > & NativeType< R > > Tensor< R > applyToSameType( final Tensor< R > input )
+			throws IllegalArgumentException
+	{
+		final R type = Util.getTypeFromInterval( input.getData() ).createVariable();
+		if ( !canKeepType( type ) )
+			throw new IllegalArgumentException( "The bounds of the 'clip' transformation (" + min + ", " + max
+					+ ") cannot be represented with the data type of the tensor '" + input.getName() + "': "
+					+ type.getClass().getSimpleName() + ". Use apply() to get a tensor of floats instead." );
+		final double low = Math.max( min, type.getMinValue() );
+		final double high = Math.min( max, type.getMaxValue() );
+		final Tensor< R > output = createOutput( input, type );
+		LoopBuilder
+				.setImages( input.getData(), output.getData() )
+				.multiThreaded()
+				.forEachPixel( ( i, o ) -> {
+					final double v = i.getRealDouble();
+					if ( v > high )
+						o.setReal( high );
+					else if ( v < low )
+						o.setReal( low );
+					else
+						o.set( i );
+				} );
+		return output;
+	}
+
+	/**
+	 * Whether {@link #applyToSameType(Tensor)} can clip tensors of a pixel type, that is, whether
+	 * the bounds limited to the range of the type can be represented with it
+	 * @param type
+	 * 	the pixel type of the tensor
+	 * @return whether the clipped tensor can keep the pixel type
+	 */
+	public boolean canKeepType( final RealType< ? > type )
+	{
+		checkRequiredArgs();
+		final double low = Math.max( min, type.getMinValue() );
+		final double high = Math.min( max, type.getMaxValue() );
+		return !( type instanceof IntegerType ) || ( low == Math.rint( low ) && high == Math.rint( high ) );
+	}
+
 	public void applyInPlace( final Tensor< FloatType > input )
 	{
 		checkRequiredArgs();
 		super.setFloatUnitaryOperator(new ClipFunction( min, max ) );
-		super.apply(input);
+		super.applyInPlace(input);
 	}
 }
@@ -0,0 +1,420 @@
+/*-
+ * #%L
+ * Use deep learning frameworks from Java in an agnostic and isolated way.
+ * %%
+ * Copyright (C) 2022 - 2023 Institut Pasteur and BioImage.IO developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.bioimage.modelrunner.transformations;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.yaml.snakeyaml.Yaml;
+
+import io.bioimage.modelrunner.transformations.TensorTransformation.Mode;
+import io.bioimage.modelrunner.utils.YAMLUtils;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.loops.LoopBuilder;
+import net.imglib2.type.numeric.RealType;
+
+/**
+ * Statistics of a whole dataset, such as every frame of a time-lapse or every tile of a big image,
+ * used by the transformations in {@link Mode#PER_DATASET} mode, so every part of the dataset is
+ * normalized with the same values and no seams appear between tiles or flickering between frames.
+ *
+ * The statistics are filled incrementally with {@link #add(RandomAccessibleInterval)}, from several
+ * threads if wanted, and the statistics of separate parts can be merged with {@link #merge(DatasetStatistics)}.
+ * They keep the exact {@link Moments} of the values and a sketch of their distribution to estimate the
+ * percentiles: a histogram whose buckets grow geometrically with the magnitude of the values, so any
+ * percentile is estimated with a relative error below the accuracy chosen, using a fixed amount of memory.
+ * The statistics can be saved to a YAML file with {@link #save(String)} and read with {@link #load(String)}.
+ *
+ * <pre>
+ * DatasetStatistics stats = new DatasetStatistics();
+ * for ( RandomAccessibleInterval&lt;T&gt; frame : frames )
+ * 	stats.add( frame );
+ * ProcessingPipeline preprocessing = ProcessingPipeline.createPreprocessing( tensorSpec );
+ * preprocessing.setDatasetStatistics( stats );
+ * </pre>
+ *
+ * @author Carlos Garcia Lopez de Haro
+ */
+public class DatasetStatistics
+{
+	/**
+	 * Default relative accuracy of the percentiles
+	 */
+	public static final double DEFAULT_RELATIVE_ACCURACY = 0.005;
+	/**
+	 * Values whose magnitude is smaller are counted as 0
+	 */
+	private static final double MIN_INDEXABLE = 1e-9;
+	/**
+	 * Values whose magnitude is bigger are counted in the last bucket
+	 */
+	private static final double MAX_INDEXABLE = Float.MAX_VALUE;
+
+	private static final String ACCURACY_KEY = "relative_accuracy";
+	private static final String COUNT_KEY = "count";
+	private static final String MEAN_KEY = "mean";
+	private static final String M2_KEY = "m2";
+	private static final String ZEROS_KEY = "zero_count";
+	private static final String NON_FINITE_KEY = "non_finite_count";
+	private static final String POSITIVE_KEY = "positive_buckets";
+	private static final String NEGATIVE_KEY = "negative_buckets";
+
+	private final double relativeAccuracy;
+
+	private final double logGamma;
+
+	private final Moments moments = new Moments();
+
+	private final long[] positive;
+
+	private final long[] negative;
+
+	private long zeros;
+
+	private long nonFinite;
+
+	/**
+	 * Create empty statistics whose percentiles have the default relative accuracy
+	 */
+	public DatasetStatistics()
+	{
+		this( DEFAULT_RELATIVE_ACCURACY );
+	}
+
+	/**
+	 * Create empty statistics
+	 *
+	 * @param relativeAccuracy
+	 *            maximum relative error of the percentiles, between 0 and 1. The smaller it is,
+	 *            the more memory the sketch needs
+	 */
+	public DatasetStatistics( final double relativeAccuracy )
+	{
+		if ( relativeAccuracy <= 0 || relativeAccuracy >= 1 )
+			throw new IllegalArgumentException( "The relative accuracy should be between 0 and 1: " + relativeAccuracy );
+		this.relativeAccuracy = relativeAccuracy;
+		this.logGamma = Math.log( ( 1 + relativeAccuracy ) / ( 1 - relativeAccuracy ) );
+		final int nBuckets = ( int ) Math.ceil( Math.log( MAX_INDEXABLE / MIN_INDEXABLE ) / logGamma ) + 1;
+		this.positive = new long[ nBuckets ];
+		this.negative = new long[ nBuckets ];
+	}
+
+	/**
+	 * Add a value. NaN and infinite values are not added to the statistics, they are only
+	 * counted, see {@link #getNonFiniteCount()}
+	 *
+	 * @param value
+	 *            the value
+	 */
+	public synchronized void add( final double value )
+	{
+		addUnsynchronized( value );
+	}
+
+	/**
+	 * Add every pixel of an image, such as a frame or a tile of the dataset. The image is processed in
+	 * parallel, and several images can be added at the same time from different threads
+	 *
+	 * @param <R>
+	 *            the pixel type of the image
+	 * @param rai
+	 *            the image
+	 */
+	public < R extends RealType< R > > void add( final RandomAccessibleInterval< R > rai )
+	{
+		// One accumulator per thread instead of one per chunk, as each of them holds every bucket
+		final Map< Thread, DatasetStatistics > partial = new ConcurrentHashMap< Thread, DatasetStatistics >();
+		LoopBuilder.setImages( rai )
+				.multiThreaded()
+				.forEachChunk( chunk -> {
+					final DatasetStatistics stats = partial.computeIfAbsent( Thread.currentThread(),
+							t -> new DatasetStatistics( relativeAccuracy ) );
+					chunk.forEachPixel( p -> stats.addUnsynchronized( p.getRealDouble() ) );
+					return null;
+				} );
+		synchronized ( this )
+		{
+			for ( final DatasetStatistics stats : partial.values() )
+				mergeUnsynchronized( stats );
+		}
+	}
+
+	private void addUnsynchronized( final double value )
+	{
+		if ( !Double.isFinite( value ) )
+		{
+			nonFinite ++;
+			return;
+		}
+		moments.add( value );
+		final double magnitude = Math.abs( value );
+		if ( magnitude < MIN_INDEXABLE )
+			zeros ++;
+		else if ( value > 0 )
+			positive[ getBucket( magnitude ) ] ++;
+		else
+			negative[ getBucket( magnitude ) ] ++;
+	}
+
+	/**
+	 * Add the statistics of another part of the dataset
+	 *
+	 * @param other
+	 *            the statistics of the other part. They should have the same relative accuracy
+	 * @return this instance
+	 */
+	public DatasetStatistics merge( final DatasetStatistics other )
+	{
+		if ( other.relativeAccuracy != relativeAccuracy )
+			throw new IllegalArgumentException( "Only statistics with the same relative accuracy can be merged: "
+					+ relativeAccuracy + " and " + other.relativeAccuracy );
+		if ( other == this )
+			throw new IllegalArgumentException( "Statistics cannot be merged with themselves." );
+		// Only one lock is held at a time, so merging two instances into each other cannot deadlock
+		final DatasetStatistics copy = other.copy();
+		synchronized ( this )
+		{
+			mergeUnsynchronized( copy );
+		}
+		return this;
+	}
+
+	private synchronized DatasetStatistics copy()
+	{
+		final DatasetStatistics copy = new DatasetStatistics( relativeAccuracy );
+		copy.mergeUnsynchronized( this );
+		return copy;
+	}
+
+	private void mergeUnsynchronized( final DatasetStatistics other )
+	{
+		moments.merge( other.moments );
+		zeros += other.zeros;
+		nonFinite += other.nonFinite;
+		for ( int i = 0; i < positive.length; i ++ )
+		{
+			positive[ i ] += other.positive[ i ];
+			negative[ i ] += other.negative[ i ];
+		}
+	}
+
+	/**
+	 *
+	 * @return number of values added
+	 */
+	public synchronized long getCount()
+	{
+		return moments.getCount();
+	}
+
+	/**
+	 *
+	 * @return number of NaN or infinite values found, which are not part of the statistics
+	 */
+	public synchronized long getNonFiniteCount()
+	{
+		return nonFinite;
+	}
+
+	/**
+	 *
+	 * @return exact mean of the values added
+	 */
+	public synchronized double getMean()
+	{
+		return moments.getMean();
+	}
+
+	/**
+	 *
+	 * @return exact population standard deviation of the values added
+	 */
+	public synchronized double getStd()
+	{
+		return moments.getStd();
+	}
+
+	/**
+	 *
+	 * @return maximum relative error of the percentiles
+	 */
+	public double getRelativeAccuracy()
+	{
+		return relativeAccuracy;
+	}
+
+	/**
+	 * Estimate the value at a percentile of the values added. The rank of the value is the same
+	 * used by {@link Percentiles}
+	 *
+	 * @param percentile
+	 *            the percentile, between 0 and 1
+	 * @return the estimation, whose relative error is below {@link #getRelativeAccuracy()}
+	 * @throws IllegalStateException if no value has been added
+	 */
+	public synchronized double getPercentile( final double percentile )
+	{
+		if ( percentile < 0 || percentile > 1 )
+			throw new IllegalArgumentException( "The percentile should be between 0 and 1: " + percentile );
+		final long n = moments.getCount();
+		if ( n == 0 )
+			throw new IllegalStateException( "No value has been added to the statistics." );
+		final long rank = Math.min( n - 1, ( long ) ( n * percentile ) );
+		long seen = 0;
+		for ( int i = negative.length - 1; i >= 0; i -- )
+		{
+			seen += negative[ i ];
+			if ( seen > rank )
+				return -getBucketValue( i );
+		}
+		seen += zeros;
+		if ( seen > rank )
+			return 0;
+		for ( int i = 0; i < positive.length; i ++ )
+		{
+			seen += positive[ i ];
+			if ( seen > rank )
+				return getBucketValue( i );
+		}
+		return getBucketValue( positive.length - 1 );
+	}
+
+	private int getBucket( final double magnitude )
+	{
+		final int bucket = ( int ) Math.ceil( Math.log( magnitude / MIN_INDEXABLE ) / logGamma );
+		return Math.max( 0, Math.min( positive.length - 1, bucket ) );
+	}
+
+	/**
+	 * Value of a bucket, the one with the same relative error to both limits of the bucket
+	 */
+	private double getBucketValue( final int bucket )
+	{
+		final double gamma = Math.exp( logGamma );
+		return MIN_INDEXABLE * 2 * Math.exp( bucket * logGamma ) / ( gamma + 1 );
+	}
+
+	/**
+	 *
+	 * @return the statistics as a map that can be written as YAML or JSON. Only the buckets
+	 *         that are not empty are included
+	 */
+	public synchronized Map< String, Object > toMap()
+	{
+		final Map< String, Object > map = new LinkedHashMap< String, Object >();
+		map.put( ACCURACY_KEY, relativeAccuracy );
+		map.put( COUNT_KEY, moments.getCount() );
+		map.put( MEAN_KEY, moments.getMean() );
+		map.put( M2_KEY, moments.getM2() );
+		map.put( ZEROS_KEY, zeros );
+		map.put( NON_FINITE_KEY, nonFinite );
+		map.put( POSITIVE_KEY, toSparse( positive ) );
+		map.put( NEGATIVE_KEY, toSparse( negative ) );
+		return map;
+	}
+
+	/**
+	 * Create statistics from a map created with {@link #toMap()}
+	 *
+	 * @param map
+	 *            the map
+	 * @return the statistics
+	 * @throws IllegalArgumentException if the map does not contain valid statistics
+	 */
+	public static DatasetStatistics fromMap( final Map< String, Object > map ) throws IllegalArgumentException
+	{
+		try
+		{
+			final DatasetStatistics stats = new DatasetStatistics( ( ( Number ) map.get( ACCURACY_KEY ) ).doubleValue() );
+			stats.moments.merge( new Moments( ( ( Number ) map.get( COUNT_KEY ) ).longValue(),
+					( ( Number ) map.get( MEAN_KEY ) ).doubleValue(), ( ( Number ) map.get( M2_KEY ) ).doubleValue() ) );
+			stats.zeros = ( ( Number ) map.get( ZEROS_KEY ) ).longValue();
+			if ( map.get( NON_FINITE_KEY ) != null )
+				stats.nonFinite = ( ( Number ) map.get( NON_FINITE_KEY ) ).longValue();
+			fromSparse( map.get( POSITIVE_KEY ), stats.positive );
+			fromSparse( map.get( NEGATIVE_KEY ), stats.negative );
+			return stats;
+		}
+		catch ( final ClassCastException | NullPointerException | IndexOutOfBoundsException e )
+		{
+			throw new IllegalArgumentException( "Invalid dataset statistics: " + e.getMessage(), e );
+		}
+	}
+
+	/**
+	 * Save the statistics into a YAML file
+	 *
+	 * @param file
+	 *            path to the file
+	 * @throws IOException if the file cannot be written
+	 */
+	public void save( final String file ) throws IOException
+	{
+		try ( Writer writer = Files.newBufferedWriter( Paths.get( file ), StandardCharsets.UTF_8 ) )
+		{
+			new Yaml().dump( toMap(), writer );
+		}
+	}
+
+	/**
+	 * Read statistics saved with {@link #save(String)}
+	 *
+	 * @param file
+	 *            path to the file
+	 * @return the statistics
+	 * @throws IOException if the file cannot be read
+	 * @throws IllegalArgumentException if the file does not contain valid statistics
+	 */
+	public static DatasetStatistics load( final String file ) throws IOException, IllegalArgumentException
+	{
+		return fromMap( YAMLUtils.load( file ) );
+	}
+
+	private static Map< Integer, Long > toSparse( final long[] buckets )
+	{
+		final Map< Integer, Long > sparse = new LinkedHashMap< Integer, Long >();
+		for ( int i = 0; i < buckets.length; i ++ )
+		{
+			if ( buckets[ i ] != 0 )
+				sparse.put( i, buckets[ i ] );
+		}
+		return sparse;
+	}
+
+	private static void fromSparse( final Object sparse, final long[] buckets )
+	{
+		for ( final Entry< ?, ? > entry : ( ( Map< ?, ? > ) sparse ).entrySet() )
+			buckets[ ( ( Number ) entry.getKey() ).intValue() ] = ( ( Number ) entry.getValue() ).longValue();
+	}
+
+	@Override
+	public String toString()
+	{
+		return "DatasetStatistics {count=" + getCount() + ", mean=" + getMean() + ", std=" + getStd() + "}";
+	}
+}
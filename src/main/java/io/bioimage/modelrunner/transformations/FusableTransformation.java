@@ -0,0 +1,79 @@
+/*-
+ * #%L
+ * Use deep learning frameworks from Java in an agnostic and isolated way.
+ * %%
+ * Copyright (C) 2022 - 2023 Institut Pasteur and BioImage.IO developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.bioimage.modelrunner.transformations;
+
+import io.bioimage.modelrunner.transformations.AbstractTensorPixelTransformation.FloatUnaryOperator;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.real.FloatType;
+
+/**
+ * Transformation whose result on a tensor can be computed with the same function applied
+ * to every pixel, once the statistics it needs, if any, are known.
+ * {@link ProcessingPipeline} fuses consecutive transformations of this kind into a single
+ * pass over the data.
+ *
+ * @author Carlos Garcia Lopez de Haro
+ */
+interface FusableTransformation extends TensorTransformation
+{
+	/**
+	 * Get the function that this transformation applies to every pixel of a tensor
+	 *
+	 * @param values
+	 *            the values the function will be applied to, used to compute the statistics
+	 *            needed by the transformation. It can be a lazy view, so it should only be
+	 *            read if statistics are needed. If {@link #needsStatistics()} is false it can
+	 *            be null, and implementations must not read it
+	 * @param axesOrder
+	 *            the axes order of the tensor
+	 * @return the function, or null if the transformation cannot be applied with a single
+	 *         function to the tensor, for example because it uses different parameters per plane
+	 */
+	FloatUnaryOperator getPixelOperation( RandomAccessibleInterval< FloatType > values, String axesOrder );
+
+	/**
+	 * Whether the function depends on statistics of the values it is applied to. If it does not,
+	 * applying it to parts of a tensor, such as tiles, gives the same result as applying it to
+	 * the whole tensor, and {@link #getPixelOperation(RandomAccessibleInterval, String)} does not read the values
+	 *
+	 * @return whether the transformation computes statistics of the values
+	 */
+	default boolean needsStatistics()
+	{
+		return false;
+	}
+
+	/**
+	 * Whether the transformation applies the same function, independent of the values, to every
+	 * pixel of a tensor with the axes order provided. Then applying it to parts of a tensor, such
+	 * as tiles, gives the same result as applying it to the whole tensor.
+	 * The function is requested with null values, which is only allowed because the statistics
+	 * are not needed
+	 *
+	 * @param axesOrder
+	 *            the axes order of the tensor
+	 * @return whether the transformation can be applied part by part
+	 */
+	default boolean isPixelwise( final String axesOrder )
+	{
+		return !needsStatistics() && getPixelOperation( null, axesOrder ) != null;
+	}
+}
@@ -0,0 +1,336 @@
+/*-
+ * #%L
+ * Use deep learning frameworks from Java in an agnostic and isolated way.
+ * %%
+ * Copyright (C) 2022 - 2023 Institut Pasteur and BioImage.IO developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.bioimage.modelrunner.transformations;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.loops.LoopBuilder;
+import net.imglib2.parallel.Parallelization;
+import net.imglib2.parallel.TaskExecutor;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+/**
+ * Count, mean and sum of the squared deviations from the mean of a set of values, from which the
+ * variance and standard deviation are obtained. Values are added one by one with Welford's algorithm
+ * and partial results computed in parallel are merged with the formula of Chan et al., so the result is
+ * numerically stable whatever the number of values.
+ *
+ * {@link #compute(RandomAccessibleInterval)} computes the moments of an image in parallel, looping directly
+ * over the array of floats when the image is an {@link net.imglib2.img.array.ArrayImg}. In that case the
+ * moments of small blocks of consecutive values are computed with two passes over the block, which is
+ * in the CPU cache, and merged with the same formula, so the result is as stable as adding the values
+ * one by one. {@link #compute(RandomAccessibleInterval, int...)} computes the moments of every plane of an
+ * image in the same single pass.
+ *
+ * @author Carlos Garcia Lopez de Haro
+ */
+public final class Moments
+{
+	/**
+	 * Number of values of an array reduced by the same task
+	 */
+	private static final int CHUNK_SIZE = 1 << 16;
+	/**
+	 * Maximum number of consecutive values of an array whose moments are computed directly
+	 * before merging them
+	 */
+	private static final int BLOCK_SIZE = 1 << 12;
+
+	private long count;
+
+	private double mean;
+
+	private double m2;
+
+	/**
+	 * Create moments of an empty set of values
+	 */
+	public Moments()
+	{
+	}
+
+	/**
+	 * Create moments with the wanted values
+	 *
+	 * @param count
+	 *            number of values
+	 * @param mean
+	 *            mean of the values
+	 * @param m2
+	 *            sum of the squared deviations of the values from the mean
+	 */
+	public Moments( final long count, final double mean, final double m2 )
+	{
+		this.count = count;
+		this.mean = mean;
+		this.m2 = m2;
+	}
+
+	/**
+	 * Add a value
+	 *
+	 * @param value
+	 *            the value
+	 */
+	public void add( final double value )
+	{
+		count ++;
+		final double delta = value - mean;
+		mean += delta / count;
+		m2 += delta * ( value - mean );
+	}
+
+	/**
+	 * Add the moments of another set of values, as if its values had been added one by one
+	 *
+	 * @param other
+	 *            the moments of the other set
+	 * @return this instance
+	 */
+	public Moments merge( final Moments other )
+	{
+		merge( other.count, other.mean, other.m2 );
+		return this;
+	}
+
+	private void merge( final long otherCount, final double otherMean, final double otherM2 )
+	{
+		if ( otherCount == 0 )
+			return;
+		if ( count == 0 )
+		{
+			count = otherCount;
+			mean = otherMean;
+			m2 = otherM2;
+			return;
+		}
+		final long total = count + otherCount;
+		final double delta = otherMean - mean;
+		mean += delta * otherCount / total;
+		m2 += otherM2 + delta * delta * ( ( double ) count * otherCount / total );
+		count = total;
+	}
+
+	/**
+	 *
+	 * @return number of values
+	 */
+	public long getCount()
+	{
+		return count;
+	}
+
+	/**
+	 *
+	 * @return mean of the values, 0 if there are none
+	 */
+	public double getMean()
+	{
+		return mean;
+	}
+
+	/**
+	 *
+	 * @return sum of the squared deviations of the values from their mean
+	 */
+	public double getM2()
+	{
+		return m2;
+	}
+
+	/**
+	 *
+	 * @return population variance of the values, 0 if there are none
+	 */
+	public double getVariance()
+	{
+		return count == 0 ? 0 : m2 / count;
+	}
+
+	/**
+	 *
+	 * @return population standard deviation of the values, 0 if there are none
+	 */
+	public double getStd()
+	{
+		return Math.sqrt( getVariance() );
+	}
+
+	@Override
+	public String toString()
+	{
+		return "Moments {count=" + count + ", mean=" + mean + ", std=" + getStd() + "}";
+	}
+
+	/**
+	 * Compute the moments of the pixels of an image in parallel
+	 *
+	 * @param <R>
+	 *            the pixel type of the image
+	 * @param rai
+	 *            the image
+	 * @return the moments
+	 */
+	public static < R extends RealType< R > > Moments compute( final RandomAccessibleInterval< R > rai )
+	{
+		final float[] arr = PrimitiveArrays.getFloatArray( rai );
+		if ( arr != null )
+			return compute( arr, new long[] { arr.length }, new int[ 0 ] )[ 0 ];
+		final List< Moments > partial = LoopBuilder.setImages( rai )
+				.multiThreaded()
+				.forEachChunk( chunk -> {
+					final Moments moments = new Moments();
+					chunk.forEachPixel( p -> moments.add( p.getRealDouble() ) );
+					return moments;
+				} );
+		final Moments moments = new Moments();
+		for ( final Moments mm : partial )
+			moments.merge( mm );
+		return moments;
+	}
+
+	/**
+	 * Compute the moments of every plane of an image, in parallel and with a single pass over the image
+	 * when it is an {@link net.imglib2.img.array.ArrayImg} of floats.
+	 * The planes are the combinations of positions along the wanted dimensions, so for example for an
+	 * image with dimensions "xyc" and the dimension 2, there is a plane per channel
+	 *
+	 * @param <R>
+	 *            the pixel type of the image
+	 * @param rai
+	 *            the image
+	 * @param dims
+	 *            the dimensions that define the planes
+	 * @return the moments of every plane. The plane at the positions p0, p1... along the dimensions d0, d1...
+	 *         is at p0 + p1 * size(d0) + ..., so the first dimension varies fastest
+	 */
+	public static < R extends RealType< R > > Moments[] compute( final RandomAccessibleInterval< R > rai, final int... dims )
+	{
+		final float[] arr = PrimitiveArrays.getFloatArray( rai );
+		if ( arr != null )
+			return compute( arr, rai.dimensionsAsLongArray(), dims );
+		final long[] sizes = rai.dimensionsAsLongArray();
+		final List< Integer > planes = new ArrayList< Integer >();
+		for ( int p = 0; p < getNumberOfPlanes( sizes, dims ); p ++ )
+			planes.add( p );
+		final Moments[] moments = new Moments[ planes.size() ];
+		Parallelization.getTaskExecutor().forEach( planes, p -> {
+			final long[] pos = getPlanePosition( p, sizes, dims );
+			final long[] min = rai.minAsLongArray();
+			final long[] max = rai.maxAsLongArray();
+			for ( int j = 0; j < dims.length; j ++ )
+			{
+				min[ dims[ j ] ] += pos[ j ];
+				max[ dims[ j ] ] = min[ dims[ j ] ];
+			}
+			moments[ p ] = compute( Views.interval( rai, min, max ) );
+		} );
+		return moments;
+	}
+
+	/**
+	 * Reduce an array of floats in parallel. Every task reduces a range of the array block by block: the mean
+	 * of a block of consecutive values of the same plane is computed first and then the sum of the squared
+	 * deviations from it, and the moments of the block are merged into the ones of its plane
+	 */
+	private static Moments[] compute( final float[] arr, final long[] sizes, final int[] dims )
+	{
+		final int nPlanes = getNumberOfPlanes( sizes, dims );
+		final long[] strides = new long[ sizes.length ];
+		long stride = 1;
+		for ( int d = 0; d < sizes.length; d ++ )
+		{
+			strides[ d ] = stride;
+			stride *= sizes[ d ];
+		}
+		// Length of the runs of consecutive pixels that belong to the same plane
+		long runLength = arr.length;
+		for ( final int d : dims )
+			runLength = Math.min( runLength, strides[ d ] );
+		final TaskExecutor executor = Parallelization.getTaskExecutor();
+		final int nTasks = ( int ) Math.max( 1, Math.min( executor.suggestNumberOfTasks(), arr.length / CHUNK_SIZE ) );
+		final List< Integer > tasks = new ArrayList< Integer >();
+		for ( int t = 0; t < nTasks; t ++ )
+			tasks.add( t );
+		final Moments[][] partial = new Moments[ nTasks ][];
+		final int run = ( int ) runLength;
+		executor.forEach( tasks, t -> {
+			final int from = ( int ) ( ( long ) arr.length * t / nTasks );
+			final int to = ( int ) ( ( long ) arr.length * ( t + 1 ) / nTasks );
+			final Moments[] moments = new Moments[ nPlanes ];
+			for ( int p = 0; p < nPlanes; p ++ )
+				moments[ p ] = new Moments();
+			int i = from;
+			while ( i < to )
+			{
+				final int end = ( int ) Math.min( Math.min( to, i + ( long ) BLOCK_SIZE ), ( ( long ) i / run + 1 ) * run );
+				int plane = 0;
+				int planeStride = 1;
+				for ( final int d : dims )
+				{
+					plane += ( int ) ( ( i / strides[ d ] ) % sizes[ d ] ) * planeStride;
+					planeStride *= sizes[ d ];
+				}
+				double sum = 0;
+				for ( int j = i; j < end; j ++ )
+					sum += arr[ j ];
+				final double mean = sum / ( end - i );
+				double m2 = 0;
+				for ( int j = i; j < end; j ++ )
+				{
+					final double dx = arr[ j ] - mean;
+					m2 += dx * dx;
+				}
+				moments[ plane ].merge( end - i, mean, m2 );
+				i = end;
+			}
+			partial[ t ] = moments;
+		} );
+		final Moments[] moments = partial[ 0 ];
+		for ( int t = 1; t < nTasks; t ++ )
+		{
+			for ( int p = 0; p < nPlanes; p ++ )
+				moments[ p ].merge( partial[ t ][ p ] );
+		}
+		return moments;
+	}
+
+	private static int getNumberOfPlanes( final long[] sizes, final int[] dims )
+	{
+		long n = 1;
+		for ( final int d : dims )
+			n *= sizes[ d ];
+		return ( int ) n;
+	}
+
+	private static long[] getPlanePosition( int plane, final long[] sizes, final int[] dims )
+	{
+		final long[] pos = new long[ dims.length ];
+		for ( int j = 0; j < dims.length; j ++ )
+		{
+			pos[ j ] = plane % sizes[ dims[ j ] ];
+			plane /= sizes[ dims[ j ] ];
+		}
+		return pos;
+	}
+}
@@ -0,0 +1,189 @@
+/*-
+ * #%L
+ * Use deep learning frameworks from Java in an agnostic and isolated way.
+ * %%
+ * Copyright (C) 2022 - 2023 Institut Pasteur and BioImage.IO developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.bioimage.modelrunner.transformations;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.loops.LoopBuilder;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+/**
+ * Calculation of the values of an image at several percentiles in linear time, without sorting it.
+ *
+ * Images of integers of up to 16 bits, such as uint8 or uint16, are counted into a histogram with one
+ * bin per possible value, filled in parallel with one histogram per thread, however many chunks the image is
+ * split into, so the percentiles are exact and no copy of the image is made. Any other image is copied into a float array, 4 bytes per pixel, where the wanted ranks are
+ * found with quickselect, one after the other over the part of the array not discarded by the
+ * previous one.
+ *
+ * The value at the percentile p of an image of n pixels is the value at the position
+ * {@code (int) (n * p)} of the sorted pixels, or the last one if that is out of the image.
+ *
+ * @author Carlos Garcia Lopez de Haro
+ */
+public final class Percentiles
+{
+	/**
+	 * Maximum number of bins of the histograms, enough for every 16 bits type
+	 */
+	private static final long MAX_BINS = 1 << 16;
+
+	private Percentiles()
+	{
+	}
+
+	/**
+	 * Find the values of an image at several percentiles with a single pass over the image
+	 *
+	 * @param <R>
+	 *            the pixel type of the image
+	 * @param rai
+	 *            the image
+	 * @param percentiles
+	 *            the percentiles, between 0 and 1
+	 * @return the value at every percentile, in the same order
+	 * @throws IllegalArgumentException if the image is empty
+	 */
+	public static < R extends RealType< R > > float[] compute( final RandomAccessibleInterval< R > rai, final double... percentiles )
+	{
+		final long n = Intervals.numElements( rai );
+		if ( n == 0 )
+			throw new IllegalArgumentException( "Cannot compute the percentiles of an empty image." );
+		final long[] ranks = new long[ percentiles.length ];
+		for ( int i = 0; i < percentiles.length; i ++ )
+			ranks[ i ] = Math.min( n - 1, ( long ) ( n * percentiles[ i ] ) );
+		final R type = Util.getTypeFromInterval( rai );
+		if ( type instanceof IntegerType && type.getMaxValue() - type.getMinValue() < MAX_BINS )
+			return fromHistogram( rai, type, ranks );
+		return fromQuickselect( rai, n, ranks );
+	}
+
+	private static < R extends RealType< R > > float[] fromHistogram( final RandomAccessibleInterval< R > rai, final R type,
+			final long[] ranks )
+	{
+		final long min = ( long ) type.getMinValue();
+		final int nBins = ( int ) ( ( long ) type.getMaxValue() - min + 1 );
+		final Map< Thread, long[] > partial = new ConcurrentHashMap< Thread, long[] >();
+		LoopBuilder.setImages( rai )
+				.multiThreaded()
+				.forEachChunk( chunk -> {
+					final long[] counts = partial.computeIfAbsent( Thread.currentThread(), t -> new long[ nBins ] );
+					chunk.forEachPixel( p -> counts[ ( int ) ( ( ( IntegerType< ? > ) p ).getIntegerLong() - min ) ] ++ );
+					return null;
+				} );
+		final long[] histogram = new long[ nBins ];
+		for ( final long[] counts : partial.values() )
+		{
+			for ( int i = 0; i < nBins; i ++ )
+				histogram[ i ] += counts[ i ];
+		}
+		final float[] values = new float[ ranks.length ];
+		for ( int r = 0; r < ranks.length; r ++ )
+		{
+			long seen = 0;
+			int bin = 0;
+			while ( ( seen += histogram[ bin ] ) <= ranks[ r ] )
+				bin ++;
+			values[ r ] = bin + min;
+		}
+		return values;
+	}
+
+	private static < R extends RealType< R > > float[] fromQuickselect( final RandomAccessibleInterval< R > rai, final long n,
+			final long[] ranks )
+	{
+		if ( n > Integer.MAX_VALUE - 8 )
+			throw new IllegalArgumentException( "Cannot compute the percentiles of an image with more than "
+					+ ( Integer.MAX_VALUE - 8 ) + " pixels of type " + Util.getTypeFromInterval( rai ).getClass().getSimpleName() );
+		final float[] arr = new float[ ( int ) n ];
+		final Cursor< R > cursor = Views.flatIterable( rai ).cursor();
+		for ( int i = 0; i < arr.length; i ++ )
+			arr[ i ] = cursor.next().getRealFloat();
+		final long[] sorted = ranks.clone();
+		Arrays.sort( sorted );
+		final float[] values = new float[ ranks.length ];
+		int from = 0;
+		for ( final long rank : sorted )
+		{
+			select( arr, from, arr.length, ( int ) rank );
+			from = ( int ) rank;
+		}
+		for ( int r = 0; r < ranks.length; r ++ )
+			values[ r ] = arr[ ( int ) ranks[ r ] ];
+		return values;
+	}
+
+	/**
+	 * Reorder a part of an array so the element at the position k is the one that would be there
+	 * if the part was sorted, every element before it is smaller or equal and every element after
+	 * it is bigger or equal
+	 *
+	 * @param arr
+	 *            the array
+	 * @param from
+	 *            first position of the part, inclusive
+	 * @param to
+	 *            last position of the part, exclusive
+	 * @param k
+	 *            the position wanted
+	 */
+	static void select( final float[] arr, int from, int to, final int k )
+	{
+		while ( to - from > 1 )
+		{
+			final int mid = ( from + to - 1 ) >>> 1;
+			final float pivot = median( arr[ from ], arr[ mid ], arr[ to - 1 ] );
+			int i = from;
+			int j = to - 1;
+			while ( i <= j )
+			{
+				while ( arr[ i ] < pivot )
+					i ++;
+				while ( arr[ j ] > pivot )
+					j --;
+				if ( i <= j )
+				{
+					final float tmp = arr[ i ];
+					arr[ i ++ ] = arr[ j ];
+					arr[ j -- ] = tmp;
+				}
+			}
+			if ( k <= j )
+				to = j + 1;
+			else if ( k >= i )
+				from = i;
+			else
+				return;
+		}
+	}
+
+	private static float median( final float a, final float b, final float c )
+	{
+		return Math.max( Math.min( a, b ), Math.min( Math.max( a, b ), c ) );
+	}
+}
@@ -0,0 +1,122 @@
+/*-
+ * #%L
+ * Use deep learning frameworks from Java in an agnostic and isolated way.
+ * %%
+ * Copyright (C) 2022 - 2023 Institut Pasteur and BioImage.IO developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.bioimage.modelrunner.transformations;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.parallel.Parallelization;
+import net.imglib2.parallel.TaskExecutor;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Util;
+
+/**
+ * Access to the primitive arrays that back {@link ArrayImg}s, so the transformations can loop
+ * directly over them instead of going through cursors
+ *
+ * @author Carlos Garcia Lopez de Haro
+ */
+final class PrimitiveArrays
+{
+	/**
+	 * Minimum number of elements processed by each task of {@link #forEachRange(int, RangeConsumer)}
+	 */
+	private static final int CHUNK_SIZE = 1 << 16;
+
+	private PrimitiveArrays()
+	{
+	}
+
+	/**
+	 * Get the array that stores the pixels of an image of floats
+	 *
+	 * @param rai
+	 *            the image
+	 * @return the array, in flat order with the first dimension varying fastest, or null if the
+	 *         image is not an {@link ArrayImg} of {@link FloatType}
+	 */
+	static float[] getFloatArray( final RandomAccessibleInterval< ? > rai )
+	{
+		final Object data = getStorageArray( rai );
+		if ( data instanceof float[] && Util.getTypeFromInterval( rai ) instanceof FloatType )
+			return ( float[] ) data;
+		return null;
+	}
+
+	/**
+	 * Get the primitive array that stores the pixels of an {@link ArrayImg}
+	 *
+	 * @param rai
+	 *            the image
+	 * @return the array, or null if the image is not an {@link ArrayImg} backed by a primitive array
+	 */
+	static Object getStorageArray( final RandomAccessibleInterval< ? > rai )
+	{
+		if ( !( rai instanceof ArrayImg ) )
+			return null;
+		final Object access = ( ( ArrayImg< ?, ? > ) rai ).update( null );
+		if ( !( access instanceof ArrayDataAccess ) )
+			return null;
+		return ( ( ArrayDataAccess< ? > ) access ).getCurrentStorageArray();
+	}
+
+	/**
+	 * Process the indices of an array in parallel, splitting them in contiguous ranges so every task
+	 * runs a plain loop over its range
+	 *
+	 * @param length
+	 *            length of the array
+	 * @param action
+	 *            the action run for every range
+	 */
+	static void forEachRange( final int length, final RangeConsumer action )
+	{
+		final TaskExecutor executor = Parallelization.getTaskExecutor();
+		final int nTasks = Math.max( 1, Math.min( executor.suggestNumberOfTasks(), length / CHUNK_SIZE ) );
+		if ( nTasks == 1 )
+		{
+			action.accept( 0, length );
+			return;
+		}
+		final List< Integer > tasks = new ArrayList< Integer >();
+		for ( int t = 0; t < nTasks; t ++ )
+			tasks.add( t );
+		executor.forEach( tasks, t -> action.accept( ( int ) ( ( long ) length * t / nTasks ),
+				( int ) ( ( long ) length * ( t + 1 ) / nTasks ) ) );
+	}
+
+	/**
+	 * Action run on a range of indices of an array
+	 */
+	@FunctionalInterface
+	interface RangeConsumer
+	{
+		/**
+		 * @param from
+		 *            first index of the range, inclusive
+		 * @param to
+		 *            last index of the range, exclusive
+		 */
+		void accept( int from, int to );
+	}
+}
@@ -0,0 +1,508 @@
+/*-
+ * #%L
+ * Use deep learning frameworks from Java in an agnostic and isolated way.
+ * %%
+ * Copyright (C) 2022 - 2023 Institut Pasteur and BioImage.IO developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.bioimage.modelrunner.transformations;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import io.bioimage.modelrunner.bioimageio.description.TensorSpec;
+import io.bioimage.modelrunner.bioimageio.description.TransformSpec;
+import io.bioimage.modelrunner.metrics.InferenceMetrics;
+import io.bioimage.modelrunner.metrics.Stage;
+import io.bioimage.modelrunner.tensor.Tensor;
+import io.bioimage.modelrunner.transformations.AbstractTensorPixelTransformation.FloatUnaryOperator;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.converter.Converters;
+import net.imglib2.img.Img;
+import net.imglib2.img.ImgFactory;
+import net.imglib2.loops.LoopBuilder;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Util;
+
+/**
+ * Chain of the transformations described by a list of {@link TransformSpec}s, such as the
+ * preprocessing or postprocessing of a tensor of the rdf.yaml, {@link TensorSpec#getPreprocessing()}
+ * and {@link TensorSpec#getPostprocessing()}.
+ *
+ * The transformations are not run one after the other. Consecutive transformations that apply
+ * the same function to every pixel ({@link FusableTransformation}s) are fused into a single function,
+ * so the whole chain is written with one pass over the data. The transformations that need
+ * statistics of the tensor, such as "zero_mean_unit_variance" or "scale_range", compute them
+ * with one extra pass that reads the values through the functions fused before them, without
+ * writing any intermediate image. The transformations that cannot be fused, for example those
+ * with different parameters per channel, write the values computed until then and are applied
+ * in place afterwards.
+ *
+ * <pre>
+ * ProcessingPipeline preprocessing = ProcessingPipeline.createPreprocessing( tensorSpec );
+ * Tensor&lt;FloatType&gt; modelInput = preprocessing.apply( inputTensor );
+ * </pre>
+ *
+ * The outputs of the models are usually tensors of floats, that {@link #applyToOutput(Tensor)}
+ * transforms in place without any copy. If the pipeline does not need statistics of the tensor,
+ * see {@link #isPixelwise(String)}, it can also be applied tile by tile, for example by
+ * {@link io.bioimage.modelrunner.tiling.TiledModelRunner} before stitching the output patches.
+ * The outputs of other types are converted into floats, unless the pipeline ends with a
+ * "binarize" or is only a "clip", see {@link #applyToOutputWithNarrowType(Tensor)}.
+ *
+ * @author Carlos Garcia Lopez de Haro
+ */
+public class ProcessingPipeline
+{
+	private final List< TensorTransformation > transformations;
+
+	private final Stage stage;
+
+	private ProcessingPipeline( final List< TensorTransformation > transformations, final Stage stage )
+	{
+		this.transformations = transformations;
+		this.stage = stage;
+	}
+
+	/**
+	 * Create the pipeline of the preprocessing of a tensor
+	 *
+	 * @param tensorSpec
+	 *            the specs of the tensor
+	 * @return the pipeline, empty if the tensor has no preprocessing
+	 * @throws IllegalArgumentException if any transformation is not supported or has invalid arguments
+	 */
+	public static ProcessingPipeline createPreprocessing( final TensorSpec tensorSpec ) throws IllegalArgumentException
+	{
+		return build( tensorSpec.getPreprocessing() );
+	}
+
+	/**
+	 * Create the pipeline of the postprocessing of a tensor
+	 *
+	 * @param tensorSpec
+	 *            the specs of the tensor
+	 * @return the pipeline, empty if the tensor has no postprocessing
+	 * @throws IllegalArgumentException if any transformation is not supported or has invalid arguments
+	 */
+	public static ProcessingPipeline createPostprocessing( final TensorSpec tensorSpec ) throws IllegalArgumentException
+	{
+		return build( tensorSpec.getPostprocessing(), Stage.POSTPROCESSING );
+	}
+
+	/**
+	 * Create a pipeline from a list of transformation specs. Its duration is reported to
+	 * {@link InferenceMetrics} as {@link Stage#PREPROCESSING}
+	 *
+	 * @param specs
+	 *            the transformations, in the order they are applied. Null means no transformation
+	 * @return the pipeline
+	 * @throws IllegalArgumentException if any transformation is not supported or has invalid arguments
+	 */
+	public static ProcessingPipeline build( final List< TransformSpec > specs ) throws IllegalArgumentException
+	{
+		return build( specs, Stage.PREPROCESSING );
+	}
+
+	/**
+	 * Create a pipeline from a list of transformation specs
+	 *
+	 * @param specs
+	 *            the transformations, in the order they are applied. Null means no transformation
+	 * @param stage
+	 *            the stage the duration of the pipeline is reported as to {@link InferenceMetrics}
+	 * @return the pipeline
+	 * @throws IllegalArgumentException if any transformation is not supported or has invalid arguments
+	 */
+	public static ProcessingPipeline build( final List< TransformSpec > specs, final Stage stage ) throws IllegalArgumentException
+	{
+		final List< TensorTransformation > transformations = new ArrayList< TensorTransformation >();
+		if ( specs != null )
+		{
+			for ( final TransformSpec spec : specs )
+				transformations.add( createTransformation( spec ) );
+		}
+		return new ProcessingPipeline( transformations, stage );
+	}
+
+	/**
+	 * Create the transformation described by a spec, with its arguments set
+	 *
+	 * @param spec
+	 *            the spec of the transformation
+	 * @return the transformation
+	 * @throws IllegalArgumentException if the transformation is not supported or has invalid arguments
+	 */
+	public static TensorTransformation createTransformation( final TransformSpec spec ) throws IllegalArgumentException
+	{
+		if ( spec.isDIJ() )
+			throw new IllegalArgumentException( "DeepImageJ macro transformations cannot be run by JDLL: " + spec.getName() );
+		final TensorTransformation transformation = createTransformation( spec.getName() );
+		final Map< String, Object > kwargs = spec.getKwargs();
+		if ( kwargs == null )
+			return transformation;
+		for ( final Entry< String, Object > arg : kwargs.entrySet() )
+			setArgument( transformation, arg.getKey(), arg.getValue() );
+		return transformation;
+	}
+
+	private static TensorTransformation createTransformation( final String name )
+	{
+		if ( name == null )
+			throw new IllegalArgumentException( "The transformation does not have a name." );
+		switch ( name )
+		{
+		case "binarize":
+			return new BinarizeTransformation();
+		case "clip":
+			return new ClipTransformation();
+		case "scale_linear":
+			return new ScaleLinearTransformation();
+		case "sigmoid":
+			return new SigmoidTransformation();
+		case "scale_range":
+			return new ScaleRangeTransformation();
+		case "zero_mean_unit_variance":
+			return new ZeroMeanUnitVarianceTransformation();
+		default:
+			throw new IllegalArgumentException( "Unsupported transformation: " + name );
+		}
+	}
+
+	/**
+	 * Set an argument of the rdf.yaml, for example "min_percentile", with the corresponding
+	 * setter of the transformation, for example setMinPercentile(Object)
+	 */
+	private static void setArgument( final TensorTransformation transformation, final String key, final Object value )
+	{
+		String setter = "set";
+		for ( final String word : key.split( "_" ) )
+		{
+			if ( !word.isEmpty() )
+				setter += Character.toUpperCase( word.charAt( 0 ) ) + word.substring( 1 );
+		}
+		final Method method;
+		try
+		{
+			method = transformation.getClass().getMethod( setter, Object.class );
+		}
+		catch ( final NoSuchMethodException e )
+		{
+			throw new IllegalArgumentException( "Unsupported argument '" + key + "' for the transformation "
+					+ transformation.getName() + "." );
+		}
+		try
+		{
+			method.invoke( transformation, value );
+		}
+		catch ( final InvocationTargetException e )
+		{
+			if ( e.getCause() instanceof RuntimeException )
+				throw ( RuntimeException ) e.getCause();
+			throw new IllegalArgumentException( e.getCause() );
+		}
+		catch ( final IllegalAccessException e )
+		{
+			throw new IllegalArgumentException( e );
+		}
+	}
+
+	/**
+	 *
+	 * @return the transformations of the pipeline, in the order they are applied
+	 */
+	public List< TensorTransformation > getTransformations()
+	{
+		return Collections.unmodifiableList( transformations );
+	}
+
+	/**
+	 *
+	 * @return whether the pipeline does not have any transformation
+	 */
+	public boolean isEmpty()
+	{
+		return transformations.isEmpty();
+	}
+
+	/**
+	 * Set the statistics of the whole dataset used by the transformations of the pipeline whose
+	 * mode is 'per_dataset'. With them, those transformations do not depend on the statistics of
+	 * each tensor anymore, so the pipeline can be applied tile by tile without seams
+	 *
+	 * @param datasetStatistics
+	 *            the statistics of the dataset, or null to use the ones of each tensor
+	 */
+	public void setDatasetStatistics( final DatasetStatistics datasetStatistics )
+	{
+		for ( final TensorTransformation transformation : transformations )
+		{
+			if ( transformation instanceof ZeroMeanUnitVarianceTransformation )
+				( ( ZeroMeanUnitVarianceTransformation ) transformation ).setDatasetStatistics( datasetStatistics );
+			else if ( transformation instanceof ScaleRangeTransformation )
+				( ( ScaleRangeTransformation ) transformation ).setDatasetStatistics( datasetStatistics );
+		}
+	}
+
+	/**
+	 * Provide the tensors that the transformations of the pipeline can use as 'reference_tensor',
+	 * such as the inputs of the model for the postprocessing of its outputs. Every "scale_range"
+	 * whose reference is another tensor computes its percentiles from the one with that name,
+	 * and fails if it is not provided
+	 *
+	 * @param tensors
+	 *            the tensors that can be referenced, or null to remove them
+	 */
+	public void setReferenceTensors( final List< Tensor< ? > > tensors )
+	{
+		for ( final TensorTransformation transformation : transformations )
+		{
+			if ( !( transformation instanceof ScaleRangeTransformation ) )
+				continue;
+			final ScaleRangeTransformation scaleRange = ( ScaleRangeTransformation ) transformation;
+			if ( scaleRange.getTensorName() == null )
+				continue;
+			final Tensor< ? > reference = tensors == null ? null : Tensor.getTensorByNameFromList( tensors, scaleRange.getTensorName() );
+			scaleRange.setReference( reference );
+		}
+	}
+
+	/**
+	 * Whether every transformation of the pipeline applies a function to each pixel that does not
+	 * depend on statistics of the tensor. Then applying the pipeline to parts of a tensor, such
+	 * as tiles, gives the same result as applying it to the whole tensor
+	 *
+	 * @param axesOrder
+	 *            axes order of the tensors the pipeline is applied to
+	 * @return whether the pipeline can be applied part by part
+	 */
+	public boolean isPixelwise( final String axesOrder )
+	{
+		for ( final TensorTransformation transformation : transformations )
+		{
+			if ( !( transformation instanceof FusableTransformation ) )
+				return false;
+			if ( !( ( FusableTransformation ) transformation ).isPixelwise( axesOrder ) )
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Apply the pipeline to an output of a model. Tensors of floats are overwritten with the result,
+	 * without copying them, and the rest are transformed into a new tensor of floats
+	 *
+	 * @param <R>
+	 *            the pixel type of the tensor
+	 * @param output
+	 *            the output tensor
+	 * @return the transformed tensor, the same instance if it was a tensor of floats
+	 */
+	@SuppressWarnings( "unchecked" )
+	public < R extends RealType< R > & NativeType< R > > Tensor< FloatType > applyToOutput( final Tensor< R > output )
+	{
+		if ( output.getDataType() instanceof FloatType )
+		{
+			applyInPlace( ( Tensor< FloatType > ) output );
+			return ( Tensor< FloatType > ) output;
+		}
+		return apply( output );
+	}
+
+	/**
+	 * Apply the pipeline to an output of a model, keeping the outputs that are not floats in a
+	 * narrow pixel type when the result can be represented with it, instead of converting them
+	 * into floats:
+	 * <ul>
+	 * <li>if the last transformation is "binarize" and the pipeline is pixelwise, see
+	 * {@link #isPixelwise(String)}, the result is a mask of unsigned bytes computed in a single
+	 * pass with {@link BinarizeTransformation#applyToMask(Tensor)}</li>
+	 * <li>if the pipeline is only a "clip" whose bounds can be represented with the pixel type of the
+	 * output, the result is computed with {@link ClipTransformation#applyToSameType(Tensor)}</li>
+	 * </ul>
+	 * Otherwise, and always for tensors of floats, it is the same as {@link #applyToOutput(Tensor)}
+	 *
+	 * @param <R>
+	 *            the pixel type of the tensor
+	 * @param output
+	 *            the output tensor
+	 * @return the transformed tensor, the same instance if it was a tensor of floats
+	 */
+	public < R extends RealType< R > & NativeType< R > > Tensor< ? > applyToOutputWithNarrowType( final Tensor< R > output )
+	{
+		final R type = Util.getTypeFromInterval( output.getData() );
+		if ( type instanceof FloatType || transformations.isEmpty() )
+			return applyToOutput( output );
+		final TensorTransformation last = transformations.get( transformations.size() - 1 );
+		final long start = InferenceMetrics.start();
+		Tensor< ? > result = null;
+		if ( last instanceof BinarizeTransformation && isPixelwise( output.getAxesOrderString() ) )
+			result = applyToMask( output, ( BinarizeTransformation ) last );
+		else if ( last instanceof ClipTransformation && transformations.size() == 1
+				&& ( ( ClipTransformation ) last ).canKeepType( type ) )
+			result = ( ( ClipTransformation ) last ).applyToSameType( output );
+		if ( result == null )
+			return apply( output );
+		InferenceMetrics.stop( stage, start );
+		InferenceMetrics.recordBytes( stage, result.getData() );
+		return result;
+	}
+
+	/**
+	 * Binarize the values of the input after the transformations before the last one, fused into
+	 * a lazy view so the mask is written with a single pass over the input
+	 * @return the mask, or null if the transformations before the binarization cannot be fused
+	 */
+	private < R extends RealType< R > & NativeType< R > > Tensor< ? > applyToMask( final Tensor< R > input,
+			final BinarizeTransformation binarize )
+	{
+		if ( transformations.size() == 1 )
+			return binarize.applyToMask( input );
+		final String axesOrder = input.getAxesOrderString();
+		FloatUnaryOperator fused = null;
+		for ( final TensorTransformation transformation : transformations.subList( 0, transformations.size() - 1 ) )
+		{
+			FloatUnaryOperator fun = null;
+			if ( transformation instanceof ScaleRangeTransformation )
+				fun = ( ( ScaleRangeTransformation ) transformation ).getPixelOperation( view( input.getData(), fused ), axesOrder,
+						input.getName() );
+			else if ( transformation instanceof FusableTransformation )
+				fun = ( ( FusableTransformation ) transformation ).getPixelOperation( view( input.getData(), fused ), axesOrder );
+			if ( fun == null )
+				return null;
+			fused = compose( fused, fun );
+		}
+		return binarize.applyToMask( Tensor.build( input.getName(), axesOrder, view( input.getData(), fused ) ) );
+	}
+
+	/**
+	 * Apply the pipeline to a tensor, writing the result in a new tensor of floats with the
+	 * same name and axes order as the input
+	 *
+	 * @param <R>
+	 *            the pixel type of the input tensor
+	 * @param input
+	 *            the input tensor, that is not modified
+	 * @return a new tensor with the result
+	 */
+	public < R extends RealType< R > & NativeType< R > > Tensor< FloatType > apply( final Tensor< R > input )
+	{
+		final long start = InferenceMetrics.start();
+		final ImgFactory< FloatType > factory = Util.getArrayOrCellImgFactory( input.getData(), new FloatType() );
+		final Img< FloatType > outputImg = factory.create( input.getData() );
+		final Tensor< FloatType > output = Tensor.build( input.getName(), input.getAxesOrderString(), outputImg );
+		run( input.getData(), output );
+		InferenceMetrics.stop( stage, start );
+		InferenceMetrics.recordBytes( stage, outputImg );
+		return output;
+	}
+
+	/**
+	 * Apply the pipeline to a tensor of floats, overwriting it with the result
+	 *
+	 * @param input
+	 *            the tensor
+	 */
+	public void applyInPlace( final Tensor< FloatType > input )
+	{
+		final long start = InferenceMetrics.start();
+		run( input.getData(), input );
+		InferenceMetrics.stop( stage, start );
+		InferenceMetrics.recordBytes( stage, input.getData() );
+	}
+
+	/**
+	 * Run every transformation, reading the values from the source and writing the result in the output.
+	 * The fused function is kept in {@code pending} until a transformation that cannot be fused
+	 * or the end of the pipeline forces writing it
+	 */
+	private void run( final RandomAccessibleInterval< ? extends RealType< ? > > input, final Tensor< FloatType > output )
+	{
+		final String axesOrder = output.getAxesOrderString();
+		RandomAccessibleInterval< ? extends RealType< ? > > source = input;
+		FloatUnaryOperator pending = null;
+		for ( final TensorTransformation transformation : transformations )
+		{
+			FloatUnaryOperator fun = null;
+			if ( transformation instanceof ScaleRangeTransformation )
+				fun = ( ( ScaleRangeTransformation ) transformation ).getPixelOperation( view( source, pending ), axesOrder,
+						output.getName() );
+			else if ( transformation instanceof FusableTransformation )
+				fun = ( ( FusableTransformation ) transformation ).getPixelOperation( view( source, pending ), axesOrder );
+			if ( fun != null )
+			{
+				pending = compose( pending, fun );
+				continue;
+			}
+			write( source, pending, output.getData() );
+			source = output.getData();
+			pending = null;
+			transformation.applyInPlace( output );
+		}
+		if ( pending != null || source != output.getData() )
+			write( source, pending, output.getData() );
+	}
+
+	private static FloatUnaryOperator compose( final FloatUnaryOperator first, final FloatUnaryOperator second )
+	{
+		if ( first == null )
+			return second;
+		return v -> second.applyAsFloat( first.applyAsFloat( v ) );
+	}
+
+	/**
+	 * Lazy view of the values of the source after applying a function
+	 */
+	@SuppressWarnings( "unchecked" )
+	private static RandomAccessibleInterval< FloatType > view( final RandomAccessibleInterval< ? extends RealType< ? > > source,
+			final FloatUnaryOperator fun )
+	{
+		final RandomAccessibleInterval< RealType< ? > > rai = ( RandomAccessibleInterval< RealType< ? > > ) source;
+		if ( fun == null )
+			return Converters.convert( rai, ( i, o ) -> o.set( i.getRealFloat() ), new FloatType() );
+		return Converters.convert( rai, ( i, o ) -> o.set( fun.applyAsFloat( i.getRealFloat() ) ), new FloatType() );
+	}
+
+	/**
+	 * Write the values of the source after applying a function in the output, in a single pass
+	 */
+	@SuppressWarnings( "unchecked" )
+	private static void write( final RandomAccessibleInterval< ? extends RealType< ? > > source, final FloatUnaryOperator fun,
+			final RandomAccessibleInterval< FloatType > output )
+	{
+		if ( source == output )
+		{
+			if ( fun == null )
+				return;
+			LoopBuilder.setImages( output )
+					.multiThreaded()
+					.forEachPixel( o -> o.set( fun.applyAsFloat( o.get() ) ) );
+			return;
+		}
+		final RandomAccessibleInterval< RealType< ? > > rai = ( RandomAccessibleInterval< RealType< ? > > ) source;
+		final FloatUnaryOperator f = fun == null ? v -> v : fun;
+		LoopBuilder.setImages( rai, output )
+				.multiThreaded()
+				.forEachPixel( ( i, o ) -> o.set( f.applyAsFloat( i.getRealFloat() ) ) );
+	}
+}
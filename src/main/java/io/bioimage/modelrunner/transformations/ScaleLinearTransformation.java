@@ -23,6 +23,9 @@ import java.util.ArrayList;
 
 import io.bioimage.modelrunner.tensor.Tensor;
 
+import io.bioimage.modelrunner.transformations.AbstractTensorPixelTransformation.FloatUnaryOperator;
+
+import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.loops.LoopBuilder;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
@@ -30,7 +33,7 @@ import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.view.IntervalView;
 import net.imglib2.view.Views;
 
-public class ScaleLinearTransformation extends AbstractTensorTransformation
+public class ScaleLinearTransformation extends AbstractTensorTransformation implements FusableTransformation
 {
 
 	private static final String name = "scale_linear";
@@ -167,6 +170,17 @@ public class ScaleLinearTransformation extends AbstractTensorTransformation
 		
 	}
 	
+	@Override
+	public FloatUnaryOperator getPixelOperation( final RandomAccessibleInterval< FloatType > values, final String axesOrder )
+	{
+		checkRequiredArgs();
+		if ( gainDouble == null || !isGlobal( axes, axesOrder ) )
+			return null;
+		final float gain = gainDouble.floatValue();
+		final float offset = offsetDouble.floatValue();
+		return v -> gain * v + offset;
+	}
+	
 	private void globalScale( final Tensor< FloatType > output ) {
 		LoopBuilder.setImages( output.getData() )
 				.multiThreaded()
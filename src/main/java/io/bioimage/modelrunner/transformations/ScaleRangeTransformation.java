@@ -19,37 +19,42 @@
  */
 package io.bioimage.modelrunner.transformations;
 
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
 
 import io.bioimage.modelrunner.tensor.Tensor;
 
-import net.imglib2.Cursor;
-import net.imglib2.IterableInterval;
+import io.bioimage.modelrunner.transformations.AbstractTensorPixelTransformation.FloatUnaryOperator;
+
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.img.array.ArrayImg;
 import net.imglib2.img.array.ArrayImgs;
 import net.imglib2.img.basictypeaccess.array.FloatArray;
 import net.imglib2.loops.LoopBuilder;
+import net.imglib2.parallel.Parallelization;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
 import net.imglib2.view.IntervalView;
 import net.imglib2.view.Views;
 
-public class ScaleRangeTransformation extends AbstractTensorTransformation
+public class ScaleRangeTransformation extends AbstractTensorTransformation implements FusableTransformation
 {
 
 	private static final String name = "scale_range";
 	private double minPercentile = 0;
-	private double maxPercentile = 100;
+	private double maxPercentile = 1;
 	private String axes;
-	private Mode mode = Mode.PER_SAMPLE;
 	private String tensorName;
 	private float eps = (float) Math.pow(10, -6);
+	private DatasetStatistics datasetStatistics;
+	private Tensor<?> reference;
 	
 	public ScaleRangeTransformation()
 	{
 		super( name );
+		setMode( Mode.PER_SAMPLE );
 	}
 	
 	public void setMinPercentile(Object minPercentile) {
@@ -96,37 +101,133 @@ public class ScaleRangeTransformation extends AbstractTensorTransformation
 					 + ". The provided argument is " + tensorName.getClass());
 	}
 	
+	public void setReferenceTensor(Object referenceTensor) {
+		setTensorName(referenceTensor);
+	}
+	
+	/**
+	 * 
+	 * @return name of the tensor the percentiles are computed from, set as 'reference_tensor'
+	 * 	in the rdf.yaml, or null if they are computed from the tensor transformed
+	 */
+	public String getTensorName() {
+		return tensorName;
+	}
+	
+	/**
+	 * Set the tensor the percentiles are computed from when the 'reference_tensor' is not the
+	 * tensor transformed, for example the input of the model when the outputs are postprocessed.
+	 * The reference is only used if its name is the 'reference_tensor'
+	 * @param reference
+	 * 	the reference tensor, or null to remove it
+	 */
+	public void setReference(Tensor<?> reference) {
+		this.reference = reference;
+	}
+	
+	public void setEps(Object eps) {
+		if (eps instanceof Integer) {
+			this.eps = (float) (int) eps;
+		} else if (eps instanceof Double) {
+			this.eps = (float) (double) eps;
+		} else if (eps instanceof String) {
+			this.eps = Float.valueOf((String) eps);
+		} else {
+			throw new IllegalArgumentException("'eps' parameter has to be either and instance of "
+					+ Integer.class + " or " + Double.class
+					+ ". The provided argument is an instance of: " + eps.getClass());
+		}
+	}
+	
 	public void setMode(Object mode) {
 		if (mode instanceof String )
-			this.mode = Mode.valueOf(((String) mode).toUpperCase());
+			setMode(Mode.valueOf(((String) mode).toUpperCase()));
 		else if (mode instanceof Mode)
-			this.mode = (Mode) mode;
+			setMode((Mode) mode);
 		else
 			throw new IllegalArgumentException("'mode' parameter has to be either and instance of " + String.class
 					+ " or " + Mode.class + ". The provided argument is an instance of: " + mode.getClass());
 	}
 
+	/**
+	 * Set the statistics of the whole dataset used when the mode is 'per_dataset', so every tile
+	 * or frame is scaled with the same percentiles. If they are not set, the mode 'per_dataset'
+	 * uses the percentiles of each sample, as 'per_sample'.
+	 * Only the scaling over every axis supports dataset statistics
+	 * @param datasetStatistics
+	 * 	the statistics of the dataset, or null to use the ones of each sample
+	 */
+	public void setDatasetStatistics(DatasetStatistics datasetStatistics) {
+		this.datasetStatistics = datasetStatistics;
+	}
+	
+	private boolean usesDatasetStatistics() {
+		return getMode() == Mode.PER_DATASET && datasetStatistics != null;
+	}
+
 	@Override
 	public < R extends RealType< R > & NativeType< R > > Tensor< FloatType > apply( final Tensor< R > input )
 	{
 		final Tensor< FloatType > output = makeOutput( input );
-		applyInPlace(output);
+		scale(input.getName(), input.getData(), output);
 		return output;
 	}
 
 	@Override
 	public void applyInPlace(Tensor<FloatType> input) {
-		String selectedAxes = "";
-		for (String ax : input.getAxesOrderString().split("")) {
-			if (axes != null && !axes.toLowerCase().contains(ax.toLowerCase())
-					&& !ax.toLowerCase().equals("b"))
-				selectedAxes += ax;
+		scale(input.getName(), input.getData(), input);
+	}
+	
+	/**
+	 * Whether the percentiles are computed from a tensor different to the one transformed
+	 * @param name
+	 * 	name of the tensor transformed, null if it is unknown
+	 */
+	private boolean usesReference(String name) {
+		return tensorName != null && !tensorName.equals(name);
+	}
+	
+	/**
+	 * 
+	 * @param name
+	 * 	name of the tensor transformed
+	 * @return the tensor the percentiles are computed from
+	 * @throws IllegalArgumentException if the reference tensor has not been provided
+	 */
+	private Tensor<?> getReference(String name) throws IllegalArgumentException {
+		if (reference == null || !tensorName.equals(reference.getName()))
+			throw new IllegalArgumentException("The 'scale_range' transformation of the tensor '" + name
+					+ "' computes the percentiles from the tensor '" + tensorName + "', which has not been "
+					+ "provided. Provide it with setReference() or ProcessingPipeline.setReferenceTensors().");
+		return reference;
+	}
+	
+	/**
+	 * Scale the output with the percentiles of the source. The percentiles are computed from the
+	 * source, that holds the same values as the output with its original type, so images of integers
+	 * are counted with exact histograms instead of being sorted, or from the reference tensor
+	 * if it is not the tensor transformed
+	 * @param <R>
+	 * 	the pixel type of the source
+	 * @param name
+	 * 	name of the tensor transformed
+	 * @param source
+	 * 	the image the percentiles are computed from
+	 * @param input
+	 * 	the tensor that is scaled in place
+	 */
+	private < R extends RealType< R > > void scale(String name, RandomAccessibleInterval<R> source, Tensor<FloatType> input) {
+		if (usesReference(name)) {
+			scaleWithReference(getReference(name), input);
+			return;
 		}
-		if (axes == null || selectedAxes.equals("") 
-				|| input.getAxesOrderString().replace("b", "").length() == selectedAxes.length()) {
-			globalScale(input);
+		if (isGlobal(axes, input.getAxesOrderString())) {
+			globalScale(source, input);
+		} else if (usesDatasetStatistics()) {
+			throw new IllegalArgumentException("The dataset statistics can only be used to "
+					+ "scale over every axis, not with the introduced 'axes'.");
 		} else if (axes.length() <= 2 && axes.length() > 0) {
-			axesScale(input, selectedAxes);
+			axesScale(source, input, getSelectedAxes(axes, input.getAxesOrderString()));
 		} else {
 			//TODO allow scaling of more complex structures
 			throw new IllegalArgumentException("At the moment, only allowed scaling of planes.");
@@ -134,34 +235,96 @@ public class ScaleRangeTransformation extends AbstractTensorTransformation
 		
 	}
 	
-	private void globalScale( final Tensor< FloatType > output ) {
-		float minPercentileVal = findPercentileValue(output.getData(), minPercentile);
-		float maxPercentileVal = findPercentileValue(output.getData(), maxPercentile);
+	/**
+	 * Scale the tensor with the percentiles of the reference tensor. When scaling over every axis
+	 * the reference can have any shape, as only its percentiles are used, otherwise each plane
+	 * is scaled with the percentiles of the same plane of the reference, so both need the same
+	 * axes and shape
+	 * @param <R>
+	 * 	the pixel type of the reference
+	 * @param ref
+	 * 	the reference tensor
+	 * @param input
+	 * 	the tensor that is scaled in place
+	 */
+	private < R extends RealType< R > & NativeType< R > > void scaleWithReference(Tensor<R> ref, Tensor<FloatType> input) {
+		if (!isGlobal(axes, input.getAxesOrderString())
+				&& (!ref.getAxesOrderString().equals(input.getAxesOrderString())
+						|| !Intervals.equalDimensions(ref.getData(), input.getData())))
+			throw new IllegalArgumentException("The reference tensor '" + ref.getName() + "' of the 'scale_range' "
+					+ "transformation needs to have the same axes and shape as the tensor transformed '"
+					+ input.getName() + "' to scale over the introduced 'axes'.");
+		scale(ref.getName(), ref.getData(), input);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * If the transformation has a 'reference_tensor', the tensor transformed is not known, so
+	 * the percentiles are always computed from the reference set with {@link #setReference(Tensor)}.
+	 * Use {@link #getPixelOperation(RandomAccessibleInterval, String, String)} to provide the name
+	 */
+	@Override
+	public FloatUnaryOperator getPixelOperation( final RandomAccessibleInterval< FloatType > values, final String axesOrder )
+	{
+		return getPixelOperation( values, axesOrder, null );
+	}
+
+	/**
+	 * Same as {@link #getPixelOperation(RandomAccessibleInterval, String)} for the tensor with the
+	 * name provided, so the values are used unless the 'reference_tensor' is another tensor
+	 * @param values
+	 * 	the values the function will be applied to
+	 * @param axesOrder
+	 * 	the axes order of the tensor
+	 * @param name
+	 * 	name of the tensor transformed, or null if it is unknown
+	 * @return the function, or null if the transformation cannot be applied with a single function
+	 */
+	FloatUnaryOperator getPixelOperation( final RandomAccessibleInterval< FloatType > values, final String axesOrder,
+			final String name )
+	{
+		if ( !isGlobal( axes, axesOrder ) )
+			return null;
+		final float[] percentiles = usesReference( name ) ? computePercentiles( getReference( name ) )
+				: computePercentiles( values );
+		final float minPercentileVal = percentiles[ 0 ];
+		final float maxPercentileVal = percentiles[ 1 ];
+		final float epsilon = eps;
+		return v -> ( v - minPercentileVal ) / ( maxPercentileVal - minPercentileVal + epsilon );
+	}
+	
+	@Override
+	public boolean needsStatistics()
+	{
+		return !usesDatasetStatistics();
+	}
+	
+	private < R extends RealType< R > > void globalScale( final RandomAccessibleInterval< R > source, final Tensor< FloatType > output ) {
+		float[] percentiles = computePercentiles(source);
+		float minPercentileVal = percentiles[0];
+		float maxPercentileVal = percentiles[1];
 		LoopBuilder.setImages( output.getData() )
 				.multiThreaded()
 				.forEachPixel( i -> i.set( ( i.get() - minPercentileVal ) / ( maxPercentileVal - minPercentileVal + eps ) ) );
 	}
 	
-	private float findPercentileValue(RandomAccessibleInterval<FloatType> rai, double percentile) {
-		final IterableInterval<FloatType> flatImage = Views.iterable(rai);
-		final Cursor<FloatType> cursor = flatImage.cursor();
-		long flatSize = Arrays.stream(flatImage.dimensionsAsLongArray()).reduce(1, (a, b) -> a * b);
-		double[] flatArr = new double[(int) flatSize];
-		
-		int count = 0;
-		while ( cursor.hasNext() )
-		{
-			cursor.next();
-			flatArr[count ++] = cursor.get().get();
-		}
-		Arrays.sort(flatArr);
-		
-		int percentilePos = (int) (flatSize * percentile);
-		percentilePos = percentilePos >= flatArr.length ? flatArr.length - 1 : percentilePos;
-		return (float) flatArr[percentilePos];
+	private < R extends RealType< R > & NativeType< R > > float[] computePercentiles( final Tensor< R > ref ) {
+		return computePercentiles( ref.getData() );
+	}
+	
+	private < R extends RealType< R > > float[] computePercentiles( final RandomAccessibleInterval< R > source ) {
+		if (!usesDatasetStatistics())
+			return Percentiles.compute(source, minPercentile, maxPercentile);
+		return new float[] { ( float ) datasetStatistics.getPercentile( minPercentile ),
+				( float ) datasetStatistics.getPercentile( maxPercentile ) };
 	}
 	
-	private void axesScale( final Tensor< FloatType > output, String axesOfInterest) {
+	/**
+	 * Scale every plane with its own percentiles. The planes are processed in parallel
+	 */
+	private < R extends RealType< R > > void axesScale( final RandomAccessibleInterval< R > source,
+			final Tensor< FloatType > output, String axesOfInterest) {
 		long[] start = new long[output.getData().numDimensions()];
 		long[] dims = output.getData().dimensionsAsLongArray();
 		long[] indOfDims = new long[axesOfInterest.length()];
@@ -174,7 +337,7 @@ public class ScaleRangeTransformation extends AbstractTensorTransformation
 		}
 		
 		long[][] points = getAllCombinations(sizeOfDims);
-		int c = 0;
+		List<long[][]> planes = new ArrayList<long[][]>();
 		for (long[] pp : points) {
 			for (int i = 0; i < pp.length; i ++) {
 				start[(int) indOfDims[i]] = pp[i];
@@ -183,13 +346,17 @@ public class ScaleRangeTransformation extends AbstractTensorTransformation
 			// Define the view by defining the length per axis
 			long[] end = new long[dims.length];
 			for (int i = 0; i < dims.length; i ++) end[i] = dims[i] - start[i];
-			IntervalView<FloatType> plane = Views.offsetInterval( output.getData(), start, end );
-			float minPercentileVal = findPercentileValue(plane, minPercentile);
-			float maxPercentileVal = findPercentileValue(plane, maxPercentile);
+			planes.add(new long[][] {start.clone(), end});
+		}
+		Parallelization.getTaskExecutor().forEach(planes, pp -> {
+			IntervalView<R> sourcePlane = Views.offsetInterval( source, pp[0], pp[1] );
+			IntervalView<FloatType> plane = Views.offsetInterval( output.getData(), pp[0], pp[1] );
+			float[] percentiles = Percentiles.compute(sourcePlane, minPercentile, maxPercentile);
+			float minPercentileVal = percentiles[0];
+			float maxPercentileVal = percentiles[1];
 			LoopBuilder.setImages( plane )
-					.multiThreaded()
 					.forEachPixel( i -> i.set( ( i.get() - minPercentileVal ) / ( maxPercentileVal - minPercentileVal  + eps) ) );
-		}
+		});
 	}
 	
 	private static long[][] getAllCombinations(long[] arr){
@@ -21,11 +21,12 @@ package io.bioimage.modelrunner.transformations;
 
 import io.bioimage.modelrunner.tensor.Tensor;
 
+import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.real.FloatType;
 
-public class SigmoidTransformation extends AbstractTensorPixelTransformation
+public class SigmoidTransformation extends AbstractTensorPixelTransformation implements FusableTransformation
 {
 	private static String name = "sigmoid";
 
@@ -34,6 +35,12 @@ public class SigmoidTransformation extends AbstractTensorPixelTransformation
 		super(name);
 	}
 
+	@Override
+	public FloatUnaryOperator getPixelOperation( final RandomAccessibleInterval< FloatType > values, final String axesOrder )
+	{
+		return v -> ( float ) ( 1. / ( 1. + Math.exp( -v ) ) );
+	}
+
 	public < R extends RealType< R > & NativeType< R > > Tensor< FloatType > apply( final Tensor< R > input )
 	{
 		super.setFloatUnitaryOperator( v -> ( float ) ( 1. / ( 1. + Math.exp( -v ) ) ) );
@@ -43,6 +50,6 @@ public class SigmoidTransformation extends AbstractTensorPixelTransformation
 	public void applyInPlace( final Tensor< FloatType > input )
 	{
 		super.setFloatUnitaryOperator( v -> ( float ) ( 1. / ( 1. + Math.exp( -v ) ) ) );
-		super.apply(input);
+		super.applyInPlace(input);
 	}
 }
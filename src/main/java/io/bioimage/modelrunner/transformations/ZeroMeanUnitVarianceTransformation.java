@@ -23,6 +23,8 @@ import java.util.ArrayList;
 
 import io.bioimage.modelrunner.tensor.Tensor;
 
+import io.bioimage.modelrunner.transformations.AbstractTensorPixelTransformation.FloatUnaryOperator;
+
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.img.array.ArrayImg;
 import net.imglib2.img.array.ArrayImgs;
@@ -34,7 +36,7 @@ import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.view.IntervalView;
 import net.imglib2.view.Views;
 
-public class ZeroMeanUnitVarianceTransformation extends AbstractTensorTransformation
+public class ZeroMeanUnitVarianceTransformation extends AbstractTensorTransformation implements FusableTransformation
 {
 	
 	private static String name = "zero_mean_unit_variace";
@@ -42,9 +44,9 @@ public class ZeroMeanUnitVarianceTransformation extends AbstractTensorTransforma
 	private Double stdDouble;
 	private double[] meanArr;
 	private double[] stdArr;
-	private Mode mode = Mode.PER_SAMPLE;
 	private String axes;
 	private float eps = (float) Math.pow(10, -6);
+	private DatasetStatistics datasetStatistics;
 
 	private static String FIXED_MODE_ERR = "If the mode is 'fixed', the parameters 'mean' and"
 			+ " 'std need to be specified";
@@ -54,6 +56,7 @@ public class ZeroMeanUnitVarianceTransformation extends AbstractTensorTransforma
 	public ZeroMeanUnitVarianceTransformation()
 	{
 		super( name );
+		setMode( Mode.PER_SAMPLE );
 	}
 	
 	public void setMean(Object mean) {
@@ -127,30 +130,60 @@ public class ZeroMeanUnitVarianceTransformation extends AbstractTensorTransforma
 					 + ". The provided argument is " + axes.getClass());
 	}
 	
+	public void setEps(Object eps) {
+		if (eps instanceof Integer) {
+			this.eps = (float) (int) eps;
+		} else if (eps instanceof Double) {
+			this.eps = (float) (double) eps;
+		} else if (eps instanceof String) {
+			this.eps = Float.valueOf((String) eps);
+		} else {
+			throw new IllegalArgumentException("'eps' parameter has to be either and instance of "
+					+ Integer.class + " or " + Double.class
+					+ ". The provided argument is an instance of: " + eps.getClass());
+		}
+	}
+	
 	public void setMode(Object mode) {
 		if (mode instanceof String )
-			this.mode = Mode.valueOf(((String) mode).toUpperCase());
+			setMode(Mode.valueOf(((String) mode).toUpperCase()));
 		else if (mode instanceof Mode)
-			this.mode = (Mode) mode;
+			setMode((Mode) mode);
 		else
 			throw new IllegalArgumentException("'mode' parameter has to be either and instance of " + String.class
 					+ " or " + Mode.class + ". The provided argument is an instance of: " + mode.getClass());
 	}
 	
+	/**
+	 * Set the statistics of the whole dataset used when the mode is 'per_dataset', so every tile
+	 * or frame is normalized with the same mean and standard deviation. If they are not set,
+	 * the mode 'per_dataset' uses the statistics of each sample, as 'per_sample'.
+	 * Only the normalization over every axis supports dataset statistics
+	 * @param datasetStatistics
+	 * 	the statistics of the dataset, or null to use the ones of each sample
+	 */
+	public void setDatasetStatistics(DatasetStatistics datasetStatistics) {
+		this.datasetStatistics = datasetStatistics;
+	}
+	
+	private boolean usesDatasetStatistics() {
+		return getMode() == Mode.PER_DATASET && datasetStatistics != null;
+	}
+	
 	public void checkRequiredArgs() {
-		if (this.mode == Mode.FIXED && this.meanArr == null && this.meanDouble == null) {
+		if (getMode() == Mode.FIXED && this.meanArr == null && this.meanDouble == null) {
 			throw new IllegalArgumentException(String.format(DEFAULT_MISSING_ARG_ERR, "mean")
 					+ System.lineSeparator() + "If 'mode' parameter equals 'fixed', the 'mean' "
 							+ "argument should be provided too.");
-		} else if (this.mode == Mode.FIXED && this.stdArr == null && this.stdDouble == null) {
+		} else if (getMode() == Mode.FIXED && this.stdArr == null && this.stdDouble == null) {
 			throw new IllegalArgumentException(String.format(DEFAULT_MISSING_ARG_ERR, "std")
 					+ System.lineSeparator() + "If 'mode' parameter equals 'fixed', the 'std' "
 					+ "argument should be provided too.");
-		} else if (this.mode == Mode.FIXED && ((stdDouble == null && meanDouble != null)
+		} else if (getMode() == Mode.FIXED && ((stdDouble == null && meanDouble != null)
 				|| (stdDouble != null && meanDouble == null))) {
 			throw new IllegalArgumentException("Both arguments 'mean' and "
 					+ "'std' need to be of the same type. Either a single value or an array.");
-		} else if (this.mode == Mode.FIXED && this.meanArr != null && axes == null) {
+		} else if (getMode() == Mode.FIXED && this.meanArr != null && axes == null) {
 			throw new IllegalArgumentException("If 'mean' and 'std' are provided as arrays "
 					+ "and 'mode' is 'fixed', the corresponding 'axes' argument should be provided too.");
 		}
@@ -169,31 +202,28 @@ public class ZeroMeanUnitVarianceTransformation extends AbstractTensorTransforma
 	public void applyInPlace( final Tensor< FloatType > input )
 	{
 		checkRequiredArgs();
-		String selectedAxes = "";
-		for (String ax : input.getAxesOrderString().split("")) {
-			if (axes != null && !axes.toLowerCase().contains(ax.toLowerCase())
-					&& !ax.toLowerCase().equals("b"))
-				selectedAxes += ax;
-		}
-		if (mode == Mode.FIXED &&  (axes == null || selectedAxes.equals("") 
-				|| input.getAxesOrderString().replace("b", "").length() == selectedAxes.length())) {
+		final boolean global = isGlobal(axes, input.getAxesOrderString());
+		final String selectedAxes = getSelectedAxes(axes, input.getAxesOrderString());
+		if (getMode() == Mode.FIXED && global) {
 			if (meanDouble == null && meanArr == null)
 				throw new IllegalArgumentException(FIXED_MODE_ERR);
 			else if (meanDouble == null)
 				throw new IllegalArgumentException("The parameters 'mean' and 'std' "
 						+ "cannot be arrays with the introduced 'axes'.");
 			fixedModeGlobalMeanStd(input);
-		} else if (mode != Mode.FIXED && (axes == null || selectedAxes.equals("") 
-				|| input.getAxesOrderString().replace("b", "").length() == selectedAxes.length())) {
+		} else if (getMode() != Mode.FIXED && global) {
 			if (meanDouble != null || meanArr != null)
 				throw new IllegalArgumentException(NOT_FIXED_MODE_ERR);
 			notFixedModeGlobalMeanStd(input);
-		} else if (mode != Mode.FIXED 
+		} else if (getMode() != Mode.FIXED 
 				&& axes.length() <= 2 && axes.length() > 0) {
 			if (meanDouble != null || meanArr != null)
 				throw new IllegalArgumentException(NOT_FIXED_MODE_ERR);
+			else if (usesDatasetStatistics())
+				throw new IllegalArgumentException("The dataset statistics can only be used to "
+						+ "normalize over every axis, not with the introduced 'axes'.");
 			notFixedAxesMeanStd(input, selectedAxes);
-		} else if (mode == Mode.FIXED 
+		} else if (getMode() == Mode.FIXED 
 				&& axes.length() <= 2 && axes.length() > 0) {
 			if (meanDouble == null && meanArr == null)
 				throw new IllegalArgumentException(FIXED_MODE_ERR);
@@ -207,6 +237,37 @@ public class ZeroMeanUnitVarianceTransformation extends AbstractTensorTransforma
 		}
 	}
 	
+	@Override
+	public FloatUnaryOperator getPixelOperation( final RandomAccessibleInterval< FloatType > values, final String axesOrder )
+	{
+		checkRequiredArgs();
+		if ( !isGlobal( axes, axesOrder ) || ( getMode() == Mode.FIXED && meanDouble == null ) )
+			return null;
+		if ( getMode() != Mode.FIXED && ( meanDouble != null || meanArr != null ) )
+			throw new IllegalArgumentException(NOT_FIXED_MODE_ERR);
+		final float mean;
+		final float std;
+		if ( getMode() == Mode.FIXED )
+		{
+			mean = meanDouble.floatValue();
+			std = stdDouble.floatValue();
+		}
+		else
+		{
+			final float[] meanStd = notFixedMeanStd( values );
+			mean = meanStd[ 0 ];
+			std = meanStd[ 1 ];
+		}
+		final float epsilon = eps;
+		return v -> ( v - mean ) / ( std + epsilon );
+	}
+	
+	@Override
+	public boolean needsStatistics()
+	{
+		return getMode() != Mode.FIXED && !usesDatasetStatistics();
+	}
+	
 	private void fixedModeGlobalMeanStd( final Tensor< FloatType > output ) {
 
 		LoopBuilder.setImages( output.getData() )
@@ -226,8 +287,14 @@ public class ZeroMeanUnitVarianceTransformation extends AbstractTensorTransforma
 			sizeOfDims[i] = dims[(int) indOfDims[i]];
 		}
 		
-		long[][] points = getAllCombinations(sizeOfDims);
+		int[] planeDims = new int[indOfDims.length];
+		for (int i = 0; i < indOfDims.length; i ++)
+			planeDims[i] = (int) indOfDims[i];
+		// The statistics of every plane are computed at once, with a single pass over the tensor
+		final Moments[] planeMoments = Moments.compute( output.getData(), planeDims );
 		
+		long[][] points = getAllCombinations(sizeOfDims);
+		int c = 0;
 		for (long[] pp : points) {
 			for (int i = 0; i < pp.length; i ++) {
 				start[(int) indOfDims[i]] = pp[i];
@@ -237,9 +304,8 @@ public class ZeroMeanUnitVarianceTransformation extends AbstractTensorTransforma
 			long[] end = new long[dims.length];
 			for (int i = 0; i < dims.length; i ++) end[i] = dims[i] - start[i];
 			IntervalView<FloatType> plane = Views.offsetInterval( output.getData(), start, end );
-			final float[] meanStd = meanStd( plane );
-			final float mean = meanStd[ 0 ];
-			final float std = meanStd[ 1 ];
+			final float mean = ( float ) planeMoments[ c ].getMean();
+			final float std = ( float ) planeMoments[ c ++ ].getStd();
 			LoopBuilder.setImages( plane )
 					.multiThreaded()
 					.forEachPixel( i -> i.set( ( i.get() - mean ) / ( std  + eps ) ) );
@@ -279,7 +345,7 @@ public class ZeroMeanUnitVarianceTransformation extends AbstractTensorTransforma
 	
 	private void notFixedModeGlobalMeanStd( final Tensor< FloatType > output ) {
 
-		final float[] meanStd = meanStd( output.getData() );
+		final float[] meanStd = notFixedMeanStd( output.getData() );
 		final float mean = meanStd[ 0 ];
 		final float std = meanStd[ 1 ];
 		LoopBuilder.setImages( output.getData() )
@@ -287,32 +353,25 @@ public class ZeroMeanUnitVarianceTransformation extends AbstractTensorTransforma
 				.forEachPixel( i -> i.set( ( i.get() - mean ) / ( std  + eps ) ) );
 	}
 
+	private float[] notFixedMeanStd( final RandomAccessibleInterval< FloatType > rai ) {
+		if (!usesDatasetStatistics())
+			return meanStd( rai );
+		return new float[] { ( float ) datasetStatistics.getMean(), ( float ) datasetStatistics.getStd() };
+	}
+
+	/**
+	 * Compute the mean and standard deviation of an image in parallel, with a single pass over it
+	 * @param rai
+	 * 	the image
+	 * @return an array with the mean and the standard deviation
+	 */
 	public static float[] meanStd( final RandomAccessibleInterval< FloatType > rai )
 	{
-		// Mean.
-		double sum = 0.;
-		long n = 0;
-		for ( final FloatType p : Views.iterable( rai ) )
-		{
-			sum += p.getRealDouble();
-			n++;
-		}
+		final Moments moments = Moments.compute( rai );
+		final long n = moments.getCount();
 		if ( n < 1 )
 			throw new IllegalArgumentException( "Tensor must contain at least 2 pixels, got " + n );
-
-		final double mean = sum / n;
-
-		// Variance.
-		double sumdx2 = 0.;
-		for ( final FloatType p : Views.iterable( rai ) )
-		{
-			final double dx = p.getRealDouble() - mean;
-			sumdx2 += dx * dx;
-		}
-		final double variance = sumdx2 /  n ;
-		final double std = Math.sqrt( variance );
-
-		return new float[] { ( float ) mean, ( float ) std };
+		return new float[] { ( float ) moments.getMean(), ( float ) moments.getStd() };
 	}
 	
 	private static long[][] getAllCombinations(long[] arr){
@@ -0,0 +1,72 @@
+/*-
+ * #%L
+ * Use deep learning frameworks from Java in an agnostic and isolated way.
+ * %%
+ * Copyright (C) 2022 - 2023 Institut Pasteur and BioImage.IO developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.bioimage.modelrunner.engine;
+
+import java.util.List;
+
+import io.bioimage.modelrunner.exceptions.LoadModelException;
+import io.bioimage.modelrunner.exceptions.RunModelException;
+import io.bioimage.modelrunner.tensor.Tensor;
+import net.imglib2.converter.RealTypeConverters;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.type.numeric.real.FloatType;
+
+/**
+ * Mock engine that copies every input into the output at the same position, so JDLL can be
+ * tested and benchmarked without any Deep Learning framework or GPU. It is published in the
+ * test jar, that the benchmarks module depends on.
+ * The outputs have to be tensors of the same shape as the inputs, or empty tensors,
+ * that are filled with a float copy of the input
+ *
+ * @author Carlos Garcia Lopez de Haro
+ */
+public class EchoEngine implements DeepLearningEngineInterface
+{
+
+	@Override
+	public void run( List< Tensor< ? > > inputTensors, List< Tensor< ? > > outputTensors ) throws RunModelException
+	{
+		for ( int i = 0; i < Math.min( inputTensors.size(), outputTensors.size() ); i ++ )
+			echo( inputTensors.get( i ), outputTensors.get( i ) );
+	}
+
+	@SuppressWarnings( "unchecked" )
+	private static void echo( Tensor< ? > input, Tensor< ? > output )
+	{
+		if ( !output.isEmpty() ) {
+			RealTypeConverters.copyFromTo( input.getData(), output.getData() );
+			return;
+		}
+		Img< FloatType > copy = new ArrayImgFactory<>( new FloatType() ).create( input.getData() );
+		RealTypeConverters.copyFromTo( input.getData(), copy );
+		( ( Tensor< FloatType > ) output ).setData( copy );
+	}
+
+	@Override
+	public void loadModel( String modelFolder, String modelSource ) throws LoadModelException
+	{
+	}
+
+	@Override
+	public void closeModel()
+	{
+	}
+}
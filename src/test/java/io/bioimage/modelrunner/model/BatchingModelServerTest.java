@@ -0,0 +1,238 @@
+/*-
+ * #%L
+ * Use deep learning frameworks from Java in an agnostic and isolated way.
+ * %%
+ * Copyright (C) 2022 - 2023 Institut Pasteur and BioImage.IO developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.bioimage.modelrunner.model;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.bioimage.modelrunner.bioimageio.description.ModelDescriptor;
+import io.bioimage.modelrunner.engine.EchoEngine;
+import io.bioimage.modelrunner.exceptions.RunModelException;
+import io.bioimage.modelrunner.tensor.Tensor;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+/**
+ * Tests that {@link BatchingModelServer} packs concurrent requests into batches and
+ * gives every caller its own part of the outputs
+ *
+ * @author Carlos Garcia Lopez de Haro
+ */
+public class BatchingModelServerTest
+{
+	private static final String AXES = "bcyx";
+
+	@TempDir
+	Path tmp;
+
+	private BatchRecordingEngine engine;
+
+	private Model model;
+
+	private ModelDescriptor descriptor;
+
+	@BeforeEach
+	public void loadModel() throws Exception
+	{
+		engine = new BatchRecordingEngine();
+		model = Model.createModelWithEngine( tmp.toString(), null, engine );
+		model.loadModel();
+		descriptor = ModelDescriptor.readFromYamlTextString( createYaml(), false );
+	}
+
+	@AfterEach
+	public void closeModel()
+	{
+		model.closeModel();
+	}
+
+	@Test
+	public void testRequestsArePackedInOneBatch() throws Exception
+	{
+		try ( BatchingModelServer server = BatchingModelServer.build( model, descriptor, 4, 10000 ) )
+		{
+			final List< CompletableFuture< List< Tensor< ? > > > > futures = submitConcurrently( server, 4, 8 );
+			for ( int i = 0; i < futures.size(); i ++ )
+				assertOutputValue( futures.get( i ).get( 10, TimeUnit.SECONDS ), i );
+			assertEquals( Arrays.asList( 4L ), engine.batchSizes );
+		}
+	}
+
+	@Test
+	public void testPartialBatchIsFlushedAfterTheDelay() throws Exception
+	{
+		try ( BatchingModelServer server = BatchingModelServer.build( model, descriptor, 8, 500 ) )
+		{
+			final long start = System.nanoTime();
+			final List< CompletableFuture< List< Tensor< ? > > > > futures = submitConcurrently( server, 3, 8 );
+			for ( int i = 0; i < futures.size(); i ++ )
+				assertOutputValue( futures.get( i ).get( 10, TimeUnit.SECONDS ), i );
+			// The batch is not full, so it is only run once the delay is over
+			assertTrue( System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos( 500 ) );
+			assertEquals( Arrays.asList( 3L ), engine.batchSizes );
+		}
+	}
+
+	@Test
+	public void testRequestsOfDifferentShapesAreNotMixed() throws Exception
+	{
+		try ( BatchingModelServer server = BatchingModelServer.build( model, descriptor, 4, 300 ) )
+		{
+			final CompletableFuture< List< Tensor< ? > > > small = server.submit( createInputs( 1, 8 ) );
+			final CompletableFuture< List< Tensor< ? > > > big = server.submit( createInputs( 2, 16 ) );
+			assertOutputValue( small.get( 10, TimeUnit.SECONDS ), 1 );
+			assertOutputValue( big.get( 10, TimeUnit.SECONDS ), 2 );
+			assertArrayEquals( new long[] { 1, 1, 16, 16 }, big.get().get( 0 ).getData().dimensionsAsLongArray() );
+			assertEquals( Arrays.asList( 1L, 1L ), engine.batchSizes );
+		}
+	}
+
+	@Test
+	public void testFailedInferenceFailsEveryRequestOfTheBatch() throws Exception
+	{
+		try ( BatchingModelServer server = BatchingModelServer.build( model, descriptor, 2, 10000 ) )
+		{
+			engine.fail = true;
+			final List< CompletableFuture< List< Tensor< ? > > > > futures = submitConcurrently( server, 2, 8 );
+			for ( final CompletableFuture< List< Tensor< ? > > > future : futures )
+			{
+				final ExecutionException ex = assertThrows( ExecutionException.class, () -> future.get( 10, TimeUnit.SECONDS ) );
+				assertTrue( ex.getCause() instanceof RunModelException );
+			}
+			// The server keeps serving after a failure
+			engine.fail = false;
+			final List< CompletableFuture< List< Tensor< ? > > > > retry = submitConcurrently( server, 2, 8 );
+			for ( int i = 0; i < retry.size(); i ++ )
+				assertOutputValue( retry.get( i ).get( 10, TimeUnit.SECONDS ), i );
+		}
+	}
+
+	@Test
+	public void testSubmitAfterCloseFails() throws Exception
+	{
+		final BatchingModelServer server = BatchingModelServer.build( model, descriptor, 4, 100 );
+		server.close();
+		final CompletableFuture< List< Tensor< ? > > > future = server.submit( createInputs( 0, 8 ) );
+		final ExecutionException ex = assertThrows( ExecutionException.class, () -> future.get( 10, TimeUnit.SECONDS ) );
+		assertTrue( ex.getCause() instanceof IllegalStateException );
+	}
+
+	/**
+	 * Submit requests from different threads at the same time. The inputs of request i are filled with i
+	 *
+	 * @return the futures, in the order of the requests
+	 */
+	private static List< CompletableFuture< List< Tensor< ? > > > > submitConcurrently( final BatchingModelServer server,
+			final int nRequests, final long size ) throws InterruptedException
+	{
+		final List< CompletableFuture< List< Tensor< ? > > > > futures = new ArrayList<>();
+		final List< Thread > threads = new ArrayList< Thread >();
+		for ( int i = 0; i < nRequests; i ++ )
+		{
+			final CompletableFuture< List< Tensor< ? > > > future = new CompletableFuture<>();
+			final List< Tensor< ? > > inputs = createInputs( i, size );
+			futures.add( future );
+			threads.add( new Thread( () -> server.submit( inputs ).whenComplete( ( result, ex ) -> {
+				if ( ex == null )
+					future.complete( result );
+				else
+					future.completeExceptionally( ex );
+			} ) ) );
+		}
+		threads.forEach( Thread::start );
+		for ( final Thread thread : threads )
+			thread.join();
+		return futures;
+	}
+
+	private static List< Tensor< ? > > createInputs( final float value, final long size )
+	{
+		final Tensor< FloatType > input = Tensor.build( "input0", AXES, ArrayImgs.floats( 1, 1, size, size ) );
+		Views.iterable( input.getData() ).forEach( px -> px.set( value ) );
+		return new ArrayList< Tensor< ? > >( Arrays.asList( input ) );
+	}
+
+	private static void assertOutputValue( final List< Tensor< ? > > outputs, final float value )
+	{
+		assertEquals( 1, outputs.size() );
+		assertEquals( "output0", outputs.get( 0 ).getName() );
+		assertEquals( 1, outputs.get( 0 ).getData().dimension( 0 ) );
+		for ( final RealType< ? > px : Views.iterable( outputs.get( 0 ).getData() ) )
+			assertEquals( value, px.getRealFloat(), 0 );
+	}
+
+	private static String createYaml()
+	{
+		return "name: jdll-batching-test\n"
+				+ "id: jdll/batching-test\n"
+				+ "inputs:\n"
+				+ "  - name: input0\n"
+				+ "    axes: " + AXES + "\n"
+				+ "    data_type: float32\n"
+				+ "    shape:\n"
+				+ "      min: [1, 1, 8, 8]\n"
+				+ "      step: [1, 0, 8, 8]\n"
+				+ "outputs:\n"
+				+ "  - name: output0\n"
+				+ "    axes: " + AXES + "\n"
+				+ "    data_type: float32\n"
+				+ "    shape:\n"
+				+ "      reference_tensor: input0\n"
+				+ "      scale: [1, 1, 1, 1]\n"
+				+ "      offset: [0, 0, 0, 0]\n";
+	}
+
+	/**
+	 * Echo engine that records the size of the batch axis of every run, and can be made to fail
+	 */
+	private static class BatchRecordingEngine extends EchoEngine
+	{
+		private final List< Long > batchSizes = Collections.synchronizedList( new ArrayList< Long >() );
+
+		private volatile boolean fail = false;
+
+		@Override
+		public void run( List< Tensor< ? > > inputTensors, List< Tensor< ? > > outputTensors ) throws RunModelException
+		{
+			batchSizes.add( inputTensors.get( 0 ).getData().dimension( 0 ) );
+			if ( fail )
+				throw new RunModelException( "The engine failed." );
+			super.run( inputTensors, outputTensors );
+		}
+	}
+}
@@ -0,0 +1,165 @@
+/*-
+ * #%L
+ * Use deep learning frameworks from Java in an agnostic and isolated way.
+ * %%
+ * Copyright (C) 2022 - 2023 Institut Pasteur and BioImage.IO developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.bioimage.modelrunner.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.bioimage.modelrunner.engine.DeepLearningEngineInterface;
+import io.bioimage.modelrunner.engine.EchoEngine;
+import io.bioimage.modelrunner.exceptions.LoadModelException;
+import io.bioimage.modelrunner.exceptions.RunModelException;
+import io.bioimage.modelrunner.tensor.Tensor;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+/**
+ * Tests of the asynchronous runs of {@link Model#runModelAsync(List, List)}
+ *
+ * @author Carlos Garcia Lopez de Haro
+ */
+public class ModelAsyncTest
+{
+	@TempDir
+	Path tmp;
+
+	@Test
+	@SuppressWarnings( "unchecked" )
+	public void testFutureCompletesWithOutputs() throws Exception
+	{
+		final RecordingEngine engine = new RecordingEngine();
+		final Model model = Model.createModelWithEngine( tmp.toString(), null, engine );
+		model.loadModel();
+		final List< Tensor< ? > > inputs = createInputs( 3 );
+		final List< Tensor< ? > > outputs = createOutputs();
+		final List< Tensor< ? > > result = model.runModelAsync( inputs, outputs ).get( 10, TimeUnit.SECONDS );
+		assertSame( outputs, result );
+		assertFalse( result.get( 0 ).isEmpty() );
+		for ( final FloatType px : Views.iterable( ( ( Tensor< FloatType > ) result.get( 0 ) ).getData() ) )
+			assertEquals( 3, px.get(), 0 );
+		assertNotSame( Thread.currentThread(), engine.thread );
+		model.closeModel();
+	}
+
+	@Test
+	public void testFutureCompletesExceptionallyIfTheEngineFails() throws Exception
+	{
+		final Model model = Model.createModelWithEngine( tmp.toString(), null, new FailingEngine() );
+		model.loadModel();
+		final CompletableFuture< List< Tensor< ? > > > future = model.runModelAsync( createInputs( 1 ), createOutputs() );
+		final ExecutionException ex = assertThrows( ExecutionException.class, () -> future.get( 10, TimeUnit.SECONDS ) );
+		assertTrue( ex.getCause() instanceof RunModelException );
+		assertTrue( future.isCompletedExceptionally() );
+		model.closeModel();
+	}
+
+	@Test
+	public void testCloseWaitsForRunsAndStopsTheExecutor() throws Exception
+	{
+		final RecordingEngine engine = new RecordingEngine();
+		engine.delayMillis = 200;
+		final Model model = Model.createModelWithEngine( tmp.toString(), null, engine );
+		model.loadModel();
+		final List< CompletableFuture< List< Tensor< ? > > > > futures = new ArrayList<>();
+		for ( int i = 0; i < 3; i ++ )
+			futures.add( model.runModelAsync( createInputs( i ), createOutputs() ) );
+		model.closeModel();
+		for ( final CompletableFuture< List< Tensor< ? > > > future : futures )
+			assertTrue( future.isDone() && !future.isCompletedExceptionally() );
+		assertNotNull( engine.thread );
+		engine.thread.join( 10000 );
+		assertFalse( engine.thread.isAlive() );
+	}
+
+	private static List< Tensor< ? > > createInputs( final float value )
+	{
+		final Tensor< FloatType > input = Tensor.build( "input0", "bcyx", ArrayImgs.floats( 1, 1, 8, 8 ) );
+		Views.iterable( input.getData() ).forEach( px -> px.set( value ) );
+		return new ArrayList< Tensor< ? > >( Arrays.asList( input ) );
+	}
+
+	private static List< Tensor< ? > > createOutputs()
+	{
+		final List< Tensor< ? > > outputs = new ArrayList< Tensor< ? > >();
+		outputs.add( Tensor.buildEmptyTensor( "output0", "bcyx" ) );
+		return outputs;
+	}
+
+	/**
+	 * Echo engine that records the thread it runs on, optionally taking some time per run
+	 */
+	private static class RecordingEngine extends EchoEngine
+	{
+		private volatile Thread thread;
+
+		private volatile long delayMillis = 0;
+
+		@Override
+		public void run( List< Tensor< ? > > inputTensors, List< Tensor< ? > > outputTensors ) throws RunModelException
+		{
+			thread = Thread.currentThread();
+			try {
+				Thread.sleep( delayMillis );
+			} catch ( InterruptedException ex ) {
+				throw new RunModelException( "Interrupted." );
+			}
+			super.run( inputTensors, outputTensors );
+		}
+	}
+
+	/**
+	 * Engine whose runs always fail
+	 */
+	private static class FailingEngine implements DeepLearningEngineInterface
+	{
+		@Override
+		public void run( List< Tensor< ? > > inputTensors, List< Tensor< ? > > outputTensors ) throws RunModelException
+		{
+			throw new RunModelException( "The engine failed." );
+		}
+
+		@Override
+		public void loadModel( String modelFolder, String modelSource ) throws LoadModelException
+		{
+		}
+
+		@Override
+		public void closeModel()
+		{
+		}
+	}
+}
@@ -0,0 +1,171 @@
+/*-
+ * #%L
+ * Use deep learning frameworks from Java in an agnostic and isolated way.
+ * %%
+ * Copyright (C) 2022 - 2023 Institut Pasteur and BioImage.IO developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.bioimage.modelrunner.model;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.bioimage.modelrunner.engine.DeepLearningEngineInterface;
+import io.bioimage.modelrunner.engine.EchoEngine;
+import io.bioimage.modelrunner.tensor.Tensor;
+import net.imglib2.img.array.ArrayImgs;
+
+/**
+ * Tests of leasing and releasing the instances of a {@link ModelPool}
+ *
+ * @author Carlos Garcia Lopez de Haro
+ */
+public class ModelPoolTest
+{
+	@TempDir
+	Path tmp;
+
+	@Test
+	public void testLeaseAndRelease() throws Exception
+	{
+		try ( ModelPool pool = createPool( 2 ) )
+		{
+			final Model first = pool.lease();
+			final Model second = pool.lease();
+			assertNotSame( first, second );
+			pool.release( first );
+			assertSame( first, pool.lease() );
+			pool.release( first );
+			pool.release( second );
+			final List< Tensor< ? > > inputs = new ArrayList< Tensor< ? > >();
+			inputs.add( Tensor.build( "input0", "bcyx", ArrayImgs.floats( 1, 1, 4, 4 ) ) );
+			final List< Tensor< ? > > outputs = new ArrayList< Tensor< ? > >();
+			outputs.add( Tensor.buildEmptyTensor( "output0", "bcyx" ) );
+			pool.runModel( inputs, outputs );
+			assertFalse( outputs.get( 0 ).isEmpty() );
+		}
+	}
+
+	@Test
+	public void testReleaseOfForeignModelFails() throws Exception
+	{
+		try ( ModelPool pool = createPool( 1 ) )
+		{
+			final Model foreign = Model.createModelWithEngine( tmp.toString(), null, new EchoEngine() );
+			assertThrows( IllegalArgumentException.class, () -> pool.release( foreign ) );
+		}
+	}
+
+	@Test
+	public void testLeaseBlocksUntilRelease() throws Exception
+	{
+		try ( ModelPool pool = createPool( 1 ) )
+		{
+			final Model model = pool.lease();
+			final CompletableFuture< Model > waiting = leaseAsync( pool );
+			assertThrows( TimeoutException.class, () -> waiting.get( 300, TimeUnit.MILLISECONDS ) );
+			pool.release( model );
+			assertSame( model, waiting.get( 10, TimeUnit.SECONDS ) );
+		}
+	}
+
+	@Test
+	public void testCloseWakesWaitingThreads() throws Exception
+	{
+		final ModelPool pool = createPool( 1 );
+		final Model model = pool.lease();
+		final CompletableFuture< Model > waiting = leaseAsync( pool );
+		assertThrows( TimeoutException.class, () -> waiting.get( 300, TimeUnit.MILLISECONDS ) );
+		pool.close();
+		final ExecutionException ex = assertThrows( ExecutionException.class, () -> waiting.get( 10, TimeUnit.SECONDS ) );
+		assertTrue( ex.getCause() instanceof IllegalStateException );
+		assertThrows( IllegalStateException.class, () -> pool.lease() );
+		// The leased instance is only closed once it is released
+		assertNotNull( model.getEngineClassLoader() );
+		pool.release( model );
+		assertNull( model.getEngineClassLoader() );
+	}
+
+	@Test
+	public void testCloseClosesIdleInstances() throws Exception
+	{
+		final List< DeepLearningEngineInterface > engines = createEngines( 2 );
+		final ModelPool pool = ModelPool.createModelPoolWithEngines( tmp.toString(), null, engines );
+		pool.loadModels();
+		pool.close();
+		for ( final DeepLearningEngineInterface engine : engines )
+			assertTrue( ( ( ClosingEngine ) engine ).closed );
+	}
+
+	private ModelPool createPool( final int size ) throws Exception
+	{
+		final ModelPool pool = ModelPool.createModelPoolWithEngines( tmp.toString(), null, createEngines( size ) );
+		pool.loadModels();
+		return pool;
+	}
+
+	private static List< DeepLearningEngineInterface > createEngines( final int size )
+	{
+		final List< DeepLearningEngineInterface > engines = new ArrayList< DeepLearningEngineInterface >();
+		for ( int i = 0; i < size; i ++ )
+			engines.add( new ClosingEngine() );
+		return engines;
+	}
+
+	private static CompletableFuture< Model > leaseAsync( final ModelPool pool )
+	{
+		final CompletableFuture< Model > future = new CompletableFuture< Model >();
+		final Thread thread = new Thread( () -> {
+			try {
+				future.complete( pool.lease() );
+			} catch ( Throwable ex ) {
+				future.completeExceptionally( ex );
+			}
+		} );
+		thread.setDaemon( true );
+		thread.start();
+		return future;
+	}
+
+	/**
+	 * Echo engine that records whether it has been closed
+	 */
+	private static class ClosingEngine extends EchoEngine
+	{
+		private volatile boolean closed = false;
+
+		@Override
+		public void closeModel()
+		{
+			closed = true;
+		}
+	}
+}
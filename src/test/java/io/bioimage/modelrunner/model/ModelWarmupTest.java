@@ -0,0 +1,167 @@
+/*-
+ * #%L
+ * Use deep learning frameworks from Java in an agnostic and isolated way.
+ * %%
+ * Copyright (C) 2022 - 2023 Institut Pasteur and BioImage.IO developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.bioimage.modelrunner.model;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.bioimage.modelrunner.bioimageio.description.ModelDescriptor;
+import io.bioimage.modelrunner.engine.EchoEngine;
+import io.bioimage.modelrunner.tensor.Tensor;
+import io.bioimage.modelrunner.utils.Constants;
+import net.imglib2.Cursor;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+/**
+ * Tests of the inputs used to warm up a model, read from the test inputs of the rdf.yaml
+ * or created blank when they are not available
+ *
+ * @author Carlos Garcia Lopez de Haro
+ */
+public class ModelWarmupTest
+{
+	private static final long[] TEST_INPUT_SHAPE = new long[] { 1, 1, 32, 32 };
+
+	private static final long[] SMALLEST_SHAPE = new long[] { 1, 1, 16, 16 };
+
+	@TempDir
+	Path tmp;
+
+	@Test
+	public void testTestInputsAreRead() throws Exception
+	{
+		writeNpy( "input0.npy" );
+		final ModelDescriptor descriptor = ModelDescriptor.readFromYamlTextString( createYaml( "input0" ), false );
+		final List< Tensor< ? > > inputs = ModelWarmup.createInputs( descriptor, tmp.toString() );
+		assertEquals( 1, inputs.size() );
+		assertEquals( "input0", inputs.get( 0 ).getName() );
+		assertArrayEquals( TEST_INPUT_SHAPE, inputs.get( 0 ).getData().dimensionsAsLongArray() );
+		final Cursor< ? extends RealType< ? > > cursor = Views.flatIterable( inputs.get( 0 ).getData() ).cursor();
+		for ( int i = 0; cursor.hasNext(); i ++ )
+			assertEquals( i, cursor.next().getRealFloat(), 0 );
+		// The descriptor is not modified
+		assertNull( descriptor.getTestInputs().get( 0 ).getLocalPath() );
+	}
+
+	@Test
+	public void testBlankInputsWithoutTestInputs() throws Exception
+	{
+		final ModelDescriptor descriptor = ModelDescriptor.readFromYamlTextString( createYaml( "input0" ), false );
+		final List< Tensor< ? > > inputs = ModelWarmup.createInputs( descriptor, tmp.toString() );
+		assertEquals( 1, inputs.size() );
+		assertBlank( inputs.get( 0 ) );
+	}
+
+	@Test
+	public void testBlankInputsIfAnyTestInputIsMissing() throws Exception
+	{
+		writeNpy( "input0.npy" );
+		final ModelDescriptor descriptor = ModelDescriptor.readFromYamlTextString( createYaml( "input0", "input1" ), false );
+		final List< Tensor< ? > > inputs = ModelWarmup.createInputs( descriptor, tmp.toString() );
+		assertEquals( 2, inputs.size() );
+		assertEquals( "input0", inputs.get( 0 ).getName() );
+		assertEquals( "input1", inputs.get( 1 ).getName() );
+		inputs.forEach( ModelWarmupTest::assertBlank );
+	}
+
+	@Test
+	public void testWarmUpRunsOnLoad() throws Exception
+	{
+		writeNpy( "input0.npy" );
+		Files.write( tmp.resolve( Constants.RDF_FNAME ), createYaml( "input0" ).getBytes( StandardCharsets.UTF_8 ) );
+		final Model model = Model.createModelWithEngine( tmp.toString(), null, new EchoEngine() );
+		model.setWarmupRuns( 2 );
+		model.loadModel();
+		assertEquals( 2, model.getWarmupTimes().length );
+		model.closeModel();
+	}
+
+	private static void assertBlank( final Tensor< ? > tensor )
+	{
+		assertArrayEquals( SMALLEST_SHAPE, tensor.getData().dimensionsAsLongArray() );
+		for ( final RealType< ? > px : Views.iterable( tensor.getData() ) )
+			assertTrue( px.getRealFloat() == 0 );
+	}
+
+	/**
+	 * Create the rdf.yaml of a model with one input per name provided and one output, whose
+	 * test inputs are the files called as the inputs
+	 */
+	private static String createYaml( final String... inputNames )
+	{
+		final StringBuilder yaml = new StringBuilder( "name: jdll-warmup-test\nid: jdll/warmup-test\ninputs:\n" );
+		for ( final String name : inputNames )
+			yaml.append( "  - name: " + name + "\n"
+					+ "    axes: bcyx\n"
+					+ "    data_type: float32\n"
+					+ "    shape:\n"
+					+ "      min: [1, 1, 16, 16]\n"
+					+ "      step: [0, 0, 16, 16]\n" );
+		yaml.append( "outputs:\n"
+				+ "  - name: output0\n"
+				+ "    axes: bcyx\n"
+				+ "    data_type: float32\n"
+				+ "    shape:\n"
+				+ "      reference_tensor: " + inputNames[ 0 ] + "\n"
+				+ "      scale: [1, 1, 1, 1]\n"
+				+ "      offset: [0, 0, 0, 0]\n"
+				+ "test_inputs:\n" );
+		for ( final String name : inputNames )
+			yaml.append( "  - " + name + ".npy\n" );
+		return yaml.toString();
+	}
+
+	/**
+	 * Write a float32 npy file of {@link #TEST_INPUT_SHAPE} whose values are their index
+	 */
+	private void writeNpy( final String fileName ) throws IOException
+	{
+		final int nPixels = ( int ) ( TEST_INPUT_SHAPE[ 2 ] * TEST_INPUT_SHAPE[ 3 ] );
+		final StringBuilder header = new StringBuilder( "{'descr': '<f4', 'fortran_order': False, 'shape': (1, 1, "
+				+ TEST_INPUT_SHAPE[ 2 ] + ", " + TEST_INPUT_SHAPE[ 3 ] + "), }" );
+		final int prefix = 6 + 2 + 2;
+		while ( ( prefix + header.length() + 1 ) % 64 != 0 )
+			header.append( ' ' );
+		header.append( '\n' );
+		final byte[] headerBytes = header.toString().getBytes( StandardCharsets.US_ASCII );
+		final ByteBuffer buf = ByteBuffer.allocate( prefix + headerBytes.length + 4 * nPixels ).order( ByteOrder.LITTLE_ENDIAN );
+		buf.put( ( byte ) 0x93 ).put( "NUMPY".getBytes( StandardCharsets.US_ASCII ) );
+		buf.put( ( byte ) 1 ).put( ( byte ) 0 );
+		buf.putShort( ( short ) headerBytes.length );
+		buf.put( headerBytes );
+		for ( int i = 0; i < nPixels; i ++ )
+			buf.putFloat( i );
+		Files.write( tmp.resolve( fileName ), buf.array() );
+	}
+}
@@ -0,0 +1,161 @@
+/*-
+ * #%L
+ * Use deep learning frameworks from Java in an agnostic and isolated way.
+ * %%
+ * Copyright (C) 2022 - 2023 Institut Pasteur and BioImage.IO developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.bioimage.modelrunner.numpy;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.ByteType;
+import net.imglib2.type.numeric.integer.ShortType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.util.Util;
+
+/**
+ * Round trip tests of {@link DecodeNumpy}: arrays are written with the npy format and read back
+ * with {@link DecodeNumpy#retrieveImgLib2FromNpy(String)}
+ *
+ * @author Carlos Garcia Lopez de Haro
+ */
+public class DecodeNumpyTest
+{
+	/**
+	 * Shape of the arrays written, in C order
+	 */
+	private static final long[] SHAPE = new long[] { 2, 3 };
+
+	@TempDir
+	Path tmp;
+
+	@Test
+	public void testUInt16RoundTrip() throws IOException
+	{
+		final int[] values = new int[] { 0, 1, 255, 256, 40000, 65535 };
+		for ( final ByteOrder order : new ByteOrder[] { ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN } )
+		{
+			final ByteBuffer data = ByteBuffer.allocate( values.length * 2 ).order( order );
+			for ( final int vv : values )
+				data.putShort( ( short ) vv );
+			final RandomAccessibleInterval< ? > img = decode( data.array(), descr( order, "u2" ) );
+			assertTrue( Util.getTypeFromInterval( img ) instanceof UnsignedShortType );
+			assertArrayEquals( toDoubles( values ), read( img ) );
+		}
+	}
+
+	@Test
+	public void testInt16RoundTrip() throws IOException
+	{
+		final int[] values = new int[] { 0, 1, -1, 256, -32768, 32767 };
+		final ByteBuffer data = ByteBuffer.allocate( values.length * 2 ).order( ByteOrder.LITTLE_ENDIAN );
+		for ( final int vv : values )
+			data.putShort( ( short ) vv );
+		final RandomAccessibleInterval< ? > img = decode( data.array(), "<i2" );
+		assertTrue( Util.getTypeFromInterval( img ) instanceof ShortType );
+		assertArrayEquals( toDoubles( values ), read( img ) );
+	}
+
+	@Test
+	public void testBooleanRoundTrip() throws IOException
+	{
+		final byte[] data = new byte[] { 1, 0, 0, 1, 1, 0 };
+		final RandomAccessibleInterval< ? > img = decode( data, "|b1" );
+		assertTrue( Util.getTypeFromInterval( img ) instanceof ByteType );
+		assertArrayEquals( new double[] { 1, 0, 0, 1, 1, 0 }, read( img ) );
+	}
+
+	@Test
+	public void testDataTypeNames()
+	{
+		assertEquals( "uint16", DecodeNumpy.getDataType( "u2" ) );
+		assertEquals( "boolean", DecodeNumpy.getDataType( "b1" ) );
+	}
+
+	private RandomAccessibleInterval< ? > decode( final byte[] data, final String descr ) throws IOException
+	{
+		final Path file = tmp.resolve( "array.npy" );
+		Files.write( file, encode( data, descr ) );
+		return DecodeNumpy.retrieveImgLib2FromNpy( file.toString() );
+	}
+
+	/**
+	 * Write the data of an array with the npy format, version 1.0
+	 */
+	private static byte[] encode( final byte[] data, final String descr )
+	{
+		final StringBuilder header = new StringBuilder( "{'descr': '" + descr + "', 'fortran_order': False, 'shape': ("
+				+ SHAPE[ 0 ] + ", " + SHAPE[ 1 ] + "), }" );
+		final int prefix = 6 + 2 + 2;
+		while ( ( prefix + header.length() + 1 ) % 64 != 0 )
+			header.append( ' ' );
+		header.append( '\n' );
+		final byte[] headerBytes = header.toString().getBytes( StandardCharsets.US_ASCII );
+		final ByteBuffer buf = ByteBuffer.allocate( prefix + headerBytes.length + data.length ).order( ByteOrder.LITTLE_ENDIAN );
+		buf.put( ( byte ) 0x93 ).put( "NUMPY".getBytes( StandardCharsets.US_ASCII ) );
+		buf.put( ( byte ) 1 ).put( ( byte ) 0 );
+		buf.putShort( ( short ) headerBytes.length );
+		buf.put( headerBytes ).put( data );
+		return buf.array();
+	}
+
+	private static String descr( final ByteOrder order, final String type )
+	{
+		return ( order == ByteOrder.LITTLE_ENDIAN ? "<" : ">" ) + type;
+	}
+
+	/**
+	 * Read the values of a decoded image in C order
+	 */
+	private static double[] read( final RandomAccessibleInterval< ? > img )
+	{
+		assertArrayEquals( SHAPE, img.dimensionsAsLongArray() );
+		final RandomAccess< ? > ra = img.randomAccess();
+		final double[] values = new double[ ( int ) ( SHAPE[ 0 ] * SHAPE[ 1 ] ) ];
+		for ( int i = 0; i < SHAPE[ 0 ]; i ++ )
+		{
+			for ( int j = 0; j < SHAPE[ 1 ]; j ++ )
+			{
+				ra.setPosition( new long[] { i, j } );
+				values[ i * ( int ) SHAPE[ 1 ] + j ] = ( ( RealType< ? > ) ra.get() ).getRealDouble();
+			}
+		}
+		return values;
+	}
+
+	private static double[] toDoubles( final int[] values )
+	{
+		final double[] dd = new double[ values.length ];
+		for ( int i = 0; i < values.length; i ++ )
+			dd[ i ] = values[ i ];
+		return dd;
+	}
+}
@@ -0,0 +1,103 @@
+/*-
+ * #%L
+ * Use deep learning frameworks from Java in an agnostic and isolated way.
+ * %%
+ * Copyright (C) 2022 - 2023 Institut Pasteur and BioImage.IO developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.bioimage.modelrunner.tensor;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.real.FloatType;
+
+/**
+ * Tests of the reuse of buffers by {@link TensorPool}
+ *
+ * @author Carlos Garcia Lopez de Haro
+ */
+public class TensorPoolTest
+{
+	private static final long[] SHAPE = new long[] { 1, 1, 32, 16 };
+
+	@Test
+	public void testReleasedBufferIsReused()
+	{
+		final TensorPool pool = TensorPool.build();
+		final Tensor< FloatType > first = pool.borrow( "a", "bcyx", SHAPE, new FloatType() );
+		final RandomAccessibleInterval< FloatType > data = first.getData();
+		assertArrayEquals( SHAPE, data.dimensionsAsLongArray() );
+		pool.release( first );
+		assertTrue( first.isClosed() );
+		assertEquals( 1, pool.getFreeCount() );
+		final Tensor< FloatType > second = pool.borrow( "b", "bcyx", SHAPE, new FloatType() );
+		assertSame( data, second.getData() );
+		assertEquals( "b", second.getName() );
+		assertEquals( 0, pool.getFreeCount() );
+	}
+
+	@Test
+	public void testBuffersAreOnlyReusedForTheSameKey()
+	{
+		final TensorPool pool = TensorPool.build();
+		final Tensor< FloatType > tensor = pool.borrow( "a", "bcyx", SHAPE, new FloatType() );
+		final RandomAccessibleInterval< FloatType > data = tensor.getData();
+		pool.release( tensor );
+		final Tensor< UnsignedByteType > otherType = pool.borrow( "a", "bcyx", SHAPE, new UnsignedByteType() );
+		final Tensor< FloatType > otherShape = pool.borrow( "a", "bcyx", new long[] { 1, 1, 16, 32 }, new FloatType() );
+		final Tensor< FloatType > otherAxes = pool.borrow( "a", "bcxy", SHAPE, new FloatType() );
+		assertNotSame( data, otherShape.getData() );
+		assertNotSame( data, otherAxes.getData() );
+		assertEquals( 1, pool.getFreeCount() );
+		pool.release( otherType );
+		assertEquals( 2, pool.getFreeCount() );
+	}
+
+	@Test
+	public void testFreeBuffersPerKeyAreLimited()
+	{
+		final TensorPool pool = TensorPool.build( 2 );
+		final Tensor< ? >[] tensors = new Tensor< ? >[ 3 ];
+		for ( int i = 0; i < tensors.length; i ++ )
+			tensors[ i ] = pool.borrow( "a", "bcyx", SHAPE, new FloatType() );
+		for ( final Tensor< ? > tt : tensors )
+			pool.release( tt );
+		assertEquals( 2, pool.getFreeCount() );
+		pool.clear();
+		assertEquals( 0, pool.getFreeCount() );
+	}
+
+	@Test
+	public void testForeignTensorIsOnlyClosed()
+	{
+		final TensorPool pool = TensorPool.build();
+		final Tensor< FloatType > tensor = Tensor.build( "a", "bcyx", ArrayImgs.floats( SHAPE ) );
+		pool.release( tensor );
+		assertTrue( tensor.isClosed() );
+		assertEquals( 0, pool.getFreeCount() );
+		// Releasing twice has no effect
+		pool.release( tensor );
+		assertEquals( 0, pool.getFreeCount() );
+	}
+}
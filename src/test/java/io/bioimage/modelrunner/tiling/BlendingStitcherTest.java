@@ -0,0 +1,135 @@
+/*-
+ * #%L
+ * Use deep learning frameworks from Java in an agnostic and isolated way.
+ * %%
+ * Copyright (C) 2022 - 2023 Institut Pasteur and BioImage.IO developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.bioimage.modelrunner.tiling;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import io.bioimage.modelrunner.tensor.Tensor;
+import io.bioimage.modelrunner.tiling.BlendingStitcher.Window;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypes.FloatArray;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+/**
+ * Tests that {@link BlendingStitcher} recovers the original values after
+ * normalizing the overlapping weighted patches
+ *
+ * @author Carlos Garcia Lopez de Haro
+ */
+public class BlendingStitcherTest
+{
+	private static final long[] SHAPE = new long[] { 1, 1, 50, 40 };
+
+	private static final long PATCH = 20;
+
+	private static final long STRIDE = 15;
+
+	@Test
+	public void testConstantPatchesLinear()
+	{
+		testConstantPatches( Window.LINEAR );
+	}
+
+	@Test
+	public void testConstantPatchesCosine()
+	{
+		testConstantPatches( Window.COSINE );
+	}
+
+	@Test
+	public void testRampPatchesLinear()
+	{
+		testRampPatches( Window.LINEAR );
+	}
+
+	@Test
+	public void testRampPatchesCosine()
+	{
+		testRampPatches( Window.COSINE );
+	}
+
+	private static void testConstantPatches( final Window window )
+	{
+		final ArrayImg< FloatType, FloatArray > output = ArrayImgs.floats( SHAPE );
+		final BlendingStitcher stitcher = BlendingStitcher.build( window, asList( output ) );
+		final RandomAccessibleInterval< UnsignedByteType > patch = ArrayImgs.unsignedBytes( 1, 1, PATCH, PATCH );
+		Views.iterable( patch ).forEach( px -> px.set( 7 ) );
+		for ( final long[] start : getPatchStarts() )
+			stitcher.accumulate( 0, patch, start );
+		stitcher.normalize();
+		for ( final FloatType px : output )
+			assertEquals( 7f, px.get(), 1e-4f );
+	}
+
+	private static void testRampPatches( final Window window )
+	{
+		final ArrayImg< FloatType, FloatArray > ramp = ArrayImgs.floats( SHAPE );
+		final Cursor< FloatType > cursor = ramp.localizingCursor();
+		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+			cursor.get().set( cursor.getLongPosition( 2 ) * SHAPE[ 3 ] + cursor.getLongPosition( 3 ) );
+		}
+		final ArrayImg< FloatType, FloatArray > output = ArrayImgs.floats( SHAPE );
+		final BlendingStitcher stitcher = BlendingStitcher.build( window, asList( output ) );
+		for ( final long[] start : getPatchStarts() )
+		{
+			final long[] end = new long[ start.length ];
+			for ( int d = 0; d < start.length; d ++ )
+				end[ d ] = start[ d ] + ( d < 2 ? 1 : PATCH ) - 1;
+			final RandomAccessibleInterval< FloatType > patch =
+					Views.zeroMin( Views.interval( Views.extendZero( ramp ), start, end ) );
+			stitcher.accumulate( 0, patch, start );
+		}
+		stitcher.normalize();
+		final Cursor< FloatType > expected = ramp.cursor();
+		final Cursor< FloatType > actual = output.cursor();
+		while ( expected.hasNext() )
+			assertEquals( expected.next().get(), actual.next().get(), 1e-2f );
+	}
+
+	/**
+	 * Overlapping patches that cover the whole output, the first ones start out of it
+	 */
+	private static List< long[] > getPatchStarts()
+	{
+		final List< long[] > starts = new ArrayList< long[] >();
+		for ( long y = -5; y < SHAPE[ 2 ]; y += STRIDE )
+			for ( long x = -5; x < SHAPE[ 3 ]; x += STRIDE )
+				starts.add( new long[] { 0, 0, y, x } );
+		return starts;
+	}
+
+	private static List< Tensor< FloatType > > asList( final RandomAccessibleInterval< FloatType > output )
+	{
+		return Arrays.asList( Tensor.build( "output0", "bcyx", output ) );
+	}
+}
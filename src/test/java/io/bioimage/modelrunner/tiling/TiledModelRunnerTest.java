@@ -0,0 +1,214 @@
+/*-
+ * #%L
+ * Use deep learning frameworks from Java in an agnostic and isolated way.
+ * %%
+ * Copyright (C) 2022 - 2023 Institut Pasteur and BioImage.IO developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.bioimage.modelrunner.tiling;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.bioimage.modelrunner.bioimageio.description.ModelDescriptor;
+import io.bioimage.modelrunner.engine.EchoEngine;
+import io.bioimage.modelrunner.model.Model;
+import io.bioimage.modelrunner.tensor.Tensor;
+import io.bioimage.modelrunner.tensor.TensorPool;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypes.FloatArray;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+/**
+ * Tests that the tiled inference of a model that echoes its input stitches back
+ * the input image, whatever the way the tiles are processed
+ *
+ * @author Carlos Garcia Lopez de Haro
+ */
+public class TiledModelRunnerTest
+{
+	private static final String AXES = "bcyx";
+
+	private static final long[] IMAGE_SHAPE = new long[] { 1, 1, 100, 90 };
+
+	private static final int[] PATCH = new int[] { 1, 1, 48, 48 };
+
+	private static final int HALO = 8;
+
+	@TempDir
+	Path tmp;
+
+	private Model model;
+
+	@BeforeEach
+	public void loadModel() throws Exception
+	{
+		model = Model.createModelWithEngine( tmp.toString(), null, new EchoEngine() );
+		model.loadModel();
+	}
+
+	@AfterEach
+	public void closeModel()
+	{
+		model.closeModel();
+	}
+
+	@Test
+	public void testSequential() throws Exception
+	{
+		final TiledModelRunner runner = createRunner( "float32" );
+		runner.setTilesInFlight( 1 );
+		assertEchoes( runner, createImage( false ) );
+	}
+
+	@Test
+	public void testPipelined() throws Exception
+	{
+		final TiledModelRunner runner = createRunner( "float32" );
+		runner.setTilesInFlight( 3 );
+		assertEchoes( runner, createImage( false ) );
+	}
+
+	@Test
+	public void testWithoutInteriorViews() throws Exception
+	{
+		for ( final int tilesInFlight : new int[] { 1, 3 } )
+		{
+			final TiledModelRunner runner = createRunner( "float32" );
+			runner.setTilesInFlight( tilesInFlight );
+			runner.setUseInteriorViews( false );
+			assertEchoes( runner, createImage( false ) );
+		}
+	}
+
+	@Test
+	public void testBlending() throws Exception
+	{
+		for ( final BlendingStitcher.Window window : BlendingStitcher.Window.values() )
+		{
+			final TiledModelRunner runner = createRunner( "float32" );
+			runner.setBlendingWindow( window );
+			assertEchoes( runner, createImage( false ) );
+		}
+	}
+
+	@Test
+	public void testPooledBuffersAreReused() throws Exception
+	{
+		final TensorPool pool = TensorPool.build();
+		final TiledModelRunner runner = createRunner( "float32" );
+		runner.setTensorPool( pool );
+		assertEchoes( runner, createImage( false ) );
+		final int free = pool.getFreeCount();
+		assertTrue( free > 0 );
+		assertEchoes( runner, createImage( false ) );
+		assertEquals( free, pool.getFreeCount() );
+	}
+
+	@Test
+	public void testOutputDataType() throws Exception
+	{
+		final TiledModelRunner runner = createRunner( "uint8" );
+		final List< Tensor< ? > > outputs = assertEchoes( runner, createImage( true ) );
+		assertTrue( outputs.get( 0 ).getDataType() instanceof UnsignedByteType );
+	}
+
+	private TiledModelRunner createRunner( final String outputDataType ) throws Exception
+	{
+		final ModelDescriptor descriptor = createDescriptor( outputDataType );
+		descriptor.getInputTensors().get( 0 ).validate( PATCH );
+		return TiledModelRunner.build( model, descriptor );
+	}
+
+	private static List< Tensor< ? > > assertEchoes( final TiledModelRunner runner, final ArrayImg< FloatType, FloatArray > image )
+			throws Exception
+	{
+		final List< Tensor< ? > > inputs = new ArrayList< Tensor< ? > >();
+		inputs.add( Tensor.build( "input0", AXES, image ) );
+		final List< Tensor< ? > > outputs = runner.run( inputs );
+		assertEquals( 1, outputs.size() );
+		assertEquals( "output0", outputs.get( 0 ).getName() );
+		assertSameValues( image, outputs.get( 0 ).getData() );
+		return outputs;
+	}
+
+	private static < T extends RealType< T > > void assertSameValues( final RandomAccessibleInterval< FloatType > expected,
+			final RandomAccessibleInterval< T > actual )
+	{
+		assertArrayEquals( expected.dimensionsAsLongArray(), actual.dimensionsAsLongArray() );
+		final Cursor< FloatType > expectedCursor = Views.flatIterable( expected ).cursor();
+		final Cursor< T > actualCursor = Views.flatIterable( actual ).cursor();
+		while ( expectedCursor.hasNext() )
+			assertEquals( expectedCursor.next().getRealFloat(),
+					actualCursor.next().getRealFloat(), 1e-5f, "at " + Util.printCoordinates( actualCursor ) );
+	}
+
+	/**
+	 * Create an image of random values
+	 * @param integers
+	 * 	whether the values are integers between 0 and 255, so they can be
+	 * 	represented by any data type
+	 * @return the image
+	 */
+	private static ArrayImg< FloatType, FloatArray > createImage( final boolean integers )
+	{
+		final Random random = new Random( 42 );
+		final ArrayImg< FloatType, FloatArray > image = ArrayImgs.floats( IMAGE_SHAPE );
+		for ( final FloatType px : image )
+			px.set( integers ? random.nextInt( 256 ) : random.nextFloat() );
+		return image;
+	}
+
+	private static ModelDescriptor createDescriptor( final String outputDataType ) throws Exception
+	{
+		final String yaml = "name: jdll-echo-test\n"
+				+ "id: jdll/echo-test\n"
+				+ "inputs:\n"
+				+ "  - name: input0\n"
+				+ "    axes: " + AXES + "\n"
+				+ "    data_type: float32\n"
+				+ "    shape:\n"
+				+ "      min: [1, 1, 16, 16]\n"
+				+ "      step: [0, 0, 16, 16]\n"
+				+ "outputs:\n"
+				+ "  - name: output0\n"
+				+ "    axes: " + AXES + "\n"
+				+ "    data_type: " + outputDataType + "\n"
+				+ "    halo: [0, 0, " + HALO + ", " + HALO + "]\n"
+				+ "    shape:\n"
+				+ "      reference_tensor: input0\n"
+				+ "      scale: [1, 1, 1, 1]\n"
+				+ "      offset: [0, 0, 0, 0]\n";
+		return ModelDescriptor.readFromYamlTextString( yaml, false );
+	}
+}
@@ -0,0 +1,156 @@
+/*-
+ * #%L
+ * Use deep learning frameworks from Java in an agnostic and isolated way.
+ * %%
+ * Copyright (C) 2022 - 2023 Institut Pasteur and BioImage.IO developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.bioimage.modelrunner.transformations;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.DoubleArray;
+import net.imglib2.type.numeric.real.DoubleType;
+
+/**
+ * Tests of {@link DatasetStatistics}: merging, saving and loading, and the accuracy of the percentiles
+ *
+ * @author Carlos Garcia Lopez de Haro
+ */
+public class DatasetStatisticsTest
+{
+	private static final double[] PERCENTILES = new double[] { 0, 0.001, 0.1, 0.5, 0.9, 0.999, 1 };
+
+	@TempDir
+	Path tmp;
+
+	@Test
+	public void testPercentilesWithinAccuracy()
+	{
+		final double[] values = createValues( 200000, 42 );
+		final DatasetStatistics stats = new DatasetStatistics();
+		stats.add( ArrayImgs.doubles( values.clone(), 500, 400 ) );
+		final double[] sorted = values.clone();
+		Arrays.sort( sorted );
+		for ( final double pp : PERCENTILES )
+		{
+			final double exact = sorted[ ( int ) Math.min( sorted.length - 1, ( long ) ( sorted.length * pp ) ) ];
+			final double estimate = stats.getPercentile( pp );
+			assertTrue( Math.abs( estimate - exact ) <= stats.getRelativeAccuracy() * Math.abs( exact ) * ( 1 + 1e-9 ),
+					"Percentile " + pp + ": " + estimate + " instead of " + exact );
+		}
+	}
+
+	@Test
+	public void testMomentsAreExact()
+	{
+		final double[] values = createValues( 100000, 7 );
+		final DatasetStatistics stats = new DatasetStatistics();
+		stats.add( ArrayImgs.doubles( values.clone(), values.length ) );
+		final Moments moments = new Moments();
+		for ( final double vv : values )
+			moments.add( vv );
+		assertEquals( values.length, stats.getCount() );
+		assertEquals( moments.getMean(), stats.getMean(), 1e-9 * Math.abs( moments.getMean() ) );
+		assertEquals( moments.getStd(), stats.getStd(), 1e-9 * moments.getStd() );
+	}
+
+	@Test
+	public void testMergeEqualsAddingEverything()
+	{
+		final double[] values = createValues( 50000, 3 );
+		final DatasetStatistics all = new DatasetStatistics();
+		final DatasetStatistics first = new DatasetStatistics();
+		final DatasetStatistics second = new DatasetStatistics();
+		for ( int i = 0; i < values.length; i ++ )
+		{
+			all.add( values[ i ] );
+			( i % 3 == 0 ? first : second ).add( values[ i ] );
+		}
+		first.merge( second );
+		assertEquals( all.getCount(), first.getCount() );
+		assertEquals( all.getMean(), first.getMean(), 1e-9 * Math.abs( all.getMean() ) );
+		assertEquals( all.getStd(), first.getStd(), 1e-9 * all.getStd() );
+		for ( final double pp : PERCENTILES )
+			assertEquals( all.getPercentile( pp ), first.getPercentile( pp ) );
+	}
+
+	@Test
+	public void testMergeWithOtherAccuracy()
+	{
+		final DatasetStatistics stats = new DatasetStatistics( 0.01 );
+		assertThrows( IllegalArgumentException.class, () -> stats.merge( new DatasetStatistics( 0.02 ) ) );
+		assertThrows( IllegalArgumentException.class, () -> stats.merge( stats ) );
+	}
+
+	@Test
+	public void testNonFiniteValuesAreSkipped()
+	{
+		final ArrayImg< DoubleType, DoubleArray > img = ArrayImgs.doubles( new double[] { 1, Double.NaN, 3, Double.POSITIVE_INFINITY }, 4 );
+		final DatasetStatistics stats = new DatasetStatistics();
+		stats.add( img );
+		assertEquals( 2, stats.getCount() );
+		assertEquals( 2, stats.getNonFiniteCount() );
+		assertEquals( 2, stats.getMean(), 1e-12 );
+	}
+
+	@Test
+	public void testYamlRoundTrip() throws IOException
+	{
+		final double[] values = createValues( 20000, 11 );
+		final DatasetStatistics stats = new DatasetStatistics( 0.01 );
+		for ( final double vv : values )
+			stats.add( vv );
+		stats.add( Double.NaN );
+		final String file = tmp.resolve( "stats.yaml" ).toString();
+		stats.save( file );
+		final DatasetStatistics loaded = DatasetStatistics.load( file );
+		assertEquals( stats.getRelativeAccuracy(), loaded.getRelativeAccuracy() );
+		assertEquals( stats.getCount(), loaded.getCount() );
+		assertEquals( stats.getNonFiniteCount(), loaded.getNonFiniteCount() );
+		assertEquals( stats.getMean(), loaded.getMean() );
+		assertEquals( stats.getStd(), loaded.getStd() );
+		for ( final double pp : PERCENTILES )
+			assertEquals( stats.getPercentile( pp ), loaded.getPercentile( pp ) );
+	}
+
+	/**
+	 * Values spread over several orders of magnitude, positive and negative, with some zeros
+	 */
+	private static double[] createValues( final int n, final long seed )
+	{
+		final Random random = new Random( seed );
+		final double[] values = new double[ n ];
+		for ( int i = 0; i < n; i ++ )
+		{
+			final double magnitude = Math.exp( random.nextGaussian() * 3 );
+			final int kind = random.nextInt( 10 );
+			values[ i ] = kind == 0 ? 0 : ( kind < 3 ? -magnitude : magnitude );
+		}
+		return values;
+	}
+}
@@ -0,0 +1,131 @@
+/*-
+ * #%L
+ * Use deep learning frameworks from Java in an agnostic and isolated way.
+ * %%
+ * Copyright (C) 2022 - 2023 Institut Pasteur and BioImage.IO developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.bioimage.modelrunner.transformations;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.DoubleArray;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.type.numeric.real.FloatType;
+
+/**
+ * Tests of {@link Moments} against the mean and variance computed with two passes over the values
+ *
+ * @author Carlos Garcia Lopez de Haro
+ */
+public class MomentsTest
+{
+	/**
+	 * Maximum relative error accepted
+	 */
+	private static final double TOLERANCE = 1e-9;
+
+	@Test
+	public void testArrayImgMatchesTwoPass()
+	{
+		// Big offset and small spread, where the naive sum of squares loses precision
+		final float[] data = createValues( 1000 * 700, 1e4, 1, 42 );
+		final ArrayImg< FloatType, FloatArray > img = ArrayImgs.floats( data, 1000, 700 );
+		assertMoments( twoPass( data, 0, 1, data.length ), Moments.compute( img ) );
+	}
+
+	@Test
+	public void testGenericImageMatchesTwoPass()
+	{
+		final float[] values = createValues( 321 * 123, -50, 20, 7 );
+		final double[] data = new double[ values.length ];
+		for ( int i = 0; i < data.length; i ++ )
+			data[ i ] = values[ i ];
+		final ArrayImg< DoubleType, DoubleArray > img = ArrayImgs.doubles( data, 321, 123 );
+		assertMoments( twoPass( values, 0, 1, values.length ), Moments.compute( img ) );
+	}
+
+	@Test
+	public void testPlanesMatchTwoPass()
+	{
+		final long[] dims = new long[] { 300, 200, 3 };
+		final int planeSize = ( int ) ( dims[ 0 ] * dims[ 1 ] );
+		final float[] data = createValues( planeSize * ( int ) dims[ 2 ], 500, 3, 3 );
+		for ( int i = planeSize; i < 2 * planeSize; i ++ )
+			data[ i ] *= -2;
+		final ArrayImg< FloatType, FloatArray > img = ArrayImgs.floats( data, dims );
+		final Moments[] moments = Moments.compute( img, 2 );
+		assertEquals( dims[ 2 ], moments.length );
+		for ( int c = 0; c < dims[ 2 ]; c ++ )
+			assertMoments( twoPass( data, c * planeSize, 1, planeSize ), moments[ c ] );
+
+		// Planes along the fastest axis, so every plane is interleaved with the others
+		final Moments[] columns = Moments.compute( img, 0 );
+		for ( int x = 0; x < dims[ 0 ]; x += 37 )
+			assertMoments( twoPass( data, x, ( int ) dims[ 0 ], ( int ) ( dims[ 1 ] * dims[ 2 ] ) ), columns[ x ] );
+	}
+
+	@Test
+	public void testMerge()
+	{
+		final float[] data = createValues( 10000, 10, 2, 11 );
+		final Moments first = new Moments();
+		final Moments second = new Moments();
+		for ( int i = 0; i < data.length; i ++ )
+			( i < 3000 ? first : second ).add( data[ i ] );
+		assertMoments( twoPass( data, 0, 1, data.length ), first.merge( second ) );
+	}
+
+	private static float[] createValues( final int n, final double offset, final double spread, final long seed )
+	{
+		final Random random = new Random( seed );
+		final float[] data = new float[ n ];
+		for ( int i = 0; i < n; i ++ )
+			data[ i ] = ( float ) ( offset + random.nextGaussian() * spread );
+		return data;
+	}
+
+	/**
+	 * Mean and variance of n values of an array separated by a stride, computed with two passes
+	 */
+	private static double[] twoPass( final float[] data, final int from, final int stride, final int n )
+	{
+		double sum = 0;
+		for ( int i = 0; i < n; i ++ )
+			sum += data[ from + i * stride ];
+		final double mean = sum / n;
+		double m2 = 0;
+		for ( int i = 0; i < n; i ++ )
+		{
+			final double dx = data[ from + i * stride ] - mean;
+			m2 += dx * dx;
+		}
+		return new double[] { n, mean, m2 / n };
+	}
+
+	private static void assertMoments( final double[] expected, final Moments moments )
+	{
+		assertEquals( ( long ) expected[ 0 ], moments.getCount() );
+		assertEquals( expected[ 1 ], moments.getMean(), Math.abs( expected[ 1 ] ) * TOLERANCE + 1e-12 );
+		assertEquals( expected[ 2 ], moments.getVariance(), expected[ 2 ] * TOLERANCE );
+	}
+}
@@ -0,0 +1,102 @@
+/*-
+ * #%L
+ * Use deep learning frameworks from Java in an agnostic and isolated way.
+ * %%
+ * Copyright (C) 2022 - 2023 Institut Pasteur and BioImage.IO developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.bioimage.modelrunner.transformations;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+
+/**
+ * Tests of {@link Percentiles} against sorting the values of the image
+ *
+ * @author Carlos Garcia Lopez de Haro
+ */
+public class PercentilesTest
+{
+	private static final double[] PERCENTILES = new double[] { 0, 0.003, 0.25, 0.5, 0.9, 0.998, 1 };
+
+	@Test
+	public void testHistogramMatchesSort()
+	{
+		final Random random = new Random( 42 );
+		final ArrayImg< UnsignedShortType, ShortArray > img = ArrayImgs.unsignedShorts( 301, 257, 3 );
+		final short[] data = img.update( null ).getCurrentStorageArray();
+		final float[] values = new float[ data.length ];
+		for ( int i = 0; i < data.length; i ++ )
+		{
+			final int vv = random.nextInt( 1 << 16 );
+			data[ i ] = ( short ) vv;
+			values[ i ] = vv;
+		}
+		assertArrayEquals( fromSort( values, PERCENTILES ), Percentiles.compute( img, PERCENTILES ) );
+	}
+
+	@Test
+	public void testQuickselectMatchesSort()
+	{
+		final Random random = new Random( 42 );
+		final float[] data = new float[ 123 * 77 ];
+		for ( int i = 0; i < data.length; i ++ )
+			data[ i ] = ( float ) random.nextGaussian() * 100;
+		// Repeated values
+		for ( int i = 0; i < data.length; i += 7 )
+			data[ i ] = 3;
+		final ArrayImg< FloatType, FloatArray > img = ArrayImgs.floats( data.clone(), 123, 77 );
+		assertArrayEquals( fromSort( data, PERCENTILES ), Percentiles.compute( img, PERCENTILES ) );
+	}
+
+	@Test
+	public void testSingleValue()
+	{
+		final ArrayImg< FloatType, FloatArray > img = ArrayImgs.floats( new float[] { 5 }, 1 );
+		assertArrayEquals( new float[] { 5, 5 }, Percentiles.compute( img, 0, 1 ) );
+	}
+
+	@Test
+	public void testEmptyImage()
+	{
+		final ArrayImg< FloatType, FloatArray > img = ArrayImgs.floats( 0 );
+		assertThrows( IllegalArgumentException.class, () -> Percentiles.compute( img, 0.5 ) );
+	}
+
+	/**
+	 * Value at every percentile with the rank used by {@link Percentiles}, found by sorting
+	 */
+	private static float[] fromSort( final float[] values, final double[] percentiles )
+	{
+		final float[] sorted = values.clone();
+		Arrays.sort( sorted );
+		final float[] result = new float[ percentiles.length ];
+		for ( int i = 0; i < percentiles.length; i ++ )
+			result[ i ] = sorted[ ( int ) Math.min( sorted.length - 1, ( long ) ( sorted.length * percentiles[ i ] ) ) ];
+		return result;
+	}
+}
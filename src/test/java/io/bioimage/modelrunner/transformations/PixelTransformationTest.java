@@ -0,0 +1,180 @@
+/*-
+ * #%L
+ * Use deep learning frameworks from Java in an agnostic and isolated way.
+ * %%
+ * Copyright (C) 2022 - 2023 Institut Pasteur and BioImage.IO developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.bioimage.modelrunner.transformations;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import io.bioimage.modelrunner.tensor.Tensor;
+import io.bioimage.modelrunner.transformations.AbstractTensorPixelTransformation.FloatUnaryOperator;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.ImgFactory;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.loops.LoopBuilder;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.ByteType;
+import net.imglib2.type.numeric.integer.ShortType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+/**
+ * Tests that the pixel transformations give the same result when they loop over the primitive
+ * arrays of {@link net.imglib2.img.array.ArrayImg}s and when they go through the generic
+ * {@link LoopBuilder} path, used for any other image
+ *
+ * @author Carlos Garcia Lopez de Haro
+ */
+public class PixelTransformationTest
+{
+	private static final String AXES = "bcyx";
+
+	private static final long[] SHAPE = new long[] { 1, 2, 33, 17 };
+
+	private static final float TOLERANCE = 1e-6f;
+
+	@Test
+	public void testFloats()
+	{
+		testPathsAgree( new FloatType() );
+	}
+
+	@Test
+	public void testUnsignedBytes()
+	{
+		testPathsAgree( new UnsignedByteType() );
+	}
+
+	@Test
+	public void testBytes()
+	{
+		testPathsAgree( new ByteType() );
+	}
+
+	@Test
+	public void testUnsignedShorts()
+	{
+		testPathsAgree( new UnsignedShortType() );
+	}
+
+	@Test
+	public void testShorts()
+	{
+		testPathsAgree( new ShortType() );
+	}
+
+	/**
+	 * Clip, Binarize and Sigmoid used to write the result of applyInPlace into a new tensor
+	 * that was discarded, leaving the input unchanged
+	 */
+	@Test
+	public void testApplyInPlaceModifiesTheInput()
+	{
+		for ( final Map.Entry< AbstractTensorPixelTransformation, FloatUnaryOperator > entry : createTransformations().entrySet() )
+		{
+			final Img< FloatType > arrayImg = createImage( new ArrayImgFactory<>( new FloatType() ) );
+			final Img< FloatType > cellImg = copyToCellImg( arrayImg );
+			final Img< FloatType > original = arrayImg.copy();
+			entry.getKey().applyInPlace( Tensor.build( "input0", AXES, arrayImg ) );
+			entry.getKey().applyInPlace( Tensor.build( "input0", AXES, cellImg ) );
+			assertTransformed( original, arrayImg, entry.getValue() );
+			assertTransformed( original, cellImg, entry.getValue() );
+		}
+	}
+
+	private static < T extends RealType< T > & NativeType< T > > void testPathsAgree( final T type )
+	{
+		final Img< T > arrayImg = createImage( new ArrayImgFactory<>( type ) );
+		final Img< T > cellImg = copyToCellImg( arrayImg );
+		final long[] min = new long[] { 0, 0, 3, 2 };
+		final long[] max = new long[] { 0, 1, 30, 15 };
+		final RandomAccessibleInterval< T > view = Views.zeroMin( Views.interval( arrayImg, min, max ) );
+		for ( final Map.Entry< AbstractTensorPixelTransformation, FloatUnaryOperator > entry : createTransformations().entrySet() )
+		{
+			final AbstractTensorPixelTransformation transformation = entry.getKey();
+			final FloatUnaryOperator expected = entry.getValue();
+			assertTransformed( arrayImg, transformation.apply( Tensor.build( "input0", AXES, arrayImg ) ).getData(), expected );
+			assertTransformed( cellImg, transformation.apply( Tensor.build( "input0", AXES, cellImg ) ).getData(), expected );
+			assertTransformed( view, transformation.apply( Tensor.build( "input0", AXES, view ) ).getData(), expected );
+		}
+	}
+
+	/**
+	 * Create each pixel transformation together with the function it should apply
+	 */
+	private static Map< AbstractTensorPixelTransformation, FloatUnaryOperator > createTransformations()
+	{
+		final Map< AbstractTensorPixelTransformation, FloatUnaryOperator > transformations = new LinkedHashMap<>();
+		final BinarizeTransformation binarize = new BinarizeTransformation();
+		binarize.setThreshold( 10.0 );
+		transformations.put( binarize, v -> v >= 10 ? 1 : 0 );
+		final ClipTransformation clip = new ClipTransformation();
+		clip.setMin( -50.0 );
+		clip.setMax( 100.0 );
+		transformations.put( clip, v -> Math.max( -50, Math.min( 100, v ) ) );
+		transformations.put( new SigmoidTransformation(), v -> ( float ) ( 1. / ( 1. + Math.exp( -v ) ) ) );
+		return transformations;
+	}
+
+	/**
+	 * Create an image filled with random values within the range of its type, limited to [-1000, 1000]
+	 */
+	private static < T extends RealType< T > & NativeType< T > > Img< T > createImage( final ImgFactory< T > factory )
+	{
+		final Img< T > img = factory.create( SHAPE );
+		final Random random = new Random( 42 );
+		final T type = img.firstElement();
+		final double min = Math.max( type.getMinValue(), -1000 );
+		final double max = Math.min( type.getMaxValue(), 1000 );
+		for ( final T px : img )
+			px.setReal( Math.round( min + random.nextDouble() * ( max - min ) ) + ( type instanceof FloatType ? random.nextDouble() : 0 ) );
+		return img;
+	}
+
+	/**
+	 * Copy an image into a {@link net.imglib2.img.cell.CellImg} with small cells, which the
+	 * primitive array path does not support
+	 */
+	private static < T extends RealType< T > & NativeType< T > > Img< T > copyToCellImg( final Img< T > img )
+	{
+		final Img< T > cellImg = new CellImgFactory<>( img.firstElement().createVariable(), 8 ).create( SHAPE );
+		LoopBuilder.setImages( img, cellImg ).forEachPixel( ( i, o ) -> o.set( i ) );
+		return cellImg;
+	}
+
+	private static < T extends RealType< T > > void assertTransformed( final RandomAccessibleInterval< T > input,
+			final RandomAccessibleInterval< FloatType > output, final FloatUnaryOperator expected )
+	{
+		final Cursor< T > ic = Views.flatIterable( input ).cursor();
+		final Cursor< FloatType > oc = Views.flatIterable( output ).cursor();
+		while ( ic.hasNext() )
+			assertEquals( expected.applyAsFloat( ic.next().getRealFloat() ), oc.next().get(), TOLERANCE );
+	}
+}
@@ -0,0 +1,266 @@
+/*-
+ * #%L
+ * Use deep learning frameworks from Java in an agnostic and isolated way.
+ * %%
+ * Copyright (C) 2022 - 2023 Institut Pasteur and BioImage.IO developers.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.bioimage.modelrunner.transformations;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import io.bioimage.modelrunner.bioimageio.description.TransformSpec;
+import io.bioimage.modelrunner.tensor.Tensor;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.loops.LoopBuilder;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+/**
+ * Tests that the fused {@link ProcessingPipeline} gives the same result as applying its
+ * transformations one after the other
+ *
+ * @author Carlos Garcia Lopez de Haro
+ */
+public class ProcessingPipelineTest
+{
+	private static final String AXES = "bcyx";
+
+	private static final long[] SHAPE = new long[] { 1, 2, 40, 30 };
+
+	private static final float TOLERANCE = 1e-5f;
+
+	@Test
+	public void testFusedMatchesSequential()
+	{
+		final ProcessingPipeline pipeline = ProcessingPipeline.build( Arrays.asList(
+				spec( "scale_linear", "gain", 2, "offset", 1 ),
+				spec( "clip", "min", 0.5, "max", 2.5 ),
+				spec( "zero_mean_unit_variance", "mode", "per_sample" ),
+				spec( "sigmoid" ),
+				spec( "scale_range", "mode", "per_sample", "axes", "xy", "min_percentile", 5, "max_percentile", 95 ) ) );
+		final Tensor< FloatType > input = createFloatTensor();
+		final Tensor< FloatType > fused = pipeline.apply( input );
+		final Tensor< FloatType > sequential = copy( input );
+		for ( final TensorTransformation transformation : pipeline.getTransformations() )
+			transformation.applyInPlace( sequential );
+		assertClose( sequential.getData(), fused.getData() );
+	}
+
+	@Test
+	public void testFusedMatchesSequentialOnIntegers()
+	{
+		final ProcessingPipeline pipeline = ProcessingPipeline.build( Arrays.asList(
+				spec( "scale_linear", "gain", 0.5, "offset", -3 ),
+				spec( "sigmoid" ),
+				spec( "zero_mean_unit_variance", "mode", "per_sample", "axes", "xy" ) ) );
+		final Random random = new Random( 42 );
+		final RandomAccessibleInterval< UnsignedByteType > data = ArrayImgs.unsignedBytes( SHAPE );
+		LoopBuilder.setImages( data ).forEachPixel( p -> p.set( random.nextInt( 256 ) ) );
+		final Tensor< UnsignedByteType > input = Tensor.build( "input0", AXES, data );
+		final Tensor< FloatType > fused = pipeline.apply( input );
+		final List< TensorTransformation > transformations = pipeline.getTransformations();
+		final Tensor< FloatType > sequential = transformations.get( 0 ).apply( input );
+		for ( final TensorTransformation transformation : transformations.subList( 1, transformations.size() ) )
+			transformation.applyInPlace( sequential );
+		assertClose( sequential.getData(), fused.getData() );
+	}
+
+	@Test
+	public void testApplyToOutputOfFloatsIsInPlace()
+	{
+		final ProcessingPipeline pipeline = ProcessingPipeline.build( Arrays.asList( spec( "sigmoid" ) ) );
+		final Tensor< FloatType > output = createFloatTensor();
+		final Tensor< FloatType > expected = copy( output );
+		pipeline.getTransformations().get( 0 ).applyInPlace( expected );
+		assertSame( output, pipeline.applyToOutput( output ) );
+		assertClose( expected.getData(), output.getData() );
+	}
+
+	@Test
+	public void testBinarizedOutputIsMask()
+	{
+		final ProcessingPipeline pipeline = ProcessingPipeline.build( Arrays.asList(
+				spec( "scale_linear", "gain", 0.01, "offset", -5 ),
+				spec( "sigmoid" ),
+				spec( "binarize", "threshold", 0.4 ) ) );
+		final Tensor< UnsignedShortType > output = createShortTensor();
+		final Tensor< ? > mask = pipeline.applyToOutputWithNarrowType( output );
+		assertTrue( Util.getTypeFromInterval( mask.getData() ) instanceof UnsignedByteType );
+		assertSameValues( pipeline.apply( output ).getData(), mask.getData() );
+	}
+
+	@Test
+	public void testOnlyBinarizedOutputIsMask()
+	{
+		final ProcessingPipeline pipeline = ProcessingPipeline.build( Arrays.asList( spec( "binarize", "threshold", 300 ) ) );
+		final Tensor< UnsignedShortType > output = createShortTensor();
+		final Tensor< ? > mask = pipeline.applyToOutputWithNarrowType( output );
+		assertTrue( Util.getTypeFromInterval( mask.getData() ) instanceof UnsignedByteType );
+		assertSameValues( pipeline.apply( output ).getData(), mask.getData() );
+	}
+
+	@Test
+	public void testClippedOutputKeepsType()
+	{
+		final ProcessingPipeline pipeline = ProcessingPipeline.build( Arrays.asList( spec( "clip", "min", 100, "max", 700 ) ) );
+		final Tensor< UnsignedShortType > output = createShortTensor();
+		final Tensor< ? > clipped = pipeline.applyToOutputWithNarrowType( output );
+		assertTrue( Util.getTypeFromInterval( clipped.getData() ) instanceof UnsignedShortType );
+		assertSameValues( pipeline.apply( output ).getData(), clipped.getData() );
+	}
+
+	@Test
+	public void testClippedOutputWithFractionalBoundsIsFloat()
+	{
+		final ProcessingPipeline pipeline = ProcessingPipeline.build( Arrays.asList( spec( "clip", "min", 100.5, "max", 700 ) ) );
+		final Tensor< UnsignedShortType > output = createShortTensor();
+		final Tensor< ? > clipped = pipeline.applyToOutputWithNarrowType( output );
+		assertTrue( Util.getTypeFromInterval( clipped.getData() ) instanceof FloatType );
+		assertSameValues( pipeline.apply( output ).getData(), clipped.getData() );
+	}
+
+	@Test
+	public void testBinarizedOutputOfFloatsIsInPlace()
+	{
+		final ProcessingPipeline pipeline = ProcessingPipeline.build( Arrays.asList( spec( "binarize", "threshold", 0.5 ) ) );
+		final Tensor< FloatType > output = createFloatTensor();
+		final Tensor< FloatType > expected = pipeline.apply( output );
+		assertSame( output, pipeline.applyToOutputWithNarrowType( output ) );
+		assertSameValues( expected.getData(), output.getData() );
+	}
+
+	@Test
+	public void testGlobalScaleWithReferenceOfAnotherShape()
+	{
+		final ProcessingPipeline pipeline = ProcessingPipeline.build( Arrays.asList(
+				spec( "scale_range", "mode", "per_sample", "reference_tensor", "input0",
+						"min_percentile", 1, "max_percentile", 99 ) ) );
+		final Random random = new Random( 42 );
+		final RandomAccessibleInterval< UnsignedByteType > refData = ArrayImgs.unsignedBytes( 1, 3, 50, 20 );
+		LoopBuilder.setImages( refData ).forEachPixel( p -> p.set( random.nextInt( 256 ) ) );
+		final Tensor< UnsignedByteType > reference = Tensor.build( "input0", AXES, refData );
+		pipeline.setReferenceTensors( Arrays.asList( reference ) );
+		final ScaleRangeTransformation transformation = ( ScaleRangeTransformation ) pipeline.getTransformations().get( 0 );
+		transformation.setReference( reference );
+		final Tensor< FloatType > output = Tensor.build( "output0", AXES, createFloatTensor().getData() );
+		final Tensor< FloatType > expected = transformation.apply( output );
+		assertClose( expected.getData(), pipeline.applyToOutput( output ).getData() );
+	}
+
+	@Test
+	public void testPlaneScaleNeedsReferenceOfTheSameShape()
+	{
+		final ScaleRangeTransformation transformation = ( ScaleRangeTransformation ) ProcessingPipeline.build(
+				Arrays.asList( spec( "scale_range", "mode", "per_sample", "axes", "xy", "reference_tensor", "input0" ) ) )
+				.getTransformations().get( 0 );
+		transformation.setReference( Tensor.build( "input0", AXES, ArrayImgs.floats( 1, 3, 50, 20 ) ) );
+		final Tensor< FloatType > output = Tensor.build( "output0", AXES, createFloatTensor().getData() );
+		assertThrows( IllegalArgumentException.class, () -> transformation.apply( output ) );
+	}
+
+	@Test
+	public void testIsPixelwise()
+	{
+		assertTrue( ProcessingPipeline.build( new ArrayList< TransformSpec >() ).isPixelwise( AXES ) );
+		assertTrue( ProcessingPipeline.build( Arrays.asList(
+				spec( "scale_linear", "gain", 2, "offset", 1 ),
+				spec( "clip", "min", 0, "max", 1 ),
+				spec( "sigmoid" ),
+				spec( "binarize", "threshold", 0.5 ) ) ).isPixelwise( AXES ) );
+		assertFalse( ProcessingPipeline.build( Arrays.asList(
+				spec( "sigmoid" ),
+				spec( "zero_mean_unit_variance", "mode", "per_sample" ) ) ).isPixelwise( AXES ) );
+		assertFalse( ProcessingPipeline.build( Arrays.asList(
+				spec( "scale_range", "mode", "per_sample" ) ) ).isPixelwise( AXES ) );
+	}
+
+	/**
+	 * Create the spec of a transformation from its name and pairs of argument names and values
+	 */
+	private static TransformSpec spec( final String name, final Object... kwargs )
+	{
+		final Map< String, Object > args = new HashMap< String, Object >();
+		for ( int i = 0; i < kwargs.length; i += 2 )
+			args.put( ( String ) kwargs[ i ], kwargs[ i + 1 ] );
+		final Map< String, Object > map = new HashMap< String, Object >();
+		map.put( TransformSpec.getTransformationNameKey(), name );
+		map.put( TransformSpec.getKwargsKey(), args );
+		return TransformSpec.build( map );
+	}
+
+	private static Tensor< FloatType > createFloatTensor()
+	{
+		final Random random = new Random( 42 );
+		final RandomAccessibleInterval< FloatType > data = ArrayImgs.floats( SHAPE );
+		LoopBuilder.setImages( data ).forEachPixel( p -> p.set( ( float ) random.nextGaussian() ) );
+		return Tensor.build( "input0", AXES, data );
+	}
+
+	private static Tensor< UnsignedShortType > createShortTensor()
+	{
+		final Random random = new Random( 42 );
+		final RandomAccessibleInterval< UnsignedShortType > data = ArrayImgs.unsignedShorts( SHAPE );
+		LoopBuilder.setImages( data ).forEachPixel( p -> p.set( random.nextInt( 1000 ) ) );
+		return Tensor.build( "output0", AXES, data );
+	}
+
+	private static Tensor< FloatType > copy( final Tensor< FloatType > tensor )
+	{
+		final RandomAccessibleInterval< FloatType > data = ArrayImgs.floats( tensor.getData().dimensionsAsLongArray() );
+		LoopBuilder.setImages( tensor.getData(), data ).forEachPixel( ( i, o ) -> o.set( i ) );
+		return Tensor.build( tensor.getName(), tensor.getAxesOrderString(), data );
+	}
+
+	private static void assertClose( final RandomAccessibleInterval< FloatType > expected,
+			final RandomAccessibleInterval< FloatType > actual )
+	{
+		final Cursor< FloatType > ec = Views.flatIterable( expected ).cursor();
+		final Cursor< FloatType > ac = Views.flatIterable( actual ).cursor();
+		while ( ec.hasNext() )
+		{
+			final float ee = ec.next().get();
+			assertEquals( ee, ac.next().get(), TOLERANCE * Math.max( 1, Math.abs( ee ) ) );
+		}
+	}
+
+	private static void assertSameValues( final RandomAccessibleInterval< FloatType > expected,
+			final RandomAccessibleInterval< ? extends RealType< ? > > actual )
+	{
+		final Cursor< FloatType > ec = Views.flatIterable( expected ).cursor();
+		final Cursor< ? extends RealType< ? > > ac = Views.flatIterable( actual ).cursor();
+		while ( ec.hasNext() )
+			assertEquals( ec.next().get(), ac.next().getRealFloat() );
+	}
+}